@@ -1098,6 +1098,14 @@ public class OnnServlet extends HtmlServlet implements OnnConstants {
 			this.accessUrl = accessUrl;
 			this.name = this.getName();
 		}
+		/**
+		 * Check whether or not the node is active, i.e., included in
+		 * replication.
+		 * @return true if the node is active
+		 */
+		public boolean isActive() {
+			return this.active;
+		}
 		boolean ping() {
 			try {
 				this.lastAttemptedContact = System.currentTimeMillis();
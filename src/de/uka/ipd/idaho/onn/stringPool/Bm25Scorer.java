@@ -0,0 +1,220 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Okapi BM25 scorer for plain strings. Query tokens are matched as prefixes
+ * of the tokens of a string, in line with the token match semantics of find
+ * queries, so the term frequency of a query token is the number of tokens in
+ * a string starting with it. Besides exact scores, the scorer provides an
+ * upper bound for the score contribution of each query token, which allows
+ * for skipping strings that cannot make it into a top-k result.
+ * 
+ * @author sautter
+ */
+class Bm25Scorer {
+	
+	private static final double K1 = 1.2;
+	private static final double B = 0.75;
+	
+	private final String[] queryTokens;
+	private final double[] idfs;
+	private final double avgLength;
+	
+	/**
+	 * Constructor
+	 * @param queryTokens the (lower case) query tokens
+	 * @param docFreqs the number of strings containing a token starting with
+	 *            each query token
+	 * @param docCount the total number of strings
+	 * @param avgLength the average number of tokens in a string
+	 */
+	Bm25Scorer(String[] queryTokens, int[] docFreqs, int docCount, double avgLength) {
+		this.queryTokens = queryTokens;
+		this.idfs = new double[queryTokens.length];
+		for (int t = 0; t < queryTokens.length; t++)
+			this.idfs[t] = Math.log(1 + ((docCount - docFreqs[t] + 0.5) / (docFreqs[t] + 0.5)));
+		this.avgLength = ((avgLength > 0) ? avgLength : 1);
+	}
+	
+	/**
+	 * Retrieve the maximum score contribution of a query token, which it
+	 * approaches as the term frequency grows.
+	 * @param t the index of the query token
+	 * @return the upper bound
+	 */
+	double getUpperBound(int t) {
+		return (this.idfs[t] * (K1 + 1));
+	}
+	
+	/**
+	 * Count how many tokens of a string start with each query token. The
+	 * returned array has one more element than there are query tokens, the
+	 * last one holding the total number of tokens in the string.
+	 * @param text the text of the string
+	 * @return an array holding the term frequencies and string length
+	 */
+	int[] getTermFrequencies(String text) {
+		int[] tfs = new int[this.queryTokens.length + 1];
+		String[] tokens = text.toLowerCase().split("[^\\p{L}\\p{N}]++");
+		for (int t = 0; t < tokens.length; t++) {
+			if (tokens[t].length() == 0)
+				continue;
+			tfs[this.queryTokens.length]++;
+			for (int q = 0; q < this.queryTokens.length; q++) {
+				if (tokens[t].startsWith(this.queryTokens[q]))
+					tfs[q]++;
+			}
+		}
+		return tfs;
+	}
+	
+	/**
+	 * Compute the BM25 score of a string.
+	 * @param tfs the term frequencies, as returned by getTermFrequencies()
+	 * @return the score
+	 */
+	double score(int[] tfs) {
+		double norm = (K1 * (1 - B + (B * (tfs[this.queryTokens.length] / this.avgLength))));
+		double score = 0;
+		for (int t = 0; t < this.queryTokens.length; t++) {
+			if (tfs[t] != 0)
+				score += (this.idfs[t] * ((tfs[t] * (K1 + 1)) / (tfs[t] + norm)));
+		}
+		return score;
+	}
+	
+	/**
+	 * Count the tokens in a string.
+	 * @param text the text of the string
+	 * @return the number of tokens
+	 */
+	static int getLength(String text) {
+		String[] tokens = text.split("[^\\p{L}\\p{N}]++");
+		int length = 0;
+		for (int t = 0; t < tokens.length; t++) {
+			if (tokens[t].length() != 0)
+				length++;
+		}
+		return length;
+	}
+	
+	/**
+	 * Bounded collection of the highest scoring objects offered to it. Among
+	 * objects with equal scores, the ones with the lower keys are retained, so
+	 * the order is deterministic.
+	 * 
+	 * @author sautter
+	 */
+	static class TopScores {
+		private final int capacity;
+		private final PriorityQueue heap = new PriorityQueue(16, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				ScoredObject so1 = ((ScoredObject) obj1);
+				ScoredObject so2 = ((ScoredObject) obj2);
+				if (so1.score != so2.score)
+					return ((so1.score < so2.score) ? -1 : 1);
+				return so2.key.compareTo(so1.key);
+			}
+		});
+		
+		/**
+		 * Constructor
+		 * @param capacity the number of objects to retain (0 means no limit)
+		 */
+		TopScores(int capacity) {
+			this.capacity = ((capacity < 1) ? Integer.MAX_VALUE : capacity);
+		}
+		
+		/**
+		 * Retrieve the score an object has to exceed to be retained. While
+		 * capacity is not exhausted, this method returns negative infinity.
+		 * Objects with a score equal to the threshold are retained only if
+		 * their key is lower than that of the lowest ranked retained object.
+		 * @return the threshold score
+		 */
+		double getThreshold() {
+			return ((this.heap.size() < this.capacity) ? Double.NEGATIVE_INFINITY : ((ScoredObject) this.heap.peek()).score);
+		}
+		
+		/**
+		 * Offer an object.
+		 * @param obj the object
+		 * @param key the key of the object for ordering objects with equal
+		 *            scores
+		 * @param score the score of the object
+		 * @return true if the object was retained
+		 */
+		boolean offer(Object obj, String key, double score) {
+			double threshold = this.getThreshold();
+			if ((score < threshold) || ((score == threshold) && (key.compareTo(((ScoredObject) this.heap.peek()).key) >= 0)))
+				return false;
+			this.heap.add(new ScoredObject(obj, key, score));
+			if (this.heap.size() > this.capacity)
+				this.heap.poll();
+			return true;
+		}
+		
+		/**
+		 * Retrieve the retained objects, highest score first.
+		 * @return a list holding the objects
+		 */
+		ArrayList getObjects() {
+			ScoredObject[] sorted = this.getSorted();
+			ArrayList objects = new ArrayList(sorted.length);
+			for (int o = 0; o < sorted.length; o++)
+				objects.add(sorted[o].obj);
+			return objects;
+		}
+		
+		/**
+		 * Retrieve the scores of the retained objects, highest score first.
+		 * @return an array holding the scores
+		 */
+		double[] getScores() {
+			ScoredObject[] sorted = this.getSorted();
+			double[] scores = new double[sorted.length];
+			for (int o = 0; o < sorted.length; o++)
+				scores[o] = sorted[o].score;
+			return scores;
+		}
+		
+		private ScoredObject[] getSorted() {
+			ScoredObject[] sorted = new ScoredObject[this.heap.size()];
+			PriorityQueue heap = new PriorityQueue(this.heap);
+			for (int o = (sorted.length - 1); o >= 0; o--)
+				sorted[o] = ((ScoredObject) heap.poll());
+			return sorted;
+		}
+		
+		private static class ScoredObject {
+			final Object obj;
+			final String key;
+			final double score;
+			ScoredObject(Object obj, String key, double score) {
+				this.obj = obj;
+				this.key = key;
+				this.score = score;
+			}
+		}
+	}
+}
@@ -0,0 +1,154 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Counter for strings by creation time, answering the number of strings
+ * created after a given point in time in logarithmic time. Creation times are
+ * grouped in buckets of one hour, whose counts are held in a Fenwick tree, so
+ * counting all full buckets after a given time takes O(log n). The creation
+ * times in each bucket are retained as well to count the partial bucket the
+ * given time falls into exactly.
+ * 
+ * @author sautter
+ */
+class CreateTimeCounter {
+	
+	private static final long BUCKET_WIDTH = (1000 * 60 * 60);
+	
+	private int[] tree = new int[1];
+	private HashMap bucketTimes = new HashMap();
+	private int total = 0;
+	
+	/**
+	 * Count a string with a given creation time.
+	 * @param createTime the creation time
+	 */
+	synchronized void add(long createTime) {
+		int bucket = getBucket(createTime);
+		this.ensureCapacity(bucket);
+		TimeList times = ((TimeList) this.bucketTimes.get(new Integer(bucket)));
+		if (times == null) {
+			times = new TimeList();
+			this.bucketTimes.put(new Integer(bucket), times);
+		}
+		times.add(createTime);
+		this.updateTree(bucket, 1);
+		this.total++;
+	}
+	
+	/**
+	 * Un-count a string with a given creation time. If no string with the
+	 * argument creation time was counted, this method does nothing.
+	 * @param createTime the creation time
+	 */
+	synchronized void remove(long createTime) {
+		int bucket = getBucket(createTime);
+		TimeList times = ((TimeList) this.bucketTimes.get(new Integer(bucket)));
+		if ((times == null) || !times.remove(createTime))
+			return;
+		if (times.size == 0)
+			this.bucketTimes.remove(new Integer(bucket));
+		this.updateTree(bucket, -1);
+		this.total--;
+	}
+	
+	/**
+	 * Count the strings created after a given time. If the argument time is
+	 * less than 1, this method returns the total number of strings.
+	 * @param since the time to count from (exclusive)
+	 * @return the number of strings created after the argument time
+	 */
+	synchronized int count(long since) {
+		if (since < 1)
+			return this.total;
+		int bucket = getBucket(since);
+		if (bucket >= (this.tree.length - 1))
+			bucket = (this.tree.length - 2);
+		
+		//	count full buckets after the one the argument time falls into
+		int count = (this.total - this.sumTree(bucket));
+		
+		//	count partial bucket
+		TimeList times = ((TimeList) this.bucketTimes.get(new Integer(getBucket(since))));
+		if (times != null)
+			count += times.countAfter(since);
+		return count;
+	}
+	
+	private static int getBucket(long time) {
+		return ((time < 0) ? 0 : ((int) (time / BUCKET_WIDTH)));
+	}
+	
+	private void ensureCapacity(int bucket) {
+		if (bucket < (this.tree.length - 1))
+			return;
+		int capacity = Math.max(1024, (this.tree.length - 1));
+		while (capacity <= bucket)
+			capacity *= 2;
+		this.tree = new int[capacity + 1];
+		for (Iterator bit = this.bucketTimes.keySet().iterator(); bit.hasNext();) {
+			Integer b = ((Integer) bit.next());
+			this.updateTree(b.intValue(), ((TimeList) this.bucketTimes.get(b)).size);
+		}
+	}
+	
+	private void updateTree(int bucket, int delta) {
+		for (int i = (bucket + 1); i < this.tree.length; i += (i & -i))
+			this.tree[i] += delta;
+	}
+	
+	private int sumTree(int bucket) {
+		int sum = 0;
+		for (int i = (bucket + 1); i > 0; i -= (i & -i))
+			sum += this.tree[i];
+		return sum;
+	}
+	
+	private static class TimeList {
+		long[] times = new long[4];
+		int size = 0;
+		void add(long time) {
+			if (this.size == this.times.length) {
+				long[] times = new long[this.times.length * 2];
+				System.arraycopy(this.times, 0, times, 0, this.size);
+				this.times = times;
+			}
+			this.times[this.size++] = time;
+		}
+		boolean remove(long time) {
+			for (int t = 0; t < this.size; t++)
+				if (this.times[t] == time) {
+					this.times[t] = this.times[--this.size];
+					return true;
+				}
+			return false;
+		}
+		int countAfter(long time) {
+			int count = 0;
+			for (int t = 0; t < this.size; t++) {
+				if (this.times[t] > time)
+					count++;
+			}
+			return count;
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * In-memory facet index over the strings, holding the value of each string
+ * in a fixed number of facets (e.g. type, contributing user, or year). Each
+ * facet keeps a counter per value, which is updated along with the strings,
+ * so facet counts over all strings are available without any scanning.<br>
+ * For counts over a subset of the strings (e.g. the result of a search), the
+ * subset is represented as a bitmap over string numbers. Facets with few
+ * distinct values (up to 64) keep a bitmap per value, and count by bitmap
+ * intersection if that is cheaper than looking up the value of each string in
+ * the subset; facets with more values drop their bitmaps, which would take up
+ * more memory than they save time.
+ * 
+ * @author sautter
+ */
+class FacetIndex {
+	
+	private static final int MAX_BITMAP_VALUES = 64;
+	
+	private final Facet[] facets;
+	private HashMap docNumbers = new HashMap();
+	private int docCount = 0;
+	
+	private static class Facet {
+		HashMap valueNumbers = new HashMap();
+		ArrayList values = new ArrayList();
+		int[] counts = new int[16];
+		int[] docValues = new int[1024];
+		ArrayList bitmaps = new ArrayList(); // null once facet has too many values
+		void set(int doc, String value) {
+			if (doc == this.docValues.length) {
+				int[] docValues = new int[this.docValues.length * 2];
+				System.arraycopy(this.docValues, 0, docValues, 0, doc);
+				this.docValues = docValues;
+			}
+			
+			//	get value number, adding value if new
+			Integer valueNumber = ((Integer) this.valueNumbers.get(value));
+			if (valueNumber == null) {
+				valueNumber = new Integer(this.values.size());
+				this.valueNumbers.put(value, valueNumber);
+				this.values.add(value);
+				if (this.values.size() > this.counts.length) {
+					int[] counts = new int[this.counts.length * 2];
+					System.arraycopy(this.counts, 0, counts, 0, this.counts.length);
+					this.counts = counts;
+				}
+				if (this.values.size() > MAX_BITMAP_VALUES)
+					this.bitmaps = null;
+				else if (this.bitmaps != null)
+					this.bitmaps.add(new BitSet());
+			}
+			
+			//	count string for value
+			int v = valueNumber.intValue();
+			this.docValues[doc] = v;
+			this.counts[v]++;
+			if (this.bitmaps != null)
+				((BitSet) this.bitmaps.get(v)).set(doc);
+		}
+		void unset(int doc) {
+			int v = this.docValues[doc];
+			this.counts[v]--;
+			if (this.bitmaps != null)
+				((BitSet) this.bitmaps.get(v)).clear(doc);
+		}
+	}
+	
+	/**
+	 * Count of a facet value, i.e., the number of strings having the value in
+	 * a given facet.
+	 * 
+	 * @author sautter
+	 */
+	static class FacetCount {
+		final String value;
+		final int count;
+		FacetCount(String value, int count) {
+			this.value = value;
+			this.count = count;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param facetCount the number of facets
+	 */
+	FacetIndex(int facetCount) {
+		this.facets = new Facet[facetCount];
+		for (int f = 0; f < this.facets.length; f++)
+			this.facets[f] = new Facet();
+	}
+	
+	/**
+	 * @return the number of strings in the index
+	 */
+	synchronized int size() {
+		return this.docCount;
+	}
+	
+	/**
+	 * Set the facet values of a string, adding the string to the index if it
+	 * is not there yet. Null values leave the respective facet value of a
+	 * string in the index unchanged, and are set to the empty string for a
+	 * newly added one.
+	 * @param id the ID of the string
+	 * @param values the facet values of the string, in facet order
+	 */
+	synchronized void set(String id, String[] values) {
+		Integer docNumber = ((Integer) this.docNumbers.get(id));
+		if (docNumber == null) {
+			docNumber = new Integer(this.docCount++);
+			this.docNumbers.put(id, docNumber);
+			for (int f = 0; f < this.facets.length; f++)
+				this.facets[f].set(docNumber.intValue(), (((values[f] == null) ? "" : values[f])));
+		}
+		else for (int f = 0; f < this.facets.length; f++) {
+			if ((values[f] == null) || values[f].equals(this.facets[f].values.get(this.facets[f].docValues[docNumber.intValue()])))
+				continue;
+			this.facets[f].unset(docNumber.intValue());
+			this.facets[f].set(docNumber.intValue(), values[f]);
+		}
+	}
+	
+	/**
+	 * Count the values of a facet, either over all strings in the index, or
+	 * over the strings with a given set of IDs. Values are sorted by
+	 * descending count, values with a count of 0 are omitted.
+	 * @param facet the index of the facet to count
+	 * @param ids the IDs of the strings to count over (null means all)
+	 * @param limit the maximum number of values to return (0 means no limit)
+	 * @return the counts of the values of the argument facet
+	 */
+	synchronized FacetCount[] getCounts(int facet, String[] ids, int limit) {
+		Facet f = this.facets[facet];
+		int[] counts;
+		
+		//	count over all strings, using maintained counters
+		if (ids == null)
+			counts = f.counts;
+		
+		//	count over subset, by bitmap intersection if cheap enough, by value lookup otherwise
+		else {
+			BitSet docs = this.getDocs(ids);
+			int docCardinality = docs.cardinality();
+			counts = new int[f.values.size()];
+			if ((f.bitmaps != null) && ((f.values.size() * ((this.docCount + 63) / 64)) < docCardinality))
+				for (int v = 0; v < counts.length; v++) {
+					BitSet valueDocs = ((BitSet) ((BitSet) f.bitmaps.get(v)).clone());
+					valueDocs.and(docs);
+					counts[v] = valueDocs.cardinality();
+				}
+			else for (int d = docs.nextSetBit(0); d != -1; d = docs.nextSetBit(d + 1))
+				counts[f.docValues[d]]++;
+		}
+		
+		//	sort values by count
+		ArrayList valueCounts = new ArrayList();
+		for (int v = 0; v < f.values.size(); v++) {
+			if (counts[v] != 0)
+				valueCounts.add(new FacetCount(((String) f.values.get(v)), counts[v]));
+		}
+		FacetCount[] facetCounts = ((FacetCount[]) valueCounts.toArray(new FacetCount[valueCounts.size()]));
+		Arrays.sort(facetCounts, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				FacetCount fc1 = ((FacetCount) obj1);
+				FacetCount fc2 = ((FacetCount) obj2);
+				return ((fc1.count == fc2.count) ? fc1.value.compareTo(fc2.value) : (fc2.count - fc1.count));
+			}
+		});
+		if ((limit < 1) || (facetCounts.length <= limit))
+			return facetCounts;
+		FacetCount[] topFacetCounts = new FacetCount[limit];
+		System.arraycopy(facetCounts, 0, topFacetCounts, 0, limit);
+		return topFacetCounts;
+	}
+	
+	private BitSet getDocs(String[] ids) {
+		BitSet docs = new BitSet(this.docCount);
+		for (int i = 0; i < ids.length; i++) {
+			Integer docNumber = ((Integer) this.docNumbers.get(ids[i]));
+			if (docNumber != null)
+				docs.set(docNumber.intValue());
+		}
+		return docs;
+	}
+}
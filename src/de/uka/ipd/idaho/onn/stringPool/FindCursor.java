@@ -0,0 +1,118 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Position in a paged find result, i.e., the sort key of the last string on
+ * a page, plus the write generation the page was computed at. Unranked
+ * results are sorted by string ID, ranked ones by descending score first and
+ * by string ID second. Cursors travel as opaque hex encoded tokens, the token
+ * for the first page is '*'. A cursor whose generation is no longer current
+ * remains valid, as pages continue after the sort key; only the sorted match
+ * IDs of the preceding page cannot be re-used for the next one, as strings
+ * written in the meantime might be missing from them.
+ * 
+ * @author sautter
+ */
+class FindCursor {
+	
+	/** the cursor for the first page */
+	static final FindCursor FIRST_PAGE = new FindCursor(-1, Double.NaN, null);
+	
+	final long generation;
+	final double score;
+	final String lastId;
+	
+	/**
+	 * Constructor
+	 * @param generation the write generation the page was computed at
+	 * @param score the score of the last string on the page (NaN for unranked
+	 *            results)
+	 * @param lastId the ID of the last string on the page
+	 */
+	FindCursor(long generation, double score, String lastId) {
+		this.generation = generation;
+		this.score = score;
+		this.lastId = lastId;
+	}
+	
+	/**
+	 * Check whether a string sorts after the cursor position, i.e., belongs
+	 * on a subsequent page.
+	 * @param score the score of the string (ignored for unranked results)
+	 * @param id the ID of the string
+	 * @return true if the string sorts after the cursor
+	 */
+	boolean isBefore(double score, String id) {
+		if (this.lastId == null)
+			return true;
+		if (!Double.isNaN(this.score) && (score != this.score))
+			return (score < this.score);
+		return (id.compareTo(this.lastId) > 0);
+	}
+	
+	/**
+	 * Encode the cursor into an opaque token.
+	 * @return the token
+	 */
+	String encode() {
+		if (this.lastId == null)
+			return StringPoolConstants.FIRST_PAGE_CURSOR;
+		String cursor = (Long.toString(this.generation, 16) + ":" + Long.toHexString(Double.doubleToLongBits(this.score)) + ":" + this.lastId);
+		StringBuffer token = new StringBuffer();
+		try {
+			byte[] bytes = cursor.getBytes("UTF-8");
+			for (int b = 0; b < bytes.length; b++) {
+				token.append(Character.forDigit(((bytes[b] >>> 4) & 0x0F), 16));
+				token.append(Character.forDigit((bytes[b] & 0x0F), 16));
+			}
+		} catch (UnsupportedEncodingException uee) {} // never gonna happen with UTF-8, but Java don't know
+		return token.toString();
+	}
+	
+	/**
+	 * Decode a cursor token.
+	 * @param token the token to decode
+	 * @return the cursor
+	 * @throws IllegalArgumentException if the argument token is invalid
+	 */
+	static FindCursor decode(String token) {
+		if (StringPoolConstants.FIRST_PAGE_CURSOR.equals(token))
+			return FIRST_PAGE;
+		if ((token.length() % 2) != 0)
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		try {
+			byte[] bytes = new byte[token.length() / 2];
+			for (int b = 0; b < bytes.length; b++)
+				bytes[b] = ((byte) Integer.parseInt(token.substring((b * 2), ((b * 2) + 2)), 16));
+			String[] cursor = new String(bytes, "UTF-8").split("\\:", 3);
+			return new FindCursor(Long.parseLong(cursor[0], 16), Double.longBitsToDouble(Long.parseLong(cursor[1], 16)), cursor[2]);
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		}
+		catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		}
+		catch (ArrayIndexOutOfBoundsException aioobe) {
+			throw new IllegalArgumentException("Invalid cursor: " + token);
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Bounded LRU cache for the results of find queries, keyed by a normalized
+ * form of the query predicates. Each result is tagged with the write
+ * generation of the string pool at the time its query was started, and a
+ * lookup only succeeds if that generation is still current, so any write to
+ * the pool invalidates all cached results at once without touching them.
+ * 
+ * @author sautter
+ */
+class FindResultCache {
+	
+	private static class Result {
+		final long generation;
+		final ArrayList rows;
+		Result(long generation, ArrayList rows) {
+			this.generation = generation;
+			this.rows = rows;
+		}
+	}
+	
+	private final int maxResults;
+	private final int maxResultRows;
+	private LinkedHashMap results = new LinkedHashMap(64, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > maxResults);
+		}
+	};
+	
+	/**
+	 * Constructor
+	 * @param maxResults the maximum number of results to cache
+	 * @param maxResultRows the maximum number of rows in a cacheable result
+	 */
+	FindResultCache(int maxResults, int maxResultRows) {
+		this.maxResults = Math.max(maxResults, 0);
+		this.maxResultRows = Math.max(maxResultRows, 0);
+	}
+	
+	/**
+	 * Check if a result with a given number of rows is small enough to cache.
+	 * @param rowCount the number of rows in the result
+	 * @return true if the result can be cached
+	 */
+	boolean isCacheable(int rowCount) {
+		return ((this.maxResults != 0) && (rowCount <= this.maxResultRows));
+	}
+	
+	/**
+	 * Retrieve the cached rows for a query. If the result was cached under an
+	 * earlier write generation, it is discarded and this method returns null.
+	 * @param key the normalized query key
+	 * @param generation the current write generation
+	 * @return the cached rows, or null if there is no current result
+	 */
+	synchronized ArrayList get(String key, long generation) {
+		Result result = ((Result) this.results.get(key));
+		if (result == null)
+			return null;
+		if (result.generation == generation)
+			return result.rows;
+		this.results.remove(key);
+		return null;
+	}
+	
+	/**
+	 * Store the rows of a query result.
+	 * @param key the normalized query key
+	 * @param generation the write generation at the time the query was started
+	 * @param rows the rows of the result
+	 */
+	synchronized void put(String key, long generation, ArrayList rows) {
+		if (this.isCacheable(rows.size()))
+			this.results.put(key, new Result(generation, rows));
+	}
+	
+	/**
+	 * Produce the normalized cache key for a find query. Text predicates are
+	 * sorted, blank ones are ignored, and detail predicates are sorted by name,
+	 * so equivalent queries map to the same key. Text predicates are lower
+	 * cased as well, safe for regular expressions, where case distinguishes
+	 * escapes like \s and \S.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the full text predicates with 'or'?
+	 * @param matchMode the mode for matching the full text predicates
+	 * @param rankByRelevance sort the result by relevance?
+	 * @param limit the maximum number of strings in the result
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param detailPredicates the detail predicates (type, user, index)
+	 * @return the normalized key
+	 */
+	static String getKey(String[] textPredicates, boolean disjunctive, String matchMode, boolean rankByRelevance, int limit, boolean selfCanonicalOnly, Properties detailPredicates) {
+		StringBuffer key = new StringBuffer();
+		key.append(disjunctive ? "OR" : "AND");
+		key.append("|" + ((matchMode == null) ? "" : matchMode));
+		key.append("|" + (rankByRelevance ? "REL" : ""));
+		key.append("|" + limit);
+		key.append("|" + (selfCanonicalOnly ? "SCO" : "ALL"));
+		if (textPredicates != null) {
+			boolean regEx = StringPoolConstants.REGEX_MATCH_MODE.equals(matchMode);
+			ArrayList predicates = new ArrayList();
+			for (int p = 0; p < textPredicates.length; p++) {
+				if (textPredicates[p].length() == 0)
+					continue;
+				if (regEx)
+					predicates.add(textPredicates[p]);
+				else if (!textPredicates[p].matches("[\\s\\%]++"))
+					predicates.add(textPredicates[p].toLowerCase());
+			}
+			Object[] sortedPredicates = predicates.toArray();
+			Arrays.sort(sortedPredicates);
+			for (int p = 0; p < sortedPredicates.length; p++)
+				key.append("|Q:" + sortedPredicates[p]);
+		}
+		if (detailPredicates != null) {
+			Object[] detailNames = detailPredicates.keySet().toArray();
+			Arrays.sort(detailNames);
+			for (int d = 0; d < detailNames.length; d++)
+				key.append("|" + detailNames[d] + ":" + detailPredicates.getProperty((String) detailNames[d]));
+		}
+		return key.toString();
+	}
+}
@@ -0,0 +1,150 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.HashMap;
+
+/**
+ * In-memory exact match index over the external identifiers of the strings,
+ * mapping identifier type and value to the IDs of the strings carrying them.
+ * Like the identifier table, the index holds at most one value per string and
+ * identifier type, so setting a new value replaces the old one. As most
+ * identifiers belong to a single string, the index holds single string IDs
+ * as they are, and only resorts to arrays for values shared by several
+ * strings.
+ * 
+ * @author sautter
+ */
+class IdentifierIndex {
+	
+	private HashMap stringIds = new HashMap(); // type and value -> string ID, or array of string IDs if shared
+	private HashMap identifiers = new HashMap(); // string ID -> array of identifier types and values, in alternating order
+	private int identifierCount = 0;
+	
+	/**
+	 * @return the number of identifiers in the index
+	 */
+	synchronized int size() {
+		return this.identifierCount;
+	}
+	
+	/**
+	 * Set the value of an identifier of a string, replacing any value of the
+	 * same type the string had before.
+	 * @param id the ID of the string
+	 * @param type the type of the identifier
+	 * @param value the value of the identifier
+	 */
+	synchronized void set(String id, String type, String value) {
+		String[] idIdentifiers = ((String[]) this.identifiers.get(id));
+		
+		//	replace existing value of same type
+		if (idIdentifiers != null)
+			for (int i = 0; i < idIdentifiers.length; i += 2) {
+				if (!idIdentifiers[i].equals(type))
+					continue;
+				if (idIdentifiers[i+1].equals(value))
+					return;
+				this.remove(getKey(type, idIdentifiers[i+1]), id);
+				idIdentifiers[i+1] = value;
+				this.add(getKey(type, value), id);
+				return;
+			}
+		
+		//	add new identifier
+		if (idIdentifiers == null)
+			idIdentifiers = new String[2];
+		else {
+			String[] extendedIdIdentifiers = new String[idIdentifiers.length + 2];
+			System.arraycopy(idIdentifiers, 0, extendedIdIdentifiers, 0, idIdentifiers.length);
+			idIdentifiers = extendedIdIdentifiers;
+		}
+		idIdentifiers[idIdentifiers.length - 2] = type;
+		idIdentifiers[idIdentifiers.length - 1] = value;
+		this.identifiers.put(id, idIdentifiers);
+		this.add(getKey(type, value), id);
+		this.identifierCount++;
+	}
+	
+	private void add(String key, String id) {
+		Object keyIds = this.stringIds.get(key);
+		if (keyIds == null)
+			this.stringIds.put(key, id);
+		else if (keyIds instanceof String) {
+			if (!keyIds.equals(id))
+				this.stringIds.put(key, new String[] {((String) keyIds), id});
+		}
+		else {
+			String[] keyIdArray = ((String[]) keyIds);
+			for (int i = 0; i < keyIdArray.length; i++) {
+				if (keyIdArray[i].equals(id))
+					return;
+			}
+			String[] extendedKeyIdArray = new String[keyIdArray.length + 1];
+			System.arraycopy(keyIdArray, 0, extendedKeyIdArray, 0, keyIdArray.length);
+			extendedKeyIdArray[keyIdArray.length] = id;
+			this.stringIds.put(key, extendedKeyIdArray);
+		}
+	}
+	
+	private void remove(String key, String id) {
+		Object keyIds = this.stringIds.get(key);
+		if (keyIds == null)
+			return;
+		else if (keyIds instanceof String) {
+			if (keyIds.equals(id))
+				this.stringIds.remove(key);
+		}
+		else {
+			String[] keyIdArray = ((String[]) keyIds);
+			for (int i = 0; i < keyIdArray.length; i++) {
+				if (!keyIdArray[i].equals(id))
+					continue;
+				if (keyIdArray.length == 2)
+					this.stringIds.put(key, keyIdArray[1 - i]);
+				else {
+					String[] reducedKeyIdArray = new String[keyIdArray.length - 1];
+					System.arraycopy(keyIdArray, 0, reducedKeyIdArray, 0, i);
+					System.arraycopy(keyIdArray, (i + 1), reducedKeyIdArray, i, (reducedKeyIdArray.length - i));
+					this.stringIds.put(key, reducedKeyIdArray);
+				}
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Retrieve the IDs of the strings carrying an identifier.
+	 * @param type the type of the identifier
+	 * @param value the value of the identifier
+	 * @return an array holding the IDs of the strings carrying the argument
+	 *            identifier, empty if there are none
+	 */
+	synchronized String[] resolve(String type, String value) {
+		Object keyIds = this.stringIds.get(getKey(type, value));
+		if (keyIds == null)
+			return new String[0];
+		else if (keyIds instanceof String)
+			return new String[] {((String) keyIds)};
+		else return ((String[]) ((String[]) keyIds).clone());
+	}
+	
+	private static String getKey(String type, String value) {
+		return (type + '\u0000' + value);
+	}
+}
@@ -0,0 +1,92 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * In-memory index of the strings linked to a canonical string, i.e., the
+ * members of the cluster represented by that string. Only strings whose
+ * canonical ID refers to another string are in the index, as strings that
+ * are canonical to themselves (the vast majority) are members of their own
+ * cluster only, and can be looked up by their ID anyway.
+ * 
+ * @author sautter
+ */
+class LinkedStringIndex {
+	
+	private HashMap canonicalIds = new HashMap(); // string ID -> canonical ID, for linked strings only
+	private HashMap linkedIds = new HashMap(); // canonical ID -> set of IDs of linked strings
+	
+	/**
+	 * @return the number of linked strings in the index
+	 */
+	synchronized int size() {
+		return this.canonicalIds.size();
+	}
+	
+	/**
+	 * Set the canonical ID of a string, moving the string from the cluster it
+	 * was linked to before (if any) to the one with the argument canonical
+	 * ID. A null or empty canonical ID, or one equal to the string ID, makes
+	 * the string canonical to itself, removing it from the index.
+	 * @param id the ID of the string
+	 * @param canonicalId the canonical ID of the string
+	 */
+	synchronized void set(String id, String canonicalId) {
+		if ((canonicalId == null) || (canonicalId.length() == 0) || canonicalId.equals(id))
+			canonicalId = null;
+		String oldCanonicalId = ((String) this.canonicalIds.get(id));
+		if ((oldCanonicalId == null) ? (canonicalId == null) : oldCanonicalId.equals(canonicalId))
+			return;
+		
+		//	remove string from old cluster
+		if (oldCanonicalId != null) {
+			this.canonicalIds.remove(id);
+			HashSet oldLinkedIds = ((HashSet) this.linkedIds.get(oldCanonicalId));
+			oldLinkedIds.remove(id);
+			if (oldLinkedIds.isEmpty())
+				this.linkedIds.remove(oldCanonicalId);
+		}
+		
+		//	add string to new cluster
+		if (canonicalId != null) {
+			this.canonicalIds.put(id, canonicalId);
+			HashSet linkedIds = ((HashSet) this.linkedIds.get(canonicalId));
+			if (linkedIds == null) {
+				linkedIds = new HashSet();
+				this.linkedIds.put(canonicalId, linkedIds);
+			}
+			linkedIds.add(id);
+		}
+	}
+	
+	/**
+	 * Retrieve the IDs of the strings linked to a canonical string, not
+	 * including the ID of the canonical string proper.
+	 * @param canonicalId the ID of the canonical string
+	 * @return an array holding the IDs of the linked strings
+	 */
+	synchronized String[] getLinkedIds(String canonicalId) {
+		HashSet linkedIds = ((HashSet) this.linkedIds.get(canonicalId));
+		if (linkedIds == null)
+			return new String[0];
+		return ((String[]) linkedIds.toArray(new String[linkedIds.size()]));
+	}
+}
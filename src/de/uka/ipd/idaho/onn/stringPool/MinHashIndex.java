@@ -0,0 +1,324 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * In-memory near-duplicate index over the plain strings. Each string is
+ * reduced to the set of character trigrams of its normalized form (lower
+ * case, letters and digits only, single spaces), and the set is represented
+ * by a MinHash signature, so the share of equal signature positions of two
+ * strings estimates the Jaccard similarity of their trigram sets.<br>
+ * Signatures are split into bands, and strings are bucketed by the hash of
+ * each band (locality sensitive hashing), so candidates for a query string
+ * are found with one lookup per band. With the default of 16 bands of 4 rows,
+ * strings of similarity 0.5 end up as candidates with a probability of about
+ * 64%, strings of similarity 0.8 with more than 99.9%.
+ * 
+ * @author sautter
+ */
+class MinHashIndex {
+	
+	private static final int BANDS = 16;
+	private static final int ROWS = 4;
+	private static final int SIGNATURE_SIZE = (BANDS * ROWS);
+	
+	private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+	static {
+		Random random = new Random(0x4D696E48L); // fixed seed, so signatures are stable across restarts
+		for (int s = 0; s < SEEDS.length; s++)
+			SEEDS[s] = random.nextLong();
+	}
+	
+	private String[] docIds = new String[1024];
+	private String[] docClusterIds = new String[1024];
+	private int[] signatures = new int[1024 * SIGNATURE_SIZE];
+	private int docCount = 0;
+	private HashMap docNumbers = new HashMap();
+	
+	private HashMap buckets = new HashMap(); // bucket arrays hold the number of strings first, followed by the strings, with spare capacity at the end
+	
+	/**
+	 * Match of a near-duplicate query, i.e., a string with its cluster ID and
+	 * estimated similarity to the query string.
+	 * 
+	 * @author sautter
+	 */
+	static class Match {
+		final String id;
+		final String clusterId;
+		final double similarity;
+		Match(String id, String clusterId, double similarity) {
+			this.id = id;
+			this.clusterId = clusterId;
+			this.similarity = similarity;
+		}
+	}
+	
+	/**
+	 * @return the number of strings in the index
+	 */
+	synchronized int size() {
+		return this.docCount;
+	}
+	
+	/**
+	 * Add a string to the index. If a string with the argument ID is already
+	 * in the index, or the argument text does not contain any letters or
+	 * digits, this method does nothing.
+	 * @param id the ID of the string
+	 * @param clusterId the cluster ID of the string
+	 * @param text the plain string (or its clustering essence)
+	 */
+	void add(String id, String clusterId, String text) {
+		int[] signature = getSignature(text);
+		synchronized (this) {
+			this.add(id, clusterId, signature);
+		}
+	}
+	
+	/**
+	 * Add a batch of strings to the index, computing signatures in parallel.
+	 * Strings whose IDs are already in the index are ignored.
+	 * @param ids the IDs of the strings
+	 * @param clusterIds the cluster IDs of the strings
+	 * @param texts the plain strings (or their clustering essences)
+	 * @param threads the number of threads to use for signature computation
+	 */
+	void addAll(final String[] ids, final String[] clusterIds, final String[] texts, int threads) {
+		final int[][] docSignatures = new int[texts.length][];
+		Thread[] hashers = new Thread[Math.max(1, threads)];
+		for (int t = 0; t < hashers.length; t++) {
+			final int start = t;
+			final int step = hashers.length;
+			hashers[t] = new Thread("MinHasher" + t) {
+				public void run() {
+					for (int d = start; d < texts.length; d += step)
+						docSignatures[d] = getSignature(texts[d]);
+				}
+			};
+			hashers[t].start();
+		}
+		for (int t = 0; t < hashers.length; t++) try {
+			hashers[t].join();
+		} catch (InterruptedException ie) {}
+		synchronized (this) {
+			for (int d = 0; d < ids.length; d++)
+				this.add(ids[d], clusterIds[d], docSignatures[d]);
+		}
+	}
+	
+	private void add(String id, String clusterId, int[] signature) {
+		if ((signature == null) || this.docNumbers.containsKey(id))
+			return;
+		if (this.docCount == this.docIds.length) {
+			String[] docIds = new String[this.docIds.length * 2];
+			System.arraycopy(this.docIds, 0, docIds, 0, this.docCount);
+			this.docIds = docIds;
+			String[] docClusterIds = new String[this.docClusterIds.length * 2];
+			System.arraycopy(this.docClusterIds, 0, docClusterIds, 0, this.docCount);
+			this.docClusterIds = docClusterIds;
+			int[] signatures = new int[this.signatures.length * 2];
+			System.arraycopy(this.signatures, 0, signatures, 0, (this.docCount * SIGNATURE_SIZE));
+			this.signatures = signatures;
+		}
+		int doc = this.docCount++;
+		this.docIds[doc] = id;
+		this.docClusterIds[doc] = clusterId;
+		System.arraycopy(signature, 0, this.signatures, (doc * SIGNATURE_SIZE), SIGNATURE_SIZE);
+		this.docNumbers.put(id, new Integer(doc));
+		for (int b = 0; b < BANDS; b++) {
+			Long bandKey = new Long(getBandKey(signature, 0, b));
+			int[] bucket = ((int[]) this.buckets.get(bandKey));
+			if (bucket == null) {
+				bucket = new int[2];
+				this.buckets.put(bandKey, bucket);
+			}
+			else if ((bucket[0] + 1) == bucket.length) {
+				int[] extendedBucket = new int[bucket.length * 2];
+				System.arraycopy(bucket, 0, extendedBucket, 0, bucket.length);
+				bucket = extendedBucket;
+				this.buckets.put(bandKey, bucket);
+			}
+			bucket[++bucket[0]] = doc;
+		}
+	}
+	
+	/**
+	 * Find the strings most similar to an arbitrary string.
+	 * @param text the plain string (or its clustering essence)
+	 * @param minSimilarity the minimum estimated similarity for a string to
+	 *            be included in the result
+	 * @param limit the maximum number of strings to return (0 means no limit)
+	 * @return the matching strings, most similar first
+	 */
+	Match[] findSimilar(String text, double minSimilarity, int limit) {
+		int[] signature = getSignature(text);
+		if (signature == null)
+			return new Match[0];
+		synchronized (this) {
+			return this.findSimilar(signature, 0, null, minSimilarity, limit);
+		}
+	}
+	
+	/**
+	 * Find the strings most similar to a string already in the index. The
+	 * argument string itself is not included in the result.
+	 * @param id the ID of the string
+	 * @param minSimilarity the minimum estimated similarity for a string to
+	 *            be included in the result
+	 * @param limit the maximum number of strings to return (0 means no limit)
+	 * @return the matching strings, most similar first, or null if the string
+	 *            is not in the index
+	 */
+	synchronized Match[] findSimilarTo(String id, double minSimilarity, int limit) {
+		Integer doc = ((Integer) this.docNumbers.get(id));
+		if (doc == null)
+			return null;
+		return this.findSimilar(this.signatures, (doc.intValue() * SIGNATURE_SIZE), id, minSimilarity, limit);
+	}
+	
+	private Match[] findSimilar(int[] signature, int offset, String excludeId, double minSimilarity, int limit) {
+		
+		//	collect candidates from band buckets
+		int[] candidates = new int[16];
+		int candidateCount = 0;
+		for (int b = 0; b < BANDS; b++) {
+			int[] bucket = ((int[]) this.buckets.get(new Long(getBandKey(signature, offset, b))));
+			if (bucket == null)
+				continue;
+			if ((candidateCount + bucket[0]) > candidates.length) {
+				int[] extendedCandidates = new int[Math.max((candidates.length * 2), (candidateCount + bucket[0]))];
+				System.arraycopy(candidates, 0, extendedCandidates, 0, candidateCount);
+				candidates = extendedCandidates;
+			}
+			System.arraycopy(bucket, 1, candidates, candidateCount, bucket[0]);
+			candidateCount += bucket[0];
+		}
+		Arrays.sort(candidates, 0, candidateCount);
+		
+		//	estimate similarity of each distinct candidate from whole signatures
+		Bm25Scorer.TopScores topMatches = new Bm25Scorer.TopScores(limit);
+		for (int c = 0; c < candidateCount; c++) {
+			if ((c != 0) && (candidates[c] == candidates[c-1]))
+				continue;
+			int doc = candidates[c];
+			if (this.docIds[doc].equals(excludeId))
+				continue;
+			int equal = 0;
+			for (int h = 0; h < SIGNATURE_SIZE; h++) {
+				if (this.signatures[(doc * SIGNATURE_SIZE) + h] == signature[offset + h])
+					equal++;
+			}
+			double similarity = (((double) equal) / SIGNATURE_SIZE);
+			if (similarity >= minSimilarity)
+				topMatches.offer(new Match(this.docIds[doc], this.docClusterIds[doc], similarity), this.docIds[doc], similarity);
+		}
+		ArrayList matches = topMatches.getObjects();
+		return ((Match[]) matches.toArray(new Match[matches.size()]));
+	}
+	
+	private static long getBandKey(int[] signature, int offset, int band) {
+		long key = band;
+		for (int r = 0; r < ROWS; r++)
+			key = ((key * 0x100000001B3L) ^ signature[offset + (band * ROWS) + r]);
+		return key;
+	}
+	
+	/**
+	 * Compute the exact Jaccard similarity of the trigram sets of two strings,
+	 * normalized the same way as for the index, to confirm the estimated
+	 * similarity of a match.
+	 * @param text1 the first string
+	 * @param text2 the second string
+	 * @return the similarity of the strings
+	 */
+	static double getSimilarity(String text1, String text2) {
+		HashSet shingles1 = getShingles(normalize(text1));
+		HashSet shingles2 = getShingles(normalize(text2));
+		if (shingles1.isEmpty() || shingles2.isEmpty())
+			return 0;
+		int common = 0;
+		for (Iterator sit = shingles1.iterator(); sit.hasNext();) {
+			if (shingles2.contains(sit.next()))
+				common++;
+		}
+		return (((double) common) / (shingles1.size() + shingles2.size() - common));
+	}
+	
+	private static HashSet getShingles(String normText) {
+		HashSet shingles = new HashSet();
+		if (normText.length() == 0)
+			return shingles;
+		int shingleCount = Math.max(1, (normText.length() - 2));
+		for (int c = 0; c < shingleCount; c++)
+			shingles.add(new Long(getShingle(normText, c)));
+		return shingles;
+	}
+	
+	private static String normalize(String text) {
+		return text.toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+	}
+	
+	private static long getShingle(String normText, int start) {
+		long shingle = 0;
+		for (int s = start; s < Math.min((start + 3), normText.length()); s++)
+			shingle = ((shingle << 16) | normText.charAt(s));
+		return shingle;
+	}
+	
+	/*
+	 * Compute the MinHash signature of a string, or return null if the string
+	 * does not contain any letters or digits.
+	 */
+	private static int[] getSignature(String text) {
+		String normText = normalize(text);
+		if (normText.length() == 0)
+			return null;
+		int[] signature = new int[SIGNATURE_SIZE];
+		Arrays.fill(signature, Integer.MAX_VALUE);
+		int shingles = Math.max(1, (normText.length() - 2));
+		for (int c = 0; c < shingles; c++) {
+			long shingle = getShingle(normText, c);
+			for (int h = 0; h < SIGNATURE_SIZE; h++) {
+				int hash = mix(shingle ^ SEEDS[h]);
+				if (hash < signature[h])
+					signature[h] = hash;
+			}
+		}
+		return signature;
+	}
+	
+	/*
+	 * 64 bit finalizer of MurmurHash3, folded to 32 bits.
+	 */
+	private static int mix(long h) {
+		h ^= (h >>> 33);
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= (h >>> 33);
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= (h >>> 33);
+		return ((int) (h ^ (h >>> 32)));
+	}
+}
@@ -0,0 +1,367 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Index of standing queries registered by subscribers, against which strings
+ * are matched as they are stored, rather than the strings being searched by
+ * repeated queries. Each query is indexed under the longest token of each of
+ * its full text predicates, so matching a string only takes looking up the
+ * prefixes of its tokens, and then checking the few candidate queries found
+ * that way. Queries without any tokens to index are checked against every
+ * string.<br>
+ * Matches are queued per subscriber, up to a maximum queue size, beyond which
+ * the oldest matches are dropped, and the queue is marked as overflowed, so
+ * the subscriber knows to fall back to a regular search. Each subscriber has
+ * a secret token, issued with its first standing query, which is required for
+ * adding further queries, removing queries, and retrieving matches.
+ * 
+ * @author sautter
+ */
+class Percolator {
+	
+	private final int maxQueueSize;
+	private HashMap queries = new HashMap(); // query ID -> standing query
+	private HashMap termQueryIds = new HashMap(); // index term -> set of query IDs
+	private HashSet unindexedQueryIds = new HashSet(); // IDs of queries without index terms
+	private HashMap subscriberQueues = new HashMap(); // subscriber -> match queue
+	
+	/**
+	 * A standing query, with its full text predicates and tokens in folded
+	 * form, as well as its type and user predicates in lower case.
+	 * 
+	 * @author sautter
+	 */
+	static class StandingQuery {
+		final String id;
+		final String subscriber;
+		final String subscriberToken;
+		final String query;
+		final String[] predicates;
+		final String[][] predicateTokens;
+		final boolean disjunctive;
+		final String type;
+		final String user;
+		StandingQuery(String id, String subscriber, String subscriberToken, String query, String[] predicates, String[][] predicateTokens, boolean disjunctive, String type, String user) {
+			this.id = id;
+			this.subscriber = subscriber;
+			this.subscriberToken = subscriberToken;
+			this.query = query;
+			this.predicates = predicates;
+			this.predicateTokens = predicateTokens;
+			this.disjunctive = disjunctive;
+			this.type = type;
+			this.user = user;
+		}
+		boolean matches(String searchString, TreeSet tokens, String type, String createUser, String updateUser) {
+			if ((this.type != null) && !contains(type, this.type))
+				return false;
+			if ((this.user != null) && !contains(createUser, this.user) && !contains(updateUser, this.user))
+				return false;
+			if (this.predicates.length == 0)
+				return true;
+			for (int p = 0; p < this.predicates.length; p++) {
+				boolean predicateMatch = (searchString.indexOf(this.predicates[p]) != -1);
+				for (int t = 0; predicateMatch && (t < this.predicateTokens[p].length); t++)
+					predicateMatch = containsPrefix(tokens, this.predicateTokens[p][t]);
+				if (predicateMatch == this.disjunctive)
+					return this.disjunctive;
+			}
+			return !this.disjunctive;
+		}
+		private static boolean contains(String value, String part) {
+			return ((value != null) && (value.toLowerCase().indexOf(part) != -1));
+		}
+		private static boolean containsPrefix(TreeSet tokens, String prefix) {
+			SortedSet tail = tokens.tailSet(prefix);
+			return (!tail.isEmpty() && ((String) tail.first()).startsWith(prefix));
+		}
+	}
+	
+	/**
+	 * A string matching a standing query.
+	 * 
+	 * @author sautter
+	 */
+	static class Match {
+		final String queryId;
+		final String stringId;
+		final long time;
+		Match(String queryId, String stringId, long time) {
+			this.queryId = queryId;
+			this.stringId = stringId;
+			this.time = time;
+		}
+	}
+	
+	/**
+	 * A batch of matches retrieved for a subscriber, with a flag indicating
+	 * whether or not matches were dropped since the last retrieval.
+	 * 
+	 * @author sautter
+	 */
+	static class MatchBatch {
+		final Match[] matches;
+		final boolean overflow;
+		MatchBatch(Match[] matches, boolean overflow) {
+			this.matches = matches;
+			this.overflow = overflow;
+		}
+	}
+	
+	private static class MatchQueue {
+		final String token;
+		LinkedList matches = new LinkedList();
+		boolean overflow = false;
+		int queryCount = 0;
+		MatchQueue(String token) {
+			this.token = token;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param maxQueueSize the maximum number of matches to queue per subscriber
+	 */
+	Percolator(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+	
+	/**
+	 * @return the number of standing queries in the index
+	 */
+	synchronized int size() {
+		return this.queries.size();
+	}
+	
+	/**
+	 * Retrieve the standing queries in the index, e.g. for persisting them.
+	 * @return an array holding the standing queries
+	 */
+	synchronized StandingQuery[] getQueries() {
+		return ((StandingQuery[]) this.queries.values().toArray(new StandingQuery[this.queries.size()]));
+	}
+	
+	/**
+	 * Retrieve the secret token of a subscriber.
+	 * @param subscriber the subscriber to retrieve the token for
+	 * @return the token, or null if the argument subscriber has no standing
+	 *            queries
+	 */
+	synchronized String getSubscriberToken(String subscriber) {
+		MatchQueue queue = ((MatchQueue) this.subscriberQueues.get(subscriber));
+		return ((queue == null) ? null : queue.token);
+	}
+	
+	/**
+	 * Add a standing query to the index, creating the match queue for its
+	 * subscriber if it is the first query of the latter. If the subscriber
+	 * already has standing queries, the argument query has to carry the same
+	 * token as these.
+	 * @param query the standing query to add
+	 * @return true if the query was added, false if its token is invalid
+	 */
+	synchronized boolean register(StandingQuery query) {
+		MatchQueue queue = ((MatchQueue) this.subscriberQueues.get(query.subscriber));
+		if ((queue != null) && !queue.token.equals(query.subscriberToken))
+			return false;
+		if (this.queries.containsKey(query.id))
+			return true;
+		this.queries.put(query.id, query);
+		String[] terms = getIndexTerms(query);
+		if (terms == null)
+			this.unindexedQueryIds.add(query.id);
+		else for (int t = 0; t < terms.length; t++) {
+			HashSet queryIds = ((HashSet) this.termQueryIds.get(terms[t]));
+			if (queryIds == null) {
+				queryIds = new HashSet();
+				this.termQueryIds.put(terms[t], queryIds);
+			}
+			queryIds.add(query.id);
+		}
+		if (queue == null) {
+			queue = new MatchQueue(query.subscriberToken);
+			this.subscriberQueues.put(query.subscriber, queue);
+		}
+		queue.queryCount++;
+		return true;
+	}
+	
+	/**
+	 * Remove a standing query from the index, dropping the match queue of its
+	 * subscriber if it is the last query of the latter.
+	 * @param queryId the ID of the standing query to remove
+	 * @param subscriberToken the token of the subscriber of the query
+	 * @return the removed query, or null if there is no query with the
+	 *            argument ID, or the token is invalid
+	 */
+	synchronized StandingQuery unregister(String queryId, String subscriberToken) {
+		StandingQuery query = ((StandingQuery) this.queries.get(queryId));
+		if ((query == null) || !query.subscriberToken.equals(subscriberToken))
+			return null;
+		this.queries.remove(queryId);
+		String[] terms = getIndexTerms(query);
+		if (terms == null)
+			this.unindexedQueryIds.remove(query.id);
+		else for (int t = 0; t < terms.length; t++) {
+			HashSet queryIds = ((HashSet) this.termQueryIds.get(terms[t]));
+			if (queryIds == null)
+				continue;
+			queryIds.remove(query.id);
+			if (queryIds.isEmpty())
+				this.termQueryIds.remove(terms[t]);
+		}
+		MatchQueue queue = ((MatchQueue) this.subscriberQueues.get(query.subscriber));
+		if ((queue != null) && (--queue.queryCount == 0)) {
+			this.subscriberQueues.remove(query.subscriber);
+			synchronized (queue) {
+				queue.notifyAll(); // release waiting pollers
+			}
+		}
+		return query;
+	}
+	
+	/*
+	 * Get the terms to index a query under, i.e., the longest token of each
+	 * full text predicate. A query matches strings containing a token that
+	 * starts with each of these terms, and in a disjunctive query, any of the
+	 * terms suffices. If a predicate has no tokens, there are no terms to index
+	 * the query under, and this method returns null.
+	 */
+	private static String[] getIndexTerms(StandingQuery query) {
+		if (query.predicates.length == 0)
+			return null;
+		ArrayList terms = new ArrayList();
+		for (int p = 0; p < query.predicates.length; p++) {
+			String term = null;
+			for (int t = 0; t < query.predicateTokens[p].length; t++) {
+				if ((term == null) || (term.length() < query.predicateTokens[p][t].length()))
+					term = query.predicateTokens[p][t];
+			}
+			if (term == null)
+				return null;
+			terms.add(term);
+			if (!query.disjunctive)
+				break; // one term suffices for finding a conjunctive query
+		}
+		return ((String[]) terms.toArray(new String[terms.size()]));
+	}
+	
+	/**
+	 * Match a string against the standing queries, and queue the matches for
+	 * the respective subscribers.
+	 * @param stringId the ID of the string
+	 * @param searchString the folded search form of the string
+	 * @param tokens the tokens of the folded search form of the string
+	 * @param type the type of the string
+	 * @param createUser the user who contributed the string
+	 * @param updateUser the user who last updated the string
+	 * @return the number of standing queries the string matches
+	 */
+	int percolate(String stringId, String searchString, TreeSet tokens, String type, String createUser, String updateUser) {
+		ArrayList matchQueries = new ArrayList();
+		synchronized (this) {
+			if (this.queries.isEmpty())
+				return 0;
+			
+			//	collect candidate queries via prefixes of tokens
+			HashSet candidateIds = new HashSet(this.unindexedQueryIds);
+			for (Iterator tit = tokens.iterator(); tit.hasNext();) {
+				String token = ((String) tit.next());
+				for (int l = 1; l <= token.length(); l++) {
+					HashSet queryIds = ((HashSet) this.termQueryIds.get(token.substring(0, l)));
+					if (queryIds != null)
+						candidateIds.addAll(queryIds);
+				}
+			}
+			
+			//	verify candidates
+			for (Iterator qit = candidateIds.iterator(); qit.hasNext();) {
+				StandingQuery query = ((StandingQuery) this.queries.get(qit.next()));
+				if (query.matches(searchString, tokens, type, createUser, updateUser))
+					matchQueries.add(query);
+			}
+		}
+		
+		//	queue matches for subscribers
+		long time = System.currentTimeMillis();
+		for (int q = 0; q < matchQueries.size(); q++) {
+			StandingQuery query = ((StandingQuery) matchQueries.get(q));
+			MatchQueue queue;
+			synchronized (this) {
+				queue = ((MatchQueue) this.subscriberQueues.get(query.subscriber));
+			}
+			if (queue == null)
+				continue;
+			synchronized (queue) {
+				queue.matches.addLast(new Match(query.id, stringId, time));
+				while (queue.matches.size() > this.maxQueueSize) {
+					queue.matches.removeFirst();
+					queue.overflow = true;
+				}
+				queue.notifyAll();
+			}
+		}
+		return matchQueries.size();
+	}
+	
+	/**
+	 * Retrieve and remove the queued matches of a subscriber, waiting for a
+	 * match to come in if there are none.
+	 * @param subscriber the subscriber to retrieve the matches for
+	 * @param subscriberToken the token of the subscriber
+	 * @param limit the maximum number of matches to retrieve
+	 * @param waitMillis the maximum time to wait for a match to come in, in
+	 *            milliseconds (0 means not to wait at all)
+	 * @return the matches, or null if the argument subscriber has no standing
+	 *            queries, or the token is invalid
+	 */
+	MatchBatch getMatches(String subscriber, String subscriberToken, int limit, long waitMillis) {
+		MatchQueue queue;
+		synchronized (this) {
+			queue = ((MatchQueue) this.subscriberQueues.get(subscriber));
+		}
+		if ((queue == null) || !queue.token.equals(subscriberToken))
+			return null;
+		long deadline = (System.currentTimeMillis() + waitMillis);
+		synchronized (queue) {
+			while (queue.matches.isEmpty() && !queue.overflow && (queue.queryCount != 0)) {
+				long wait = (deadline - System.currentTimeMillis());
+				if (wait <= 0)
+					break;
+				try {
+					queue.wait(wait);
+				} catch (InterruptedException ie) {}
+			}
+			Match[] matches = new Match[Math.min(limit, queue.matches.size())];
+			for (int m = 0; m < matches.length; m++)
+				matches[m] = ((Match) queue.matches.removeFirst());
+			MatchBatch batch = new MatchBatch(matches, queue.overflow);
+			queue.overflow = false;
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * Bounded ring of the most recently created strings, ordered by creation time.
+ * Adding a string created after all others in the ring takes constant time,
+ * strings with earlier creation times (e.g. from replication) are inserted at
+ * their proper position. Once the ring is full, adding a string drops the one
+ * created earliest.
+ * 
+ * @author sautter
+ */
+class RecentStringRing {
+	
+	private final String[] ids;
+	private final long[] createTimes;
+	private final Object[] strings;
+	private final HashSet idSet = new HashSet(); // IDs of strings in ring, for constant time duplicate checks
+	private int start = 0; // index of earliest string
+	private int size = 0;
+	
+	/**
+	 * Constructor
+	 * @param capacity the maximum number of strings to hold
+	 */
+	RecentStringRing(int capacity) {
+		this.ids = new String[Math.max(capacity, 1)];
+		this.createTimes = new long[this.ids.length];
+		this.strings = new Object[this.ids.length];
+	}
+	
+	/**
+	 * @return the maximum number of strings the ring holds
+	 */
+	int getCapacity() {
+		return this.ids.length;
+	}
+	
+	/**
+	 * Add a string to the ring. If the ring is full and the argument string was
+	 * created before all the strings in the ring, or if the ring already
+	 * contains a string with the argument ID, this method does nothing.
+	 * @param id the ID of the string
+	 * @param createTime the creation time of the string
+	 * @param string the string object to store
+	 * @return true if the ring was modified
+	 */
+	synchronized boolean add(String id, long createTime, Object string) {
+		if (this.idSet.contains(id))
+			return false;
+		if ((this.size == this.ids.length) && (createTime < this.createTimes[this.start]))
+			return false;
+		
+		//	make room by dropping earliest string if necessary
+		if (this.size == this.ids.length) {
+			this.idSet.remove(this.ids[this.start]);
+			this.start = this.index(1);
+			this.size--;
+		}
+		
+		//	shift later strings towards the end to make room at proper position (usually none)
+		int pos = this.size;
+		while ((pos > 0) && (this.createTimes[this.index(pos - 1)] > createTime)) {
+			int from = this.index(pos - 1);
+			int to = this.index(pos);
+			this.ids[to] = this.ids[from];
+			this.createTimes[to] = this.createTimes[from];
+			this.strings[to] = this.strings[from];
+			pos--;
+		}
+		int to = this.index(pos);
+		this.ids[to] = id;
+		this.createTimes[to] = createTime;
+		this.strings[to] = string;
+		this.idSet.add(id);
+		this.size++;
+		return true;
+	}
+	
+	/**
+	 * Retrieve the most recently created strings, latest first.
+	 * @param top the maximum number of strings to retrieve (values below 0
+	 *            count as 0)
+	 * @return a list holding the strings
+	 */
+	synchronized ArrayList getLatest(int top) {
+		top = Math.max(top, 0);
+		ArrayList latest = new ArrayList(Math.min(top, this.size));
+		for (int s = (this.size - 1); (s >= 0) && (latest.size() < top); s--)
+			latest.add(this.strings[this.index(s)]);
+		return latest;
+	}
+	
+	private int index(int offset) {
+		return ((this.start + offset) % this.ids.length);
+	}
+}
@@ -0,0 +1,309 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Single-flight execution of identical concurrent read requests. The first
+ * request for a given key executes, buffering its response, while identical
+ * requests arriving in the meantime wait for it and replay the buffered
+ * response instead of executing themselves. Responses larger than a maximum
+ * size are streamed rather than buffered, and waiting requests give up after
+ * a maximum time; in either case, they fall back to executing themselves.
+ * The number of requests in flight at any time is bounded as well.
+ * 
+ * @author sautter
+ */
+class RequestCoalescer {
+	
+	private final int maxFlights;
+	private final int maxBytes;
+	private final long maxWaitMillis;
+	private HashMap flights = new HashMap();
+	
+	/**
+	 * Execution of a request in progress.
+	 * 
+	 * @author sautter
+	 */
+	static class Flight {
+		private final Thread leader = Thread.currentThread();
+		private boolean landed = false;
+		private BufferedResponse response = null;
+		
+		/**
+		 * @return true if the current thread is executing the request
+		 */
+		boolean isLeader() {
+			return (this.leader == Thread.currentThread());
+		}
+	}
+	
+	/**
+	 * Complete response of a request, as sent by the executing thread.
+	 * 
+	 * @author sautter
+	 */
+	static class BufferedResponse {
+		private final int status;
+		private final String contentType;
+		private final String characterEncoding;
+		private final ArrayList headers;
+		private final byte[] body;
+		BufferedResponse(int status, String contentType, String characterEncoding, ArrayList headers, byte[] body) {
+			this.status = status;
+			this.contentType = contentType;
+			this.characterEncoding = characterEncoding;
+			this.headers = headers;
+			this.body = body;
+		}
+		
+		/**
+		 * Send the response to another request.
+		 * @param response the HTTP response to send to
+		 * @throws IOException
+		 */
+		void replay(HttpServletResponse response) throws IOException {
+			response.setStatus(this.status);
+			if (this.characterEncoding != null)
+				response.setCharacterEncoding(this.characterEncoding);
+			if (this.contentType != null)
+				response.setContentType(this.contentType);
+			for (int h = 0; h < this.headers.size(); h += 2)
+				response.setHeader(((String) this.headers.get(h)), ((String) this.headers.get(h+1)));
+			response.setContentLength(this.body.length); // the leader's Content-Length is not recorded, but equals the body length
+			OutputStream out = response.getOutputStream();
+			out.write(this.body);
+			out.flush();
+			out.close();
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param maxFlights the maximum number of requests to have in flight
+	 * @param maxBytes the maximum size of a response to buffer for sharing
+	 * @param maxWaitMillis the maximum time to wait for a request to complete
+	 */
+	RequestCoalescer(int maxFlights, int maxBytes, long maxWaitMillis) {
+		this.maxFlights = maxFlights;
+		this.maxBytes = maxBytes;
+		this.maxWaitMillis = maxWaitMillis;
+	}
+	
+	/**
+	 * Join the execution of a request with a given key, or start executing
+	 * it if none is in flight. In the latter case, the returned flight has
+	 * the current thread as its leader, which has to execute the request
+	 * with a response obtained from wrap(), finish the latter, and has to
+	 * call land() afterward, even if execution fails. If the maximum number
+	 * of requests is already in flight, this method returns null, and the
+	 * request has to execute without coalescing.
+	 * @param key the key of the request
+	 * @return the flight of the request
+	 */
+	synchronized Flight join(String key) {
+		Flight flight = ((Flight) this.flights.get(key));
+		if (flight != null)
+			return flight;
+		if (this.flights.size() >= this.maxFlights)
+			return null;
+		flight = new Flight();
+		this.flights.put(key, flight);
+		return flight;
+	}
+	
+	/**
+	 * Wrap the response of the leading request of a flight to buffer the data
+	 * sent for sharing.
+	 * @param response the HTTP response to wrap
+	 * @return the buffering wrapper
+	 */
+	BufferingResponse wrap(HttpServletResponse response) {
+		return new BufferingResponse(response, this.maxBytes);
+	}
+	
+	/**
+	 * Complete the flight of a request, handing the buffered response to any
+	 * waiting requests.
+	 * @param key the key of the request
+	 * @param response the buffered response of the request, or null if the
+	 *            request failed or the response is not available for sharing
+	 */
+	void land(String key, BufferedResponse response) {
+		Flight flight;
+		synchronized (this) {
+			flight = ((Flight) this.flights.get(key));
+			if ((flight == null) || !flight.isLeader())
+				return;
+			this.flights.remove(key);
+		}
+		synchronized (flight) {
+			flight.response = response;
+			flight.landed = true;
+			flight.notifyAll();
+		}
+	}
+	
+	/**
+	 * Wait for the flight of a request to complete, and retrieve its response.
+	 * If the flight does not complete within the maximum wait time, or its
+	 * response is not available for sharing, this method returns null.
+	 * @param flight the flight to wait for
+	 * @return the response of the flight
+	 */
+	BufferedResponse await(Flight flight) {
+		long deadline = (System.currentTimeMillis() + this.maxWaitMillis);
+		synchronized (flight) {
+			while (!flight.landed) {
+				long wait = (deadline - System.currentTimeMillis());
+				if (wait <= 0)
+					return null;
+				try {
+					flight.wait(wait);
+				} catch (InterruptedException ie) {}
+			}
+			return flight.response;
+		}
+	}
+	
+	/**
+	 * Response wrapper passing everything through to the wrapped response,
+	 * but holding back data sent until finished, so to make it available for
+	 * sharing. If the data grows larger than the maximum size, the wrapper
+	 * sends it on right away, and does not retain it any further.
+	 * 
+	 * @author sautter
+	 */
+	static class BufferingResponse extends HttpServletResponseWrapper {
+		private final int maxBytes;
+		private int status = HttpServletResponse.SC_OK;
+		private boolean shareable = true;
+		private ArrayList headers = new ArrayList();
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		private ServletOutputStream out = null;
+		BufferingResponse(HttpServletResponse response, int maxBytes) {
+			super(response);
+			this.maxBytes = maxBytes;
+		}
+		public void setStatus(int status) {
+			super.setStatus(status);
+			this.status = status;
+		}
+		public void sendError(int status) throws IOException {
+			this.shareable = false;
+			super.sendError(status);
+		}
+		public void sendError(int status, String message) throws IOException {
+			this.shareable = false;
+			super.sendError(status, message);
+		}
+		public void sendRedirect(String location) throws IOException {
+			this.shareable = false;
+			super.sendRedirect(location);
+		}
+		public void setHeader(String name, String value) {
+			super.setHeader(name, value);
+			this.headers.add(name);
+			this.headers.add(value);
+		}
+		public void setIntHeader(String name, int value) {
+			super.setIntHeader(name, value);
+			this.headers.add(name);
+			this.headers.add("" + value);
+		}
+		public void setDateHeader(String name, long date) {
+			super.setDateHeader(name, date);
+			SimpleDateFormat httpDateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+			httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+			this.headers.add(name);
+			this.headers.add(httpDateFormat.format(new Date(date)));
+		}
+		public void addHeader(String name, String value) {
+			super.addHeader(name, value);
+			this.shareable = false; // we only replay single valued headers
+		}
+		public void addIntHeader(String name, int value) {
+			super.addIntHeader(name, value);
+			this.shareable = false; // we only replay single valued headers
+		}
+		public void addDateHeader(String name, long date) {
+			super.addDateHeader(name, date);
+			this.shareable = false; // we only replay single valued headers
+		}
+		public PrintWriter getWriter() throws IOException {
+			this.shareable = false; // we only buffer binary output
+			return super.getWriter();
+		}
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (this.out == null)
+				this.out = new ServletOutputStream() {
+					public void write(int b) throws IOException {
+						this.write(new byte[] {((byte) b)}, 0, 1);
+					}
+					public void write(byte[] b, int off, int len) throws IOException {
+						if (buffer == null)
+							getResponse().getOutputStream().write(b, off, len);
+						else {
+							buffer.write(b, off, len);
+							if (buffer.size() > maxBytes)
+								flushBuffer();
+						}
+					}
+					public void flush() throws IOException {} // hold back until finished
+					public void close() throws IOException {} // closed when finished
+				};
+			return this.out;
+		}
+		public void flushBuffer() throws IOException {
+			if ((this.buffer != null) && (this.buffer.size() != 0))
+				this.buffer.writeTo(getResponse().getOutputStream());
+			this.buffer = null;
+			super.flushBuffer();
+		}
+		/**
+		 * Send any data still held back, and close the wrapped response.
+		 * @return the complete response, or null if it is not available for
+		 *            sharing
+		 * @throws IOException
+		 */
+		BufferedResponse finish() throws IOException {
+			byte[] body = ((this.buffer == null) ? null : this.buffer.toByteArray());
+			this.flushBuffer();
+			if (this.out != null)
+				getResponse().getOutputStream().close();
+			if ((body == null) || !this.shareable)
+				return null;
+			return new BufferedResponse(this.status, getResponse().getContentType(), getResponse().getCharacterEncoding(), this.headers, body);
+		}
+	}
+}
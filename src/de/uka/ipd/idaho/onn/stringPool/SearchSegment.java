@@ -0,0 +1,345 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Immutable on-disk segment of the embedded search engine, holding the IDs
+ * and lower case plain texts of a set of strings as stored fields, a sorted
+ * term dictionary, and variable length delta encoded posting lists. Segment
+ * files are memory mapped for reading. The layout of a segment file is as
+ * follows (all integers big endian):
+ * <ul>
+ * <li>header: magic number, document count, term count, offset of document
+ * table, offset of term table, total number of tokens in all documents</li>
+ * <li>stored fields: ID and text of each document, each as length prefixed
+ * UTF-8 bytes</li>
+ * <li>posting lists: document numbers as variable length deltas</li>
+ * <li>term dictionary: each term as length prefixed UTF-8 bytes, followed by
+ * offset and length of its posting list</li>
+ * <li>document table: offset of stored fields for each document</li>
+ * <li>term table: offset of dictionary entry for each term, in term order</li>
+ * </ul>
+ * As offsets are integers, and a segment is mapped as a whole, segment files
+ * are limited to 2GB; writing a larger segment fails, so the segment search
+ * engine keeps merged segments well below that size.
+ * 
+ * @author sautter
+ */
+class SearchSegment implements SegmentSearchEngine.SearchSource {
+	
+	private static final int MAGIC = 0x53505347; // 'SPSG'
+	
+	/** the maximum size of a segment file, in bytes */
+	static final long MAX_FILE_SIZE = Integer.MAX_VALUE;
+	
+	private final File file;
+	private final MappedByteBuffer data;
+	private final int docCount;
+	private final int termCount;
+	private final int docTableOffset;
+	private final int termTableOffset;
+	private final long totalLength;
+	
+	/**
+	 * Constructor opening an existing segment file
+	 * @param file the segment file
+	 * @throws IOException
+	 */
+	SearchSegment(File file) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			this.data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		}
+		finally {
+			raf.close(); // mapping remains valid
+		}
+		if (this.data.getInt(0) != MAGIC)
+			throw new IOException("Invalid segment file: " + file.getName());
+		this.docCount = this.data.getInt(4);
+		this.termCount = this.data.getInt(8);
+		this.docTableOffset = this.data.getInt(12);
+		this.termTableOffset = this.data.getInt(16);
+		this.totalLength = this.data.getLong(20);
+	}
+	
+	/**
+	 * @return the segment file
+	 */
+	File getFile() {
+		return this.file;
+	}
+	
+	/**
+	 * @return the size of the segment file, in bytes
+	 */
+	long getFileSize() {
+		return this.data.capacity();
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.SegmentSearchEngine.SearchSource#size()
+	 */
+	public int size() {
+		return this.docCount;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.SegmentSearchEngine.SearchSource#getTotalLength()
+	 */
+	public long getTotalLength() {
+		return this.totalLength;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.SegmentSearchEngine.SearchSource#getId(int)
+	 */
+	public String getId(int doc) {
+		return this.getString(this.data.getInt(this.docTableOffset + (doc * 4)));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.SegmentSearchEngine.SearchSource#getText(int)
+	 */
+	public String getText(int doc) {
+		int idOffset = this.data.getInt(this.docTableOffset + (doc * 4));
+		return this.getString(idOffset + 4 + this.data.getInt(idOffset));
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.SegmentSearchEngine.SearchSource#getPrefixPostings(java.lang.String)
+	 */
+	public int[] getPrefixPostings(String prefix) {
+		
+		//	binary search first term not less than prefix
+		int low = 0;
+		int high = this.termCount;
+		while (low < high) {
+			int mid = ((low + high) >>> 1);
+			if (this.getTerm(mid).compareTo(prefix) < 0)
+				low = mid + 1;
+			else high = mid;
+		}
+		
+		//	unite posting lists of all terms starting with prefix
+		IntList docs = new IntList();
+		int termsWithPrefix = 0;
+		for (int t = low; t < this.termCount; t++) {
+			int entryOffset = this.data.getInt(this.termTableOffset + (t * 4));
+			String term = this.getString(entryOffset);
+			if (!term.startsWith(prefix))
+				break;
+			int postingOffset = entryOffset + 4 + this.data.getInt(entryOffset);
+			this.decode(this.data.getInt(postingOffset), this.data.getInt(postingOffset + 4), docs);
+			termsWithPrefix++;
+		}
+		
+		//	sort and eliminate duplicates if multiple posting lists involved
+		int[] prefixDocs = new int[docs.size];
+		System.arraycopy(docs.values, 0, prefixDocs, 0, docs.size);
+		if (termsWithPrefix < 2)
+			return prefixDocs;
+		Arrays.sort(prefixDocs);
+		int count = 0;
+		for (int d = 0; d < prefixDocs.length; d++) {
+			if ((count == 0) || (prefixDocs[count-1] != prefixDocs[d]))
+				prefixDocs[count++] = prefixDocs[d];
+		}
+		int[] uniqueDocs = new int[count];
+		System.arraycopy(prefixDocs, 0, uniqueDocs, 0, count);
+		return uniqueDocs;
+	}
+	
+	private String getTerm(int term) {
+		return this.getString(this.data.getInt(this.termTableOffset + (term * 4)));
+	}
+	
+	private void decode(int offset, int count, IntList docs) {
+		int doc = -1;
+		for (int d = 0; d < count; d++) {
+			int delta = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = this.data.get(offset++);
+				delta |= ((b & 0x7F) << shift);
+				if ((b & 0x80) == 0)
+					break;
+			}
+			doc += delta;
+			docs.add(doc);
+		}
+	}
+	
+	private String getString(int offset) {
+		byte[] bytes = new byte[this.data.getInt(offset)];
+		for (int b = 0; b < bytes.length; b++)
+			bytes[b] = this.data.get(offset + 4 + b);
+		try {
+			return new String(bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException uee) {
+			return ""; // never gonna happen with UTF-8, but Java don't know
+		}
+	}
+	
+	/**
+	 * Write a new segment file. The argument texts are expected in lower case.
+	 * @param file the file to write to
+	 * @param ids the IDs of the strings
+	 * @param texts the lower case plain texts of the strings
+	 * @throws IOException
+	 */
+	static void write(File file, String[] ids, String[] texts) throws IOException {
+		
+		//	invert strings
+		TreeMap termDocs = new TreeMap();
+		long totalLength = 0;
+		for (int d = 0; d < texts.length; d++) {
+			totalLength += Bm25Scorer.getLength(texts[d]);
+			TreeSet terms = StringPoolServlet.getIndexTokens(texts[d]);
+			for (Iterator tit = terms.iterator(); tit.hasNext();) {
+				String term = ((String) tit.next());
+				IntList docs = ((IntList) termDocs.get(term));
+				if (docs == null) {
+					docs = new IntList();
+					termDocs.put(term, docs);
+				}
+				docs.add(d);
+			}
+		}
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(ids.length);
+			out.writeInt(termDocs.size());
+			out.writeInt(0); // document table offset, known only after writing postings and terms
+			out.writeInt(0); // term table offset, ditto
+			out.writeLong(totalLength);
+			
+			//	write stored fields
+			int[] docOffsets = new int[ids.length];
+			for (int d = 0; d < ids.length; d++) {
+				docOffsets[d] = out.size();
+				writeString(out, ids[d]);
+				writeString(out, texts[d]);
+				checkSize(out);
+			}
+			
+			//	write posting lists
+			int[] postingOffsets = new int[termDocs.size()];
+			int t = 0;
+			for (Iterator tit = termDocs.values().iterator(); tit.hasNext(); t++) {
+				IntList docs = ((IntList) tit.next());
+				postingOffsets[t] = out.size();
+				for (int d = 0, lastDoc = -1; d < docs.size; lastDoc = docs.values[d++]) {
+					int delta = (docs.values[d] - lastDoc);
+					while ((delta & ~0x7F) != 0) {
+						out.writeByte((delta & 0x7F) | 0x80);
+						delta >>>= 7;
+					}
+					out.writeByte(delta);
+				}
+				checkSize(out);
+			}
+			
+			//	write term dictionary
+			int[] termOffsets = new int[termDocs.size()];
+			t = 0;
+			for (Iterator tit = termDocs.keySet().iterator(); tit.hasNext(); t++) {
+				String term = ((String) tit.next());
+				termOffsets[t] = out.size();
+				writeString(out, term);
+				out.writeInt(postingOffsets[t]);
+				out.writeInt(((IntList) termDocs.get(term)).size);
+				checkSize(out);
+			}
+			
+			//	write tables
+			int docTableOffset = out.size();
+			for (int d = 0; d < docOffsets.length; d++)
+				out.writeInt(docOffsets[d]);
+			int termTableOffset = out.size();
+			for (int o = 0; o < termOffsets.length; o++)
+				out.writeInt(termOffsets[o]);
+			checkSize(out);
+			out.flush();
+			out.close();
+			
+			//	fill in table offsets
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(12);
+				raf.writeInt(docTableOffset);
+				raf.writeInt(termTableOffset);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (IOException ioe) {
+			out.close();
+			file.delete();
+			throw ioe;
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	/*
+	 * Make sure offsets remain representable, which they cease to be once
+	 * the size of the output saturates at the maximum integer value.
+	 */
+	private static void checkSize(DataOutputStream out) throws IOException {
+		if (out.size() >= MAX_FILE_SIZE)
+			throw new IOException("Segment exceeds maximum size of " + MAX_FILE_SIZE + " bytes");
+	}
+	
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static class IntList {
+		int[] values = new int[4];
+		int size = 0;
+		void add(int value) {
+			if (this.size == this.values.length) {
+				int[] values = new int[this.values.length * 2];
+				System.arraycopy(this.values, 0, values, 0, this.size);
+				this.values = values;
+			}
+			this.values[this.size++] = value;
+		}
+	}
+}
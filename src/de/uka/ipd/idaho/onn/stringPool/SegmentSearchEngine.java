@@ -0,0 +1,698 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Embedded search engine answering token based full text queries from a set
+ * of immutable, memory mapped segments plus an in-memory buffer. Strings
+ * added to the engine go to the buffer and are searchable right away. Once
+ * the buffer reaches the flush size, a background thread writes it to a new
+ * segment. The same thread merges segments following a tiered policy: as
+ * soon as there are as many segments of similar size as the merge factor,
+ * they are merged into one. Segments larger than the maximum merged segment
+ * size divided by the merge factor no longer take part in merges, so merged
+ * segments stay within the size segment files can have. The list of live segments and the local update
+ * time up to which the Data table is indexed are kept in a manifest file, so
+ * the index survives restarts.<br>
+ * Strings are never removed, and the same string may end up in multiple
+ * segments if it is indexed again, e.g. when catching up after a restart.
+ * Search results are de-duplicated by string ID, and merges drop duplicates.
+ * 
+ * @author sautter
+ */
+class SegmentSearchEngine {
+	
+	private static final String MANIFEST_FILE_NAME = "segments.txt";
+	private static final String SEGMENT_FILE_PREFIX = "segment";
+	private static final String SEGMENT_FILE_SUFFIX = ".seg";
+	
+	private static final long MAX_MERGED_SEGMENT_SIZE = (SearchSegment.MAX_FILE_SIZE / 2);
+	
+	private final File folder;
+	private final int flushSize;
+	private final int mergeFactor;
+	
+	private ArrayList segments = new ArrayList();
+	private int nextSegmentNumber = 0;
+	private long watermark = -1;
+	
+	private MemoryBuffer buffer = new MemoryBuffer();
+	private ArrayList flushingBuffers = new ArrayList();
+	
+	private Thread maintainer;
+	private Object flushLock = new Object();
+	private boolean maintainerActive = true;
+	
+	/**
+	 * Constructor opening the segments listed in the manifest of the argument
+	 * folder, if any.
+	 * @param folder the folder holding the segment files
+	 * @param flushSize the number of strings to buffer before flushing
+	 * @param mergeFactor the number of similar size segments to merge
+	 * @throws IOException
+	 */
+	SegmentSearchEngine(File folder, int flushSize, int mergeFactor) throws IOException {
+		this.folder = folder;
+		this.folder.mkdirs();
+		this.flushSize = Math.max(flushSize, 1);
+		this.mergeFactor = Math.max(mergeFactor, 2);
+		
+		//	read manifest
+		File manifest = new File(this.folder, MANIFEST_FILE_NAME);
+		HashSet liveSegmentFileNames = new HashSet();
+		if (manifest.exists()) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+			try {
+				this.watermark = Long.parseLong(br.readLine().trim());
+				for (String segmentFileName; (segmentFileName = br.readLine()) != null;) {
+					segmentFileName = segmentFileName.trim();
+					if (segmentFileName.length() == 0)
+						continue;
+					this.segments.add(new SearchSegment(new File(this.folder, segmentFileName)));
+					liveSegmentFileNames.add(segmentFileName);
+				}
+			}
+			finally {
+				br.close();
+			}
+		}
+		
+		//	clean up segment files left behind by interrupted flushes and merges, and determine next segment number
+		File[] segmentFiles = this.folder.listFiles();
+		for (int f = 0; f < segmentFiles.length; f++) {
+			String segmentFileName = segmentFiles[f].getName();
+			if (!segmentFileName.startsWith(SEGMENT_FILE_PREFIX) || !segmentFileName.endsWith(SEGMENT_FILE_SUFFIX))
+				continue;
+			if (!liveSegmentFileNames.contains(segmentFileName)) {
+				segmentFiles[f].delete();
+				continue;
+			}
+			try {
+				int segmentNumber = Integer.parseInt(segmentFileName.substring(SEGMENT_FILE_PREFIX.length(), (segmentFileName.length() - SEGMENT_FILE_SUFFIX.length())));
+				this.nextSegmentNumber = Math.max(this.nextSegmentNumber, (segmentNumber + 1));
+			} catch (NumberFormatException nfe) {}
+		}
+		
+		//	start flushing and merging in the background
+		this.maintainer = new Thread("SegmentSearchEngineMaintainer") {
+			public void run() {
+				while (true) {
+					synchronized (SegmentSearchEngine.this) {
+						if (!maintainerActive)
+							return;
+						try {
+							SegmentSearchEngine.this.wait(1000 * 60);
+						} catch (InterruptedException ie) {}
+					}
+					try {
+						flushBuffers();
+						mergeSegments();
+					}
+					catch (IOException ioe) {
+						System.out.println("SegmentSearchEngine: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while flushing or merging segments.");
+						ioe.printStackTrace(System.out);
+					}
+				}
+			}
+		};
+		this.maintainer.setDaemon(true);
+		this.maintainer.start();
+	}
+	
+	/**
+	 * Discard the segments in the argument folder, so an engine subsequently
+	 * opened on the folder starts out empty and without a watermark. This is
+	 * to re-index all strings after their folding for search has changed.
+	 * @param folder the folder holding the segment files
+	 */
+	static void discard(File folder) {
+		new File(folder, MANIFEST_FILE_NAME).delete();
+	}
+	
+	/**
+	 * Retrieve the local update time up to which strings from the Data table
+	 * are indexed, as recorded by the last call to setWatermark(). If there is
+	 * no recorded watermark, this method returns -1.
+	 * @return the watermark
+	 */
+	synchronized long getWatermark() {
+		return this.watermark;
+	}
+	
+	/**
+	 * Record the local update time up to which strings from the Data table are
+	 * indexed, either in segments or in buffers that will be flushed.
+	 * @param watermark the watermark
+	 * @throws IOException
+	 */
+	synchronized void setWatermark(long watermark) throws IOException {
+		this.watermark = watermark;
+		this.writeManifest();
+	}
+	
+	/**
+	 * Add a string to the engine. The string goes to the in-memory buffer and
+	 * is searchable as soon as this method returns.
+	 * @param id the ID of the string
+	 * @param text the plain text of the string
+	 */
+	synchronized void add(String id, String text) {
+		if (this.buffer.size() >= this.flushSize) {
+			this.flushingBuffers.add(this.buffer);
+			this.buffer = new MemoryBuffer();
+			this.notify();
+		}
+		this.buffer.add(id, text.toLowerCase());
+	}
+	
+	/**
+	 * Write a batch of strings directly to a new segment, bypassing the
+	 * buffer. This method is intended for bulk indexing and may be called by
+	 * multiple threads at the same time.
+	 * @param ids the IDs of the strings
+	 * @param texts the plain texts of the strings
+	 * @throws IOException
+	 */
+	void addSegment(String[] ids, String[] texts) throws IOException {
+		String[] normTexts = new String[texts.length];
+		for (int t = 0; t < texts.length; t++)
+			normTexts[t] = texts[t].toLowerCase();
+		SearchSegment segment = this.writeSegment(ids, normTexts);
+		synchronized (this) {
+			this.segments.add(segment);
+			this.writeManifest();
+		}
+	}
+	
+	/**
+	 * Find the strings matching a set of full text predicates. The predicates
+	 * use the syntax of the SQL LIKE operator, i.e., '%' matches any sequence
+	 * of characters and '_' matches any single character. A string matches a
+	 * predicate if the predicate matches anywhere in its lower case text, and
+	 * if the string contains a token starting with each token of the predicate.
+	 * @param predicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @return the IDs of the matching strings
+	 */
+	String[] find(String[] predicates, boolean disjunctive) {
+		ArrayList sources = this.getSources();
+		Pattern[] patterns = getLikePatterns(predicates);
+		String[][] predicateTokens = getPredicateTokens(predicates);
+		
+		//	search segments first, then buffers, eliminating duplicates
+		LinkedHashSet ids = new LinkedHashSet();
+		for (int s = 0; s < sources.size(); s++) {
+			SearchSource source = ((SearchSource) sources.get(s));
+			int[] docs = getMatchingDocs(source, patterns, predicateTokens, disjunctive);
+			for (int d = 0; d < docs.length; d++)
+				ids.add(source.getId(docs[d]));
+		}
+		return ((String[]) ids.toArray(new String[ids.size()]));
+	}
+	
+	/**
+	 * Find the strings matching a set of full text predicates, ranked by their
+	 * BM25 score for the tokens of the predicates. Matching works as for the
+	 * find() method. For disjunctive queries, strings that cannot score above
+	 * the lowest score among the top ranked strings found so far are skipped
+	 * without even loading their text, following the MaxScore approach: query
+	 * tokens are ordered by the maximum score they can contribute, and strings
+	 * that only contain the lowest scoring tokens whose summed up maximum
+	 * contributions stay below that threshold are never visited. If a cursor
+	 * is given, only strings sorting after it are considered, so pages of a
+	 * ranked result can be retrieved one by one.
+	 * @param predicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param top the maximum number of strings to return (0 means no limit)
+	 * @param after the cursor to continue after (may be null)
+	 * @return the IDs of the top ranked matching strings with their scores
+	 */
+	Bm25Scorer.TopScores findTopRanked(String[] predicates, boolean disjunctive, int top, FindCursor after) {
+		ArrayList sources = this.getSources();
+		Pattern[] patterns = getLikePatterns(predicates);
+		String[][] predicateTokens = getPredicateTokens(predicates);
+		
+		//	collect query tokens, and map predicate tokens to them
+		TreeSet queryTokenSet = new TreeSet();
+		boolean allPredicatesHaveTokens = true;
+		for (int p = 0; p < predicateTokens.length; p++) {
+			queryTokenSet.addAll(Arrays.asList(predicateTokens[p]));
+			allPredicatesHaveTokens = (allPredicatesHaveTokens && (predicateTokens[p].length != 0));
+		}
+		String[] queryTokens = ((String[]) queryTokenSet.toArray(new String[queryTokenSet.size()]));
+		int[][] predicateTokenIndexes = new int[predicateTokens.length][];
+		for (int p = 0; p < predicateTokens.length; p++) {
+			predicateTokenIndexes[p] = new int[predicateTokens[p].length];
+			for (int t = 0; t < predicateTokens[p].length; t++)
+				predicateTokenIndexes[p][t] = Arrays.binarySearch(queryTokens, predicateTokens[p][t]);
+		}
+		
+		//	get posting lists and collection statistics
+		int[][][] postings = new int[sources.size()][queryTokens.length][];
+		int[] docFreqs = new int[queryTokens.length];
+		int docCount = 0;
+		long totalLength = 0;
+		for (int s = 0; s < sources.size(); s++) {
+			SearchSource source = ((SearchSource) sources.get(s));
+			docCount += source.size();
+			totalLength += source.getTotalLength();
+			for (int t = 0; t < queryTokens.length; t++) {
+				postings[s][t] = source.getPrefixPostings(queryTokens[t]);
+				docFreqs[t] += postings[s][t].length;
+			}
+		}
+		Bm25Scorer scorer = new Bm25Scorer(queryTokens, docFreqs, docCount, ((docCount == 0) ? 1 : (((double) totalLength) / docCount)));
+		
+		//	order query tokens by ascending upper bound
+		Integer[] tokenOrder = new Integer[queryTokens.length];
+		for (int t = 0; t < tokenOrder.length; t++)
+			tokenOrder[t] = new Integer(t);
+		final double[] upperBounds = new double[queryTokens.length];
+		for (int t = 0; t < queryTokens.length; t++)
+			upperBounds[t] = scorer.getUpperBound(t);
+		Arrays.sort(tokenOrder, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				return Double.compare(upperBounds[((Integer) obj1).intValue()], upperBounds[((Integer) obj2).intValue()]);
+			}
+		});
+		double[] cumulatedUpperBounds = new double[queryTokens.length + 1];
+		for (int o = 0; o < tokenOrder.length; o++)
+			cumulatedUpperBounds[o + 1] = (cumulatedUpperBounds[o] + upperBounds[tokenOrder[o].intValue()]);
+		
+		//	score strings, eliminating duplicates
+		Bm25Scorer.TopScores topIds = new Bm25Scorer.TopScores(top);
+		HashSet scoredIds = new HashSet();
+		for (int s = 0; s < sources.size(); s++) {
+			SearchSource source = ((SearchSource) sources.get(s));
+			
+			//	conjunctive query, or predicates without tokens, use plain matching (all strings have same maximum score anyway)
+			if (!disjunctive || !allPredicatesHaveTokens) {
+				if (topIds.getThreshold() > cumulatedUpperBounds[queryTokens.length])
+					break;
+				int[] docs = getMatchingDocs(source, patterns, predicateTokens, disjunctive);
+				for (int d = 0; d < docs.length; d++) {
+					String id = source.getId(docs[d]);
+					if (!scoredIds.add(id))
+						continue;
+					double score = scorer.score(scorer.getTermFrequencies(source.getText(docs[d])));
+					if ((after == null) || after.isBefore(score, id))
+						topIds.offer(id, id, score);
+				}
+				continue;
+			}
+			
+			//	disjunctive query, use MaxScore
+			int[] positions = new int[queryTokens.length];
+			while (true) {
+				
+				//	tokens whose summed up upper bounds don't exceed threshold are non-essential
+				double threshold = topIds.getThreshold();
+				int firstEssential = 0;
+				while ((firstEssential < tokenOrder.length) && (cumulatedUpperBounds[firstEssential + 1] <= threshold))
+					firstEssential++;
+				if (firstEssential == tokenOrder.length)
+					break;
+				
+				//	find next string in posting lists of essential tokens
+				int doc = Integer.MAX_VALUE;
+				for (int o = firstEssential; o < tokenOrder.length; o++) {
+					int t = tokenOrder[o].intValue();
+					if (positions[t] < postings[s][t].length)
+						doc = Math.min(doc, postings[s][t][positions[t]]);
+				}
+				if (doc == Integer.MAX_VALUE)
+					break;
+				
+				//	compute score bound for string from tokens it actually contains
+				double docUpperBound = 0;
+				for (int o = 0; o < tokenOrder.length; o++) {
+					int t = tokenOrder[o].intValue();
+					while ((positions[t] < postings[s][t].length) && (postings[s][t][positions[t]] < doc))
+						positions[t]++;
+					if ((positions[t] < postings[s][t].length) && (postings[s][t][positions[t]] == doc)) {
+						docUpperBound += upperBounds[t];
+						positions[t]++;
+					}
+				}
+				if (docUpperBound <= threshold)
+					continue;
+				
+				//	check if string matches any predicate, and score it
+				String text = source.getText(doc);
+				int[] tfs = scorer.getTermFrequencies(text);
+				boolean match = false;
+				for (int p = 0; p < patterns.length; p++) {
+					boolean predicateMatch = true;
+					for (int t = 0; t < predicateTokenIndexes[p].length; t++)
+						predicateMatch = (predicateMatch && (tfs[predicateTokenIndexes[p][t]] != 0));
+					if (predicateMatch && patterns[p].matcher(text).find()) {
+						match = true;
+						break;
+					}
+				}
+				if (!match)
+					continue;
+				String id = source.getId(doc);
+				if (!scoredIds.add(id))
+					continue;
+				double score = scorer.score(tfs);
+				if ((after == null) || after.isBefore(score, id))
+					topIds.offer(id, id, score);
+			}
+		}
+		return topIds;
+	}
+	
+	private synchronized ArrayList getSources() {
+		ArrayList sources = new ArrayList(this.segments);
+		sources.addAll(this.flushingBuffers);
+		sources.add(this.buffer);
+		return sources;
+	}
+	
+	private static Pattern[] getLikePatterns(String[] predicates) {
+		Pattern[] patterns = new Pattern[predicates.length];
+		for (int p = 0; p < predicates.length; p++)
+			patterns[p] = getLikePattern(predicates[p].toLowerCase());
+		return patterns;
+	}
+	
+	private static String[][] getPredicateTokens(String[] predicates) {
+		String[][] predicateTokens = new String[predicates.length][];
+		for (int p = 0; p < predicates.length; p++) {
+			TreeSet tokens = StringPoolServlet.getIndexTokens(predicates[p]);
+			predicateTokens[p] = ((String[]) tokens.toArray(new String[tokens.size()]));
+		}
+		return predicateTokens;
+	}
+	
+	private static int[] getMatchingDocs(SearchSource source, Pattern[] patterns, String[][] predicateTokens, boolean disjunctive) {
+		int[] docs = null;
+		for (int p = 0; p < patterns.length; p++) {
+			int[] predicateDocs = null;
+			for (int t = 0; t < predicateTokens[p].length; t++) {
+				int[] tokenDocs = source.getPrefixPostings(predicateTokens[p][t]);
+				predicateDocs = ((predicateDocs == null) ? tokenDocs : TrigramIndex.intersect(predicateDocs, tokenDocs));
+			}
+			if (predicateDocs == null) {
+				predicateDocs = new int[source.size()];
+				for (int d = 0; d < predicateDocs.length; d++)
+					predicateDocs[d] = d;
+			}
+			
+			//	verify substring
+			int matchCount = 0;
+			for (int d = 0; d < predicateDocs.length; d++) {
+				if (patterns[p].matcher(source.getText(predicateDocs[d])).find())
+					predicateDocs[matchCount++] = predicateDocs[d];
+			}
+			int[] matchDocs = new int[matchCount];
+			System.arraycopy(predicateDocs, 0, matchDocs, 0, matchCount);
+			docs = ((docs == null) ? matchDocs : (disjunctive ? TrigramIndex.union(docs, matchDocs) : TrigramIndex.intersect(docs, matchDocs)));
+		}
+		return ((docs == null) ? new int[0] : docs);
+	}
+	
+	/**
+	 * Shut down the background thread, waiting for any running merge to
+	 * finish, and flush the buffer to a segment.
+	 * @throws IOException
+	 */
+	void close() throws IOException {
+		synchronized (this) {
+			this.maintainerActive = false;
+			if (this.buffer.size() != 0) {
+				this.flushingBuffers.add(this.buffer);
+				this.buffer = new MemoryBuffer();
+			}
+			this.notify();
+		}
+		try {
+			this.maintainer.join();
+		} catch (InterruptedException ie) {}
+		this.flushBuffers();
+	}
+	
+	private static Pattern getLikePattern(String likePredicate) {
+		StringBuffer regEx = new StringBuffer();
+		int literalStart = 0;
+		for (int c = 0; c < likePredicate.length(); c++) {
+			char ch = likePredicate.charAt(c);
+			if ((ch != '%') && (ch != '_'))
+				continue;
+			if (literalStart < c)
+				regEx.append(Pattern.quote(likePredicate.substring(literalStart, c)));
+			regEx.append((ch == '%') ? ".*" : ".");
+			literalStart = (c + 1);
+		}
+		if (literalStart < likePredicate.length())
+			regEx.append(Pattern.quote(likePredicate.substring(literalStart)));
+		return Pattern.compile(regEx.toString(), Pattern.DOTALL);
+	}
+	
+	private synchronized void writeManifest() throws IOException {
+		File manifest = new File(this.folder, (MANIFEST_FILE_NAME + ".new"));
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifest), "UTF-8"));
+		bw.write("" + this.watermark);
+		bw.newLine();
+		for (int s = 0; s < this.segments.size(); s++) {
+			bw.write(((SearchSegment) this.segments.get(s)).getFile().getName());
+			bw.newLine();
+		}
+		bw.flush();
+		bw.close();
+		File oldManifest = new File(this.folder, MANIFEST_FILE_NAME);
+		oldManifest.delete();
+		manifest.renameTo(oldManifest);
+	}
+	
+	private SearchSegment writeSegment(String[] ids, String[] normTexts) throws IOException {
+		File segmentFile;
+		synchronized (this) {
+			segmentFile = new File(this.folder, (SEGMENT_FILE_PREFIX + (this.nextSegmentNumber++) + SEGMENT_FILE_SUFFIX));
+		}
+		SearchSegment.write(segmentFile, ids, normTexts);
+		return new SearchSegment(segmentFile);
+	}
+	
+	private void flushBuffers() throws IOException {
+		synchronized (this.flushLock) {
+			this.doFlushBuffers();
+		}
+	}
+	
+	private void doFlushBuffers() throws IOException {
+		while (true) {
+			MemoryBuffer buffer;
+			synchronized (this) {
+				if (this.flushingBuffers.isEmpty())
+					return;
+				buffer = ((MemoryBuffer) this.flushingBuffers.get(0));
+			}
+			String[][] idsAndTexts = buffer.getIdsAndTexts();
+			SearchSegment segment = this.writeSegment(idsAndTexts[0], idsAndTexts[1]);
+			
+			//	switch buffer for segment in one step, so strings remain searchable throughout
+			synchronized (this) {
+				this.segments.add(segment);
+				this.flushingBuffers.remove(0);
+				this.writeManifest();
+			}
+		}
+	}
+	
+	private void mergeSegments() throws IOException {
+		while (true) {
+			
+			//	group segments by size tier, find tier with enough segments to merge
+			ArrayList mergeSegments = null;
+			synchronized (this) {
+				TreeMap tiers = new TreeMap();
+				for (int s = 0; s < this.segments.size(); s++) {
+					SearchSegment segment = ((SearchSegment) this.segments.get(s));
+					if ((segment.getFileSize() * this.mergeFactor) > MAX_MERGED_SEGMENT_SIZE)
+						continue; // merging would produce too large a segment, as merged segments are at most as large as their parts combined
+					Integer tier = new Integer(this.getTier(segment.size()));
+					ArrayList tierSegments = ((ArrayList) tiers.get(tier));
+					if (tierSegments == null) {
+						tierSegments = new ArrayList();
+						tiers.put(tier, tierSegments);
+					}
+					tierSegments.add(segment);
+				}
+				for (Iterator tit = tiers.values().iterator(); tit.hasNext();) {
+					ArrayList tierSegments = ((ArrayList) tit.next());
+					if (tierSegments.size() >= this.mergeFactor) {
+						mergeSegments = new ArrayList(tierSegments.subList(0, this.mergeFactor));
+						break;
+					}
+				}
+			}
+			if (mergeSegments == null)
+				return;
+			
+			//	collect strings, eliminating duplicates
+			ArrayList ids = new ArrayList();
+			ArrayList texts = new ArrayList();
+			HashSet idSet = new HashSet();
+			for (int s = 0; s < mergeSegments.size(); s++) {
+				SearchSegment segment = ((SearchSegment) mergeSegments.get(s));
+				for (int d = 0; d < segment.size(); d++) {
+					String id = segment.getId(d);
+					if (idSet.add(id)) {
+						ids.add(id);
+						texts.add(segment.getText(d));
+					}
+				}
+			}
+			SearchSegment mergedSegment = this.writeSegment(((String[]) ids.toArray(new String[ids.size()])), ((String[]) texts.toArray(new String[texts.size()])));
+			
+			//	replace merged segments, deleting their files (searches still using them keep their mappings)
+			synchronized (this) {
+				int mergedIndex = this.segments.indexOf(mergeSegments.get(0));
+				this.segments.removeAll(mergeSegments);
+				this.segments.add(Math.min(mergedIndex, this.segments.size()), mergedSegment);
+				this.writeManifest();
+			}
+			for (int s = 0; s < mergeSegments.size(); s++) {
+				File segmentFile = ((SearchSegment) mergeSegments.get(s)).getFile();
+				if (!segmentFile.delete())
+					segmentFile.deleteOnExit();
+			}
+		}
+	}
+	
+	private int getTier(int segmentSize) {
+		int tier = 0;
+		for (long tierSize = this.flushSize; segmentSize > tierSize; tierSize *= this.mergeFactor)
+			tier++;
+		return tier;
+	}
+	
+	/**
+	 * A set of strings to search, i.e., a segment or a buffer. Strings are
+	 * addressed by their number in the source, and their text is lower case.
+	 * 
+	 * @author sautter
+	 */
+	static interface SearchSource {
+		
+		/**
+		 * @return the number of strings in the source
+		 */
+		public abstract int size();
+		
+		/**
+		 * @return the total number of tokens in all strings in the source
+		 */
+		public abstract long getTotalLength();
+		
+		/**
+		 * Retrieve the ID of a string in the source.
+		 * @param doc the number of the string in the source
+		 * @return the ID of the string
+		 */
+		public abstract String getId(int doc);
+		
+		/**
+		 * Retrieve the lower case plain text of a string in the source.
+		 * @param doc the number of the string in the source
+		 * @return the text of the string
+		 */
+		public abstract String getText(int doc);
+		
+		/**
+		 * Retrieve the numbers of all strings in the source containing a term
+		 * starting with a given prefix.
+		 * @param prefix the prefix to search
+		 * @return the sorted numbers of the matching strings
+		 */
+		public abstract int[] getPrefixPostings(String prefix);
+	}
+	
+	private static class MemoryBuffer implements SearchSource {
+		private ArrayList ids = new ArrayList();
+		private ArrayList texts = new ArrayList();
+		private TreeMap termDocs = new TreeMap();
+		private long totalLength = 0;
+		public synchronized int size() {
+			return this.ids.size();
+		}
+		public synchronized long getTotalLength() {
+			return this.totalLength;
+		}
+		public synchronized String getId(int doc) {
+			return ((String) this.ids.get(doc));
+		}
+		public synchronized String getText(int doc) {
+			return ((String) this.texts.get(doc));
+		}
+		public synchronized int[] getPrefixPostings(String prefix) {
+			SortedMap prefixTermDocs = this.termDocs.subMap(prefix, (prefix + Character.MAX_VALUE));
+			TreeSet docs = new TreeSet();
+			for (Iterator dit = prefixTermDocs.values().iterator(); dit.hasNext();)
+				docs.addAll((ArrayList) dit.next());
+			int[] prefixDocs = new int[docs.size()];
+			int d = 0;
+			for (Iterator dit = docs.iterator(); dit.hasNext();)
+				prefixDocs[d++] = ((Integer) dit.next()).intValue();
+			return prefixDocs;
+		}
+		synchronized void add(String id, String normText) {
+			int doc = this.ids.size();
+			this.ids.add(id);
+			this.texts.add(normText);
+			this.totalLength += Bm25Scorer.getLength(normText);
+			for (Iterator tit = StringPoolServlet.getIndexTokens(normText).iterator(); tit.hasNext();) {
+				String term = ((String) tit.next());
+				ArrayList docs = ((ArrayList) this.termDocs.get(term));
+				if (docs == null) {
+					docs = new ArrayList(2);
+					this.termDocs.put(term, docs);
+				}
+				docs.add(new Integer(doc));
+			}
+		}
+		synchronized String[][] getIdsAndTexts() {
+			String[][] idsAndTexts = {
+				((String[]) this.ids.toArray(new String[this.ids.size()])),
+				((String[]) this.texts.toArray(new String[this.texts.size()])),
+			};
+			return idsAndTexts;
+		}
+	}
+}
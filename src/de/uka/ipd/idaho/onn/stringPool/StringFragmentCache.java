@@ -0,0 +1,166 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache for the fully rendered, UTF-8 encoded XML representations of pooled
+ * strings, keyed by string ID and representation (full or concise). Each
+ * fragment is tagged with the parse checksum and update time of the string it
+ * was rendered from, and a lookup only succeeds if both still match.<br>
+ * Eviction is segmented LRU: fragments enter a probation segment and are only
+ * promoted to the protected segment on their second read, so strings that are
+ * read frequently survive bursts of one-off reads.
+ * 
+ * @author sautter
+ */
+class StringFragmentCache {
+	
+	private static class Fragment {
+		final String parseChecksum;
+		final long updateTime;
+		final byte[] bytes;
+		Fragment(String parseChecksum, long updateTime, byte[] bytes) {
+			this.parseChecksum = ((parseChecksum == null) ? "" : parseChecksum);
+			this.updateTime = updateTime;
+			this.bytes = bytes;
+		}
+		boolean isValid(String parseChecksum, long updateTime) {
+			return ((this.updateTime == updateTime) && this.parseChecksum.equals((parseChecksum == null) ? "" : parseChecksum));
+		}
+	}
+	
+	private final int maxBytes;
+	private final int maxProtectedBytes;
+	private final int maxFragmentBytes;
+	
+	private LinkedHashMap probation = new LinkedHashMap(128, 0.75f, true);
+	private int probationBytes = 0;
+	private LinkedHashMap protectedFragments = new LinkedHashMap(128, 0.75f, true);
+	private int protectedBytes = 0;
+	
+	/**
+	 * Constructor
+	 * @param maxBytes the maximum number of bytes to hold in the cache
+	 */
+	StringFragmentCache(int maxBytes) {
+		this.maxBytes = Math.max(maxBytes, 0);
+		this.maxProtectedBytes = ((this.maxBytes / 5) * 4);
+		this.maxFragmentBytes = (this.maxBytes / 64);
+	}
+	
+	private static String getKey(String stringId, boolean full) {
+		return (stringId + (full ? ":F" : ":C"));
+	}
+	
+	/**
+	 * Retrieve the rendered fragment for a string. If the cached fragment was
+	 * rendered from a different parse checksum or update time, it is discarded
+	 * and this method returns null.
+	 * @param stringId the ID of the string
+	 * @param full fragment including the parsed string?
+	 * @param parseChecksum the current parse checksum of the string
+	 * @param updateTime the current update time of the string
+	 * @return the rendered fragment, or null if there is no valid one
+	 */
+	synchronized byte[] get(String stringId, boolean full, String parseChecksum, long updateTime) {
+		if (this.maxBytes == 0)
+			return null;
+		String key = getKey(stringId, full);
+		
+		//	check protected segment first
+		Fragment fragment = ((Fragment) this.protectedFragments.get(key));
+		if (fragment != null) {
+			if (fragment.isValid(parseChecksum, updateTime))
+				return fragment.bytes;
+			this.protectedFragments.remove(key);
+			this.protectedBytes -= fragment.bytes.length;
+			return null;
+		}
+		
+		//	check probation segment, promoting on second read
+		fragment = ((Fragment) this.probation.remove(key));
+		if (fragment == null)
+			return null;
+		this.probationBytes -= fragment.bytes.length;
+		if (!fragment.isValid(parseChecksum, updateTime))
+			return null;
+		this.protectedFragments.put(key, fragment);
+		this.protectedBytes += fragment.bytes.length;
+		
+		//	demote least recently used protected fragments to probation
+		for (Iterator fit = this.protectedFragments.entrySet().iterator(); fit.hasNext() && (this.protectedBytes > this.maxProtectedBytes);) {
+			Map.Entry demoteEntry = ((Map.Entry) fit.next());
+			Fragment demoteFragment = ((Fragment) demoteEntry.getValue());
+			fit.remove();
+			this.protectedBytes -= demoteFragment.bytes.length;
+			this.probation.put(demoteEntry.getKey(), demoteFragment);
+			this.probationBytes += demoteFragment.bytes.length;
+		}
+		this.evict();
+		return fragment.bytes;
+	}
+	
+	/**
+	 * Store the rendered fragment for a string. Fragments larger than 1/64 of
+	 * the cache size are not stored.
+	 * @param stringId the ID of the string
+	 * @param full fragment including the parsed string?
+	 * @param parseChecksum the parse checksum the fragment was rendered from
+	 * @param updateTime the update time the fragment was rendered from
+	 * @param bytes the rendered fragment
+	 */
+	synchronized void put(String stringId, boolean full, String parseChecksum, long updateTime, byte[] bytes) {
+		if (bytes.length > this.maxFragmentBytes)
+			return;
+		String key = getKey(stringId, full);
+		this.remove(key);
+		this.probation.put(key, new Fragment(parseChecksum, updateTime, bytes));
+		this.probationBytes += bytes.length;
+		this.evict();
+	}
+	
+	/**
+	 * Discard all fragments rendered for a string, e.g. after an update.
+	 * @param stringId the ID of the string
+	 */
+	synchronized void invalidate(String stringId) {
+		this.remove(getKey(stringId, true));
+		this.remove(getKey(stringId, false));
+	}
+	
+	private void remove(String key) {
+		Fragment fragment = ((Fragment) this.protectedFragments.remove(key));
+		if (fragment != null)
+			this.protectedBytes -= fragment.bytes.length;
+		fragment = ((Fragment) this.probation.remove(key));
+		if (fragment != null)
+			this.probationBytes -= fragment.bytes.length;
+	}
+	
+	private void evict() {
+		for (Iterator fit = this.probation.values().iterator(); fit.hasNext() && ((this.probationBytes + this.protectedBytes) > this.maxBytes);) {
+			Fragment fragment = ((Fragment) fit.next());
+			fit.remove();
+			this.probationBytes -= fragment.bytes.length;
+		}
+	}
+}
@@ -260,12 +260,29 @@ public interface StringPoolClient {
 		public abstract IOException getException();
 	}
 	
+	/**
+	 * Iterator over a page of a search result, providing the cursor to obtain
+	 * the next page with.
+	 * 
+	 * @author sautter
+	 */
+	public static interface PagedPooledStringIterator extends PooledStringIterator {
+		
+		/**
+		 * Retrieve the cursor for obtaining the next page of the search result
+		 * this iterator represents a page of. If this page is the last one,
+		 * this method returns null.
+		 * @return the cursor for the next page
+		 */
+		public abstract String getNextCursor();
+	}
+	
 	/**
 	 * Search result for encapsulating an exception
 	 * 
 	 * @author sautter
 	 */
-	public static class ExceptionPSI implements PooledStringIterator {
+	public static class ExceptionPSI implements PagedPooledStringIterator {
 		private IOException ioe;
 		public ExceptionPSI(IOException ioe) {
 			this.ioe = ioe;
@@ -279,6 +296,9 @@ public interface StringPoolClient {
 		public IOException getException() {
 			return this.ioe;
 		}
+		public String getNextCursor() {
+			return null;
+		}
 	}
 	
 	/**
@@ -333,6 +353,92 @@ public interface StringPoolClient {
 	 */
 	public abstract PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly);
 	
+	/**
+	 * Find strings using full text search, optionally ranking the result by
+	 * relevance. Strings are ranked by their BM25 score for the words in the
+	 * full text predicates, most relevant first, so the limit cuts off the
+	 * least relevant strings.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of strings to include in the result (0 means no limit)
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the result by relevance to the full text
+	 *            predicates?
+	 * @return an iterator over the strings matching the query
+	 */
+	public abstract PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance);
+	
+	/**
+	 * Find strings using full text search, one page at a time. Unranked
+	 * results are sorted by string ID, ranked ones by descending relevance.
+	 * The first page is obtained with a null cursor (or '*'), each subsequent
+	 * page with the cursor returned with the preceding page, until the latter
+	 * is null. Strings added between pages show up on subsequent pages if
+	 * they sort after the cursor, but pages never repeat or skip strings that
+	 * sort before it.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the number of strings per page
+	 * @param cursor the cursor returned with the preceding page
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the result by relevance to the full text
+	 *            predicates?
+	 * @return an iterator over the strings on the requested page
+	 */
+	public abstract PagedPooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, String cursor, boolean selfCanonicalOnly, boolean rankByRelevance);
+	
+	/**
+	 * Run a batch of independent full text searches in one go, e.g. one per
+	 * citation in a document to match against the pool. The searches share
+	 * all restrictions but the full text query, and run concurrently on the
+	 * StringPool node, identical queries only once. The returned array holds
+	 * the result of each query at the same index as the query.
+	 * @param queries the full text queries, one per search
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of strings to include in the result of
+	 *            each search (0 means no limit)
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the results by relevance to the queries?
+	 * @return an array holding iterators over the strings matching each query
+	 */
+	public abstract PooledStringIterator[] findStringsBatch(String[] queries, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance);
+	
+	/**
+	 * Resolve a batch of external identifiers (e.g. DOIs or handles) to the
+	 * IDs of the strings carrying them. Identifier types and values match
+	 * exactly, safe for case if the StringPool node indexes case insensitive.
+	 * The argument arrays hold the type and value of each identifier at the
+	 * same index, and the returned array holds the string IDs resolved from
+	 * each identifier at that index, an empty array for identifiers that do
+	 * not resolve.
+	 * @param types the types of the identifiers to resolve
+	 * @param values the values of the identifiers to resolve
+	 * @return an array holding the IDs of the strings carrying each identifier
+	 * @throws IOException
+	 */
+	public abstract String[][] resolveIdentifiers(String[] types, String[] values) throws IOException;
+	
+	/**
+	 * Find near-duplicates of a string, i.e., strings whose character trigrams
+	 * largely overlap with those of the string with the argument ID, e.g. due
+	 * to differences in punctuation or abbreviations. The similarity of two
+	 * strings is estimated as the Jaccard similarity of their trigram sets.
+	 * @param stringId the ID of the string to find near-duplicates of
+	 * @param minSimilarity the minimum similarity, between 0 and 1
+	 * @param limit the maximum number of strings to include in the result (0
+	 *            means no limit)
+	 * @return an iterator over the near-duplicates, most similar first
+	 */
+	public abstract PooledStringIterator findSimilarStrings(String stringId, double minSimilarity, int limit);
+	
 	/**
 	 * Retrieve the strings updated since a given UTC timestamp.
 	 * @param updatedSince the timestamp
@@ -383,7 +489,7 @@ public interface StringPoolClient {
 	 * @throws IOException
 	 */
 	public abstract PooledString updateString(UploadString string, String user) throws IOException;
-
+	
 	/**
 	 * Upload a series of plain string without a parsed versions.
 	 * @param stringsPlain an array holding the string to upload
@@ -391,7 +497,7 @@ public interface StringPoolClient {
 	 * @return an iterator over the uploaded strings
 	 */
 	public abstract PooledStringIterator updateStrings(String[] stringsPlain, String user);
-
+	
 	/**
 	 * Upload a series of plain string with or without a parsed versions.
 	 * @param strings an array holding the strings to upload
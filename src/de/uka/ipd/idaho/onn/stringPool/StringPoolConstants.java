@@ -32,6 +32,34 @@ public interface StringPoolConstants extends OnnConstants {
 	
 	public static final String STRING_SET_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "stringSet");
 	public static final String UPDATED_SINCE_ATTRIBUTE = "updatedSince";
+	public static final String NEXT_CURSOR_ATTRIBUTE = "nextCursor";
+	public static final String SNIPPET_ATTRIBUTE = "snippet";
+	public static final String TRUNCATED_ATTRIBUTE = "truncated";
+	public static final String TRUNCATED_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "truncated");
+	
+	public static final String FACET_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "facet");
+	public static final String FACET_NAME_ATTRIBUTE = "name";
+	public static final String FACET_VALUE_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "facetValue");
+	public static final String FACET_VALUE_ATTRIBUTE = "value";
+	
+	public static final String STRING_SETS_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "stringSets");
+	public static final String QUERY_SET_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "querySet");
+	public static final String QUERY_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "query");
+	public static final String QUERY_ID_ATTRIBUTE = "queryId";
+	public static final String ERROR_ATTRIBUTE = "error";
+	
+	public static final String IDENTIFIER_SET_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "identifierSet");
+	public static final String IDENTIFIER_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "identifier");
+	public static final String IDENTIFIER_TYPE_ATTRIBUTE = "type";
+	public static final String IDENTIFIER_VALUE_ATTRIBUTE = "value";
+	
+	public static final String STANDING_QUERY_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "standingQuery");
+	public static final String SUBSCRIBER_ATTRIBUTE = "subscriber";
+	public static final String SUBSCRIBER_TOKEN_ATTRIBUTE = "subscriberToken";
+	public static final String MATCH_SET_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "matchSet");
+	public static final String MATCH_NODE_TYPE = (SP_XML_NAMESPACE_PREFIX + "match");
+	public static final String MATCH_TIME_ATTRIBUTE = "matchTime";
+	public static final String OVERFLOW_ATTRIBUTE = "overflow";
 	
 	public static final String COUNT_ATTRIBUTE = "count";
 	public static final String CLUSTER_COUNT_ATTRIBUTE = "clusterCount";
@@ -55,6 +83,7 @@ public interface StringPoolConstants extends OnnConstants {
 	
 	public static final String CREATED_ATTRIBUTE = "created";
 	public static final String UPDATED_ATTRIBUTE = "updated";
+	public static final String PROPOSED_CANONICAL_STRING_ID_ATTRIBUTE = "proposedCanonicalId";
 	
 	public static final String DELETED_ATTRIBUTE = "deleted";
 	
@@ -68,16 +97,34 @@ public interface StringPoolConstants extends OnnConstants {
 	public static final String FIND_ACTION_NAME = "find";
 	public static final String UPDATE_ACTION_NAME = "update";
 	public static final String API_STATS_ACTION_NAME = "apiStats";
+	public static final String SIMILAR_ACTION_NAME = "similar";
+	public static final String SUGGEST_ACTION_NAME = "suggest";
+	public static final String AGGREGATE_ACTION_NAME = "aggregate";
+	public static final String MULTI_FIND_ACTION_NAME = "multiFind";
+	public static final String RESOLVE_ACTION_NAME = "resolve";
+	public static final String CLUSTER_ACTION_NAME = "cluster";
+	public static final String SUBSCRIBE_ACTION_NAME = "subscribe";
+	public static final String UNSUBSCRIBE_ACTION_NAME = "unsubscribe";
+	public static final String MATCHES_ACTION_NAME = "matches";
 	
 	public static final String TOP_PARAMETER = "top";
 	public static final String LIMIT_PARAMETER = "limit";
 	public static final String SELF_CANONICAL_ONLY_PARAMETER = "sco";
+	public static final String FEDERATED_PARAMETER = "federated";
 	
 	public static final String ID_PARAMETER = "id";
 	public static final String QUERY_PARAMETER = "query";
 	public static final String COMBINE_PARAMETER = "combine";
+	public static final String MATCH_MODE_PARAMETER = "matchMode";
+	public static final String SORT_PARAMETER = "sort";
+	public static final String CURSOR_PARAMETER = "cursor";
+	public static final String THRESHOLD_PARAMETER = "threshold";
+	public static final String FACET_PARAMETER = "facet";
 	public static final String TYPE_PARAMETER = "type";
 	public static final String USER_PARAMETER = "user";
+	public static final String SUBSCRIBER_PARAMETER = "subscriber";
+	public static final String SUBSCRIBER_TOKEN_PARAMETER = "subscriberToken";
+	public static final String WAIT_PARAMETER = "wait";
 	public static final String FORMAT_PARAMETER = "format";
 	public static final String RESPONSE_FORMAT_PARAMETER = "responseFormat";
 	public static final String STRINGS_PARAMETER = "strings";
@@ -85,6 +132,19 @@ public interface StringPoolConstants extends OnnConstants {
 	public static final String AND_COMBINE = "and";
 	public static final String OR_COMBINE = "or";
 	
+	public static final String TOKEN_MATCH_MODE = "token";
+	public static final String SUBSTRING_MATCH_MODE = "substring";
+	public static final String REGEX_MATCH_MODE = "regex";
+	
+	public static final String RELEVANCE_SORT = "relevance";
+	
+	public static final String FIRST_PAGE_CURSOR = "*";
+	
+	public static final String TYPE_FACET = "type";
+	public static final String USER_FACET = "user";
+	public static final String DOMAIN_FACET = "domain";
+	public static final String YEAR_FACET = "year";
+	
 	public static final String CONCISE_FORMAT = "concise";
 	public static final String FULL_FORMAT = "full";
 }
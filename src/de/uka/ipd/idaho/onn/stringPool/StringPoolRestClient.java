@@ -19,10 +19,15 @@ package de.uka.ipd.idaho.onn.stringPool;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLEncoder;
@@ -30,7 +35,9 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.htmlXmlUtil.TokenReceiver;
@@ -153,9 +160,10 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	}
 	
 	private static final boolean debugThreading = false;
-	private class ThreadedPSI implements PooledStringIterator {
+	private class ThreadedPSI implements PagedPooledStringIterator {
 		private IOException ioe;
 		private PooledString next;
+		private String nextCursor;
 		private Thread parser;
 		private Object parserLock = new Object();
 		private Reader reader;
@@ -202,6 +210,13 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 										}
 									}
 									
+									//	start of string set, holding cursor for next page
+									if (stringSetNodeType.equals(type)) {
+										if (!isEndTag)
+											nextCursor = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar).getAttribute(NEXT_CURSOR_ATTRIBUTE);
+										return;
+									}
+									
 									//	start or end of pooled string proper
 									if (stringNodeType.equals(type)) {
 										if (isEndTag) {
@@ -371,6 +386,10 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 			this.hasNextString();
 			return next;
 		}
+		public String getNextCursor() {
+			this.hasNextString(); // make sure root element is parsed
+			return this.nextCursor;
+		}
 		protected void finalize() throws Throwable {
 			if (this.parser == null)
 				return;
@@ -397,6 +416,22 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	
 	private String baseUrl;
 	
+	private static final int MAX_CACHED_RESPONSES = 64;
+	private static final int MAX_CACHED_RESPONSE_BYTES = (256 * 1024);
+	private static class CachedResponse {
+		final String eTag;
+		final byte[] body;
+		CachedResponse(String eTag, byte[] body) {
+			this.eTag = eTag;
+			this.body = body;
+		}
+	}
+	private LinkedHashMap responseCache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > MAX_CACHED_RESPONSES);
+		}
+	};
+	
 	/**
 	 * Constructor
 	 * @param baseUrl the URL of the string pool node to connect to
@@ -405,6 +440,58 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 		this.baseUrl = baseUrl;
 	}
 	
+	/**
+	 * Open the input stream to read the response for a URL. If an earlier
+	 * response for the same URL came with an ETag, this method sends it along
+	 * with the request, and serves the earlier response from memory if the
+	 * string pool node reports it unchanged. This method is meant to be used
+	 * by sub classes only.
+	 * @param url the URL to fetch data from
+	 * @return an input stream providing the response body
+	 * @throws IOException
+	 */
+	protected InputStream openStream(URL url) throws IOException {
+		String urlString = url.toString();
+		CachedResponse cachedResponse;
+		synchronized (this.responseCache) {
+			cachedResponse = ((CachedResponse) this.responseCache.get(urlString));
+		}
+		
+		HttpURLConnection con = ((HttpURLConnection) url.openConnection());
+		if (cachedResponse != null)
+			con.setRequestProperty("If-None-Match", cachedResponse.eTag);
+		if ((cachedResponse != null) && (con.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+			con.getInputStream().close();
+			return new ByteArrayInputStream(cachedResponse.body);
+		}
+		InputStream in = con.getInputStream();
+		String eTag = con.getHeaderField("ETag");
+		if (eTag == null) {
+			if (cachedResponse != null) synchronized (this.responseCache) {
+				this.responseCache.remove(urlString);
+			}
+			return in;
+		}
+		
+		//	buffer response, and cache it unless it's too large
+		ByteArrayOutputStream bodyBuffer = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int r; (bodyBuffer.size() <= MAX_CACHED_RESPONSE_BYTES) && ((r = in.read(buffer, 0, buffer.length)) != -1);)
+			bodyBuffer.write(buffer, 0, r);
+		if (bodyBuffer.size() > MAX_CACHED_RESPONSE_BYTES) {
+			synchronized (this.responseCache) {
+				this.responseCache.remove(urlString);
+			}
+			return new SequenceInputStream(new ByteArrayInputStream(bodyBuffer.toByteArray()), in);
+		}
+		in.close();
+		byte[] body = bodyBuffer.toByteArray();
+		synchronized (this.responseCache) {
+			this.responseCache.put(urlString, new CachedResponse(eTag, body));
+		}
+		return new ByteArrayInputStream(body);
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#getString(java.lang.String)
 	 */
@@ -439,7 +526,7 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	 */
 	public PooledStringIterator getLinkedStrings(String canonicalStringId) throws IOException {
 		try {
-			return this.receiveStrings(ACTION_PARAMETER + "=" + GET_ACTION_NAME + "&" + CANONICAL_STRING_ID_ATTRIBUTE + "=" + URLEncoder.encode(canonicalStringId, ENCODING));
+			return this.receiveStrings(ACTION_PARAMETER + "=" + CLUSTER_ACTION_NAME + "&" + CANONICAL_STRING_ID_ATTRIBUTE + "=" + URLEncoder.encode(canonicalStringId, ENCODING));
 		}
 		catch (IOException ioe) {
 			return new ExceptionPSI(ioe);
@@ -457,7 +544,14 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, boolean)
 	 */
 	public PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly) {
-		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, null);
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, false);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, boolean, boolean)
+	 */
+	public PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, rankByRelevance, null);
 	}
 	
 	/**
@@ -476,6 +570,58 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	 * @return an iterator over the strings matching the query
 	 */
 	protected PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, String detailPredicates) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, false, detailPredicates);
+	}
+	
+	/**
+	 * Find strings using full text search plus sub class specific detail
+	 * queries, optionally ranking the result by relevance. This method is
+	 * meant to be called by sub classes only.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of strings to include in the result (0
+	 *            means no limit)
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the result by relevance to the full text
+	 *            predicates, most relevant first?
+	 * @param detailPredicates the predicates to match against a sub class
+	 *            specific index
+	 * @return an iterator over the strings matching the query
+	 */
+	protected PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance, String detailPredicates) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, null, selfCanonicalOnly, rankByRelevance, detailPredicates);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, java.lang.String, boolean, boolean)
+	 */
+	public PagedPooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, String cursor, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, ((cursor == null) ? FIRST_PAGE_CURSOR : cursor), selfCanonicalOnly, rankByRelevance, null);
+	}
+	
+	/**
+	 * Find strings using full text search plus sub class specific detail
+	 * queries, one page at a time. This method is meant to be called by sub
+	 * classes only.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the number of strings per page (0 means no limit)
+	 * @param cursor the cursor returned with the preceding page ('*' for the
+	 *            first page, null for an unpaged result)
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the result by relevance to the full text
+	 *            predicates, most relevant first?
+	 * @param detailPredicates the predicates to match against a sub class
+	 *            specific index
+	 * @return an iterator over the strings on the requested page
+	 */
+	protected PagedPooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, String cursor, boolean selfCanonicalOnly, boolean rankByRelevance, String detailPredicates) {
 		try {
 			StringBuffer queryString = new StringBuffer();
 			if (textPredicates != null) {
@@ -494,12 +640,16 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 				queryString.append("&" + LIMIT_PARAMETER + "=" + limit);
 			if (selfCanonicalOnly)
 				queryString.append("&" + SELF_CANONICAL_ONLY_PARAMETER + "=" + SELF_CANONICAL_ONLY_PARAMETER);
+			if (rankByRelevance)
+				queryString.append("&" + SORT_PARAMETER + "=" + RELEVANCE_SORT);
+			if (cursor != null)
+				queryString.append("&" + CURSOR_PARAMETER + "=" + URLEncoder.encode(cursor, ENCODING));
 			if ((detailPredicates != null) && (detailPredicates.length() != 0)) {
 				if (!detailPredicates.startsWith("&"))
 					queryString.append("&");
 				queryString.append(detailPredicates);
 			}
-			return this.receiveStrings(ACTION_PARAMETER + "=" + FIND_ACTION_NAME + queryString.toString());
+			return ((PagedPooledStringIterator) this.receiveStrings(ACTION_PARAMETER + "=" + FIND_ACTION_NAME + queryString.toString()));
 		}
 		catch (IOException ioe) {
 			return new ExceptionPSI(ioe);
@@ -517,7 +667,7 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 	 */
 	protected PooledStringIterator receiveStrings(String urlQueryString) throws IOException {
 		URL url = new URL(this.baseUrl + "?" + urlQueryString);
-		return this.receiveStrings(new BufferedReader(new InputStreamReader(url.openStream(), ENCODING)));
+		return this.receiveStrings(new BufferedReader(new InputStreamReader(this.openStream(url), ENCODING)));
 	}
 	
 	/**
@@ -617,6 +767,183 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 //		return new ListPSI(stringList);
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findSimilarStrings(java.lang.String, double, int)
+	 */
+	public PooledStringIterator findSimilarStrings(String stringId, double minSimilarity, int limit) {
+		try {
+			return this.receiveStrings(ACTION_PARAMETER + "=" + SIMILAR_ACTION_NAME + "&" + ID_PARAMETER + "=" + URLEncoder.encode(stringId, ENCODING) + "&" + THRESHOLD_PARAMETER + "=" + minSimilarity + ((limit > 0) ? ("&" + LIMIT_PARAMETER + "=" + limit) : ""));
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStringsBatch(java.lang.String[], java.lang.String, java.lang.String, boolean, int, boolean, boolean)
+	 */
+	public PooledStringIterator[] findStringsBatch(String[] queries, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		final PooledStringIterator[] results = new PooledStringIterator[queries.length];
+		try {
+			URL postUrl = new URL(this.baseUrl + "/" + MULTI_FIND_ACTION_NAME + (concise ? ("?" + FORMAT_PARAMETER + "=" + CONCISE_FORMAT) : ""));
+			HttpURLConnection postCon = ((HttpURLConnection) postUrl.openConnection());
+			postCon.setDoInput(true);
+			postCon.setDoOutput(true);
+			postCon.setRequestMethod("POST");
+			postCon.setRequestProperty("Content-Type", ("text/xml; charset=" + ENCODING));
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(postCon.getOutputStream(), ENCODING));
+			bw.write("<" + QUERY_SET_NODE_TYPE + this.xmlNamespaceAttribute + ">");
+			bw.newLine();
+			for (int q = 0; q < queries.length; q++) {
+				bw.write("<" + QUERY_NODE_TYPE);
+				bw.write(" " + ID_PARAMETER + "=\"" + q + "\"");
+				if (type != null)
+					bw.write(" " + TYPE_PARAMETER + "=\"" + AnnotationUtils.escapeForXml(type, true) + "\"");
+				if (user != null)
+					bw.write(" " + USER_PARAMETER + "=\"" + AnnotationUtils.escapeForXml(user, true) + "\"");
+				if (limit > 0)
+					bw.write(" " + LIMIT_PARAMETER + "=\"" + limit + "\"");
+				if (selfCanonicalOnly)
+					bw.write(" " + SELF_CANONICAL_ONLY_PARAMETER + "=\"" + SELF_CANONICAL_ONLY_PARAMETER + "\"");
+				if (rankByRelevance)
+					bw.write(" " + SORT_PARAMETER + "=\"" + RELEVANCE_SORT + "\"");
+				bw.write(">" + AnnotationUtils.escapeForXml(queries[q]) + "</" + QUERY_NODE_TYPE + ">");
+				bw.newLine();
+			}
+			bw.write("</" + QUERY_SET_NODE_TYPE + ">");
+			bw.newLine();
+			bw.flush();
+			bw.close();
+			
+			//	cut response into per-query string sets, which arrive in order of completion
+			Reader r = new BufferedReader(new InputStreamReader(postCon.getInputStream(), ENCODING));
+			xmlParser.stream(r, new TokenReceiver() {
+				private StringBuffer stringSet = null;
+				private int queryIndex = -1;
+				public void close() throws IOException {}
+				public void storeToken(String token, int treeDepth) throws IOException {
+					if (xmlGrammar.isTag(token)) {
+						String type = xmlGrammar.getType(token);
+						type = type.substring(type.indexOf(':') + 1);
+						if (stringSetNodeType.equals(type)) {
+							if (xmlGrammar.isEndTag(token)) {
+								if (this.stringSet == null)
+									return;
+								this.stringSet.append(token);
+								this.storeResult(receiveStrings(new StringReader(this.stringSet.toString())));
+								this.stringSet = null;
+								return;
+							}
+							TreeNodeAttributeSet stringSetAttributes = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar);
+							try {
+								this.queryIndex = Integer.parseInt(stringSetAttributes.getAttribute(QUERY_ID_ATTRIBUTE, "-1"));
+							}
+							catch (NumberFormatException nfe) {
+								this.queryIndex = -1;
+							}
+							if (stringSetAttributes.getAttribute(ERROR_ATTRIBUTE) != null)
+								this.storeResult(new ExceptionPSI(new IOException(stringSetAttributes.getAttribute(ERROR_ATTRIBUTE))));
+							else if (xmlGrammar.isSingularTag(token))
+								this.storeResult(new ListPSI(new ArrayList()));
+							else this.stringSet = new StringBuffer(token);
+							return;
+						}
+					}
+					if (this.stringSet != null)
+						this.stringSet.append(token);
+				}
+				private void storeResult(PooledStringIterator result) {
+					if ((this.queryIndex < 0) || (this.queryIndex >= results.length))
+						return;
+					
+					//	read strings right away, so we don't keep a parser thread per query waiting
+					ArrayList strings = new ArrayList();
+					while (result.hasNextString())
+						strings.add(result.getNextString());
+					results[this.queryIndex] = ((result.getException() == null) ? ((PooledStringIterator) new ListPSI(strings)) : result);
+				}
+			});
+			r.close();
+		}
+		catch (IOException ioe) {
+			for (int q = 0; q < results.length; q++) {
+				if (results[q] == null)
+					results[q] = new ExceptionPSI(ioe);
+			}
+		}
+		for (int q = 0; q < results.length; q++) {
+			if (results[q] == null)
+				results[q] = new ExceptionPSI(new IOException("No result for query " + q));
+		}
+		return results;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#resolveIdentifiers(java.lang.String[], java.lang.String[])
+	 */
+	public String[][] resolveIdentifiers(String[] types, String[] values) throws IOException {
+		URL postUrl = new URL(this.baseUrl + "/" + RESOLVE_ACTION_NAME);
+		HttpURLConnection postCon = ((HttpURLConnection) postUrl.openConnection());
+		postCon.setDoInput(true);
+		postCon.setDoOutput(true);
+		postCon.setRequestMethod("POST");
+		postCon.setRequestProperty("Content-Type", ("text/xml; charset=" + ENCODING));
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(postCon.getOutputStream(), ENCODING));
+		bw.write("<" + IDENTIFIER_SET_NODE_TYPE + this.xmlNamespaceAttribute + ">");
+		bw.newLine();
+		for (int i = 0; i < types.length; i++) {
+			bw.write("<" + IDENTIFIER_NODE_TYPE);
+			bw.write(" " + IDENTIFIER_TYPE_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(types[i], true) + "\"");
+			bw.write(" " + IDENTIFIER_VALUE_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(values[i], true) + "\"");
+			bw.write("/>");
+			bw.newLine();
+		}
+		bw.write("</" + IDENTIFIER_SET_NODE_TYPE + ">");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+		
+		//	read string IDs per identifier, which come in request order
+		final String[][] stringIds = new String[types.length][];
+		Reader r = new BufferedReader(new InputStreamReader(postCon.getInputStream(), ENCODING));
+		xmlParser.stream(r, new TokenReceiver() {
+			private ArrayList identifierStringIds = null;
+			private int identifierIndex = 0;
+			public void close() throws IOException {}
+			public void storeToken(String token, int treeDepth) throws IOException {
+				if (!xmlGrammar.isTag(token))
+					return;
+				String type = xmlGrammar.getType(token);
+				type = type.substring(type.indexOf(':') + 1);
+				if (IDENTIFIER_NODE_TYPE.substring(IDENTIFIER_NODE_TYPE.indexOf(':') + 1).equals(type)) {
+					if (xmlGrammar.isEndTag(token))
+						this.storeStringIds();
+					else {
+						this.identifierStringIds = new ArrayList();
+						if (xmlGrammar.isSingularTag(token))
+							this.storeStringIds();
+					}
+				}
+				else if (stringNodeType.equals(type) && (this.identifierStringIds != null) && !xmlGrammar.isEndTag(token)) {
+					String stringId = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar).getAttribute(STRING_ID_ATTRIBUTE);
+					if (stringId != null)
+						this.identifierStringIds.add(stringId);
+				}
+			}
+			private void storeStringIds() {
+				if ((this.identifierStringIds != null) && (this.identifierIndex < stringIds.length))
+					stringIds[this.identifierIndex++] = ((String[]) this.identifierStringIds.toArray(new String[this.identifierStringIds.size()]));
+				this.identifierStringIds = null;
+			}
+		});
+		r.close();
+		for (int i = 0; i < stringIds.length; i++) {
+			if (stringIds[i] == null)
+				throw new IOException("No result for identifier " + i);
+		}
+		return stringIds;
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#getStringsUpdatedSince(long)
 	 */
@@ -636,7 +963,7 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 		try {
 			URL countUrl = new URL(this.baseUrl + "?" + ACTION_PARAMETER + "=" + COUNT_ACTION_NAME + ((since < 1) ? "" : ("&" + SINCE_ATTRIBUTE + "=" + URLEncoder.encode(TIMESTAMP_DATE_FORMAT.format(new Date(since)), ENCODING))));
 			final int[] count = {0};
-			xmlParser.stream(new BufferedReader(new InputStreamReader(countUrl.openStream(), ENCODING)), new TokenReceiver() {
+			xmlParser.stream(new BufferedReader(new InputStreamReader(this.openStream(countUrl), ENCODING)), new TokenReceiver() {
 				public void storeToken(String token, int treeDepth) throws IOException {
 					if (xmlGrammar.isTag(token) && !xmlGrammar.isEndTag(token) && stringSetNodeType.equals(xmlGrammar.getType(token))) {
 						TreeNodeAttributeSet tnas = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar);
@@ -662,7 +989,7 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 		try {
 			URL countUrl = new URL(this.baseUrl + "?" + ACTION_PARAMETER + "=" + COUNT_ACTION_NAME + ((since < 1) ? "" : ("&" + SINCE_ATTRIBUTE + "=" + URLEncoder.encode(TIMESTAMP_DATE_FORMAT.format(new Date(since)), ENCODING))));
 			final int[] count = {0};
-			xmlParser.stream(new BufferedReader(new InputStreamReader(countUrl.openStream(), ENCODING)), new TokenReceiver() {
+			xmlParser.stream(new BufferedReader(new InputStreamReader(this.openStream(countUrl), ENCODING)), new TokenReceiver() {
 				public void storeToken(String token, int treeDepth) throws IOException {
 					if (xmlGrammar.isTag(token) && !xmlGrammar.isEndTag(token) && stringSetNodeType.equals(xmlGrammar.getType(token))) {
 						TreeNodeAttributeSet tnas = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar);
@@ -804,7 +1131,7 @@ public class StringPoolRestClient implements StringPoolClient, StringPoolConstan
 		PooledStringIterator psi = this.receiveStrings(new BufferedReader(new InputStreamReader(putCon.getInputStream(), ENCODING)));
 		return (psi.hasNextString() ? psi.getNextString() : null);
 	}
-
+	
 	private static final long parseTime(String timeString) throws NumberFormatException {
 		try {
 			return TIMESTAMP_DATE_FORMAT.parse(timeString).getTime();
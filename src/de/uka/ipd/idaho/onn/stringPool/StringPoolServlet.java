@@ -17,30 +17,57 @@
  */
 package de.uka.ipd.idaho.onn.stringPool;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.sql.SQLException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -52,7 +79,9 @@ import de.uka.ipd.idaho.easyIO.IoProvider;
 import de.uka.ipd.idaho.easyIO.SqlQueryResult;
 import de.uka.ipd.idaho.easyIO.sql.TableColumnDefinition;
 import de.uka.ipd.idaho.easyIO.sql.TableDefinition;
+import de.uka.ipd.idaho.easyIO.settings.Settings;
 import de.uka.ipd.idaho.easyIO.util.HashUtils;
+import de.uka.ipd.idaho.easyIO.util.RandomByteSource;
 import de.uka.ipd.idaho.easyIO.web.WebAppHost;
 import de.uka.ipd.idaho.gamta.AnnotationUtils;
 import de.uka.ipd.idaho.gamta.Gamta;
@@ -60,10 +89,13 @@ import de.uka.ipd.idaho.gamta.MutableAnnotation;
 import de.uka.ipd.idaho.gamta.MutableTokenSequence;
 import de.uka.ipd.idaho.gamta.QueriableAnnotation;
 import de.uka.ipd.idaho.gamta.util.SgmlDocumentReader;
+import de.uka.ipd.idaho.gamta.util.gPath.GPath;
+import de.uka.ipd.idaho.gamta.util.gPath.exceptions.GPathException;
 import de.uka.ipd.idaho.htmlXmlUtil.TokenReceiver;
 import de.uka.ipd.idaho.htmlXmlUtil.TreeNodeAttributeSet;
 import de.uka.ipd.idaho.htmlXmlUtil.accessories.XsltUtils;
 import de.uka.ipd.idaho.onn.OnnServlet;
+import de.uka.ipd.idaho.stringUtils.StringUtils;
 import de.uka.ipd.idaho.stringUtils.StringVector;
 
 /**
@@ -108,6 +140,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	protected static final String STRING_TEXT_COLUMN_NAME = "String";
 	private static final int STRING_TEXT_COLUMN_LENGTH = 1636; // fills up records to 2048 bytes
 	
+	protected static final String SEARCH_STRING_COLUMN_NAME = "SearchString";
+	
 	//	index table
 	protected static final String PARSED_STRING_INDEX_TABLE_NAME_SUFFIX = "Index";
 	
@@ -123,6 +157,19 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	protected static final String ID_VALUE_COLUMN_NAME = "IdValue";
 	private static final int ID_VALUE_COLUMN_LENGTH = 188; // fills up records to 256 bytes
 	
+	//	structured field table
+	protected static final String PARSED_STRING_FIELD_TABLE_NAME_SUFFIX = "Fields";
+	protected static final String FIELD_NAME_COLUMN_NAME = "FieldName";
+	private static final int FIELD_NAME_COLUMN_LENGTH = 32;
+	protected static final String FIELD_VALUE_COLUMN_NAME = "FieldValue";
+	private static final int FIELD_VALUE_COLUMN_LENGTH = 180; // fills up records to 256 bytes
+	protected static final String FIELD_NUMBER_COLUMN_NAME = "FieldNumber";
+	
+	//	full text token table
+	protected static final String PARSED_STRING_TOKEN_TABLE_NAME_SUFFIX = "Tokens";
+	protected static final String TOKEN_COLUMN_NAME = "Token";
+	private static final int TOKEN_COLUMN_LENGTH = 64;
+	
 	private IoProvider io;
 	private boolean isUsingIndexTable = false;
 	
@@ -130,6 +177,46 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	private String parsedStringIndexTableName = (this.getExternalDataName() + PARSED_STRING_INDEX_TABLE_NAME_SUFFIX);
 	private String parsedStringHistoryTableName = (this.getExternalDataName() + PARSED_STRING_HISTORY_TABLE_NAME_SUFFIX);
 	private String parsedStringIdentifierTableName = (this.getExternalDataName() + PARSED_STRING_IDENTIFIER_TABLE_NAME_SUFFIX);
+	private String parsedStringTokenTableName = (this.getExternalDataName() + PARSED_STRING_TOKEN_TABLE_NAME_SUFFIX);
+	private String parsedStringFieldTableName = (this.getExternalDataName() + PARSED_STRING_FIELD_TABLE_NAME_SUFFIX);
+	private TreeMap indexFieldPaths = new TreeMap();
+	private String indexFieldSignature = "";
+	private volatile boolean fieldIndexComplete = false;
+	private volatile boolean tokenIndexComplete = false;
+	private String[] searchFoldTransliterations = new String[0];
+	
+	private boolean trigramIndexEnabled = false;
+	private volatile TrigramIndex trigramIndex = null;
+	private ArrayList trigramIndexBacklog = new ArrayList();
+	
+	private boolean similarityIndexEnabled = false;
+	private volatile MinHashIndex similarityIndex = null;
+	private ArrayList similarityIndexBacklog = new ArrayList();
+	private double duplicateThreshold = 0;
+	
+	private boolean suggestIndexEnabled = false;
+	private volatile SuggestIndex suggestIndex = null;
+	private ArrayList suggestIndexBacklog = new ArrayList();
+	private int maxSuggestions = 20;
+	
+	private static final String[] FACET_NAMES = {TYPE_FACET, USER_FACET, DOMAIN_FACET, YEAR_FACET};
+	private boolean facetIndexEnabled = false;
+	private volatile FacetIndex facetIndex = null;
+	private ArrayList facetIndexBacklog = new ArrayList();
+	
+	private boolean identifierIndexEnabled = false;
+	private volatile IdentifierIndex identifierIndex = null;
+	private ArrayList identifierIndexBacklog = new ArrayList();
+	private int maxResolveIdentifiers = 10000;
+	
+	private SegmentSearchEngine searchEngine = null;
+	private volatile boolean searchEngineReady = false;
+	
+	private Percolator percolator = null;
+	private File standingQueryFile = null;
+	private Object standingQueryFileLock = new Object();
+	private int maxStandingQueries = 10000;
+	private int maxMatchWait = 30000;
 	
 	private int apiCallCountTotal = 0;
 	private int apiCallCountFeed = 0;
@@ -139,8 +226,106 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	private int apiCallCountUpdate = 0;
 	private int apiCallCountCount = 0;
 	private int apiCallCountClusterCount = 0;
+	private int apiCallCountSimilar = 0;
+	private int apiCallCountSuggest = 0;
+	private int apiCallCountAggregate = 0;
+	private int apiCallCountMultiFind = 0;
+	private int apiCallCountResolve = 0;
+	private int apiCallCountCluster = 0;
+	private int apiCallCountCoalesced = 0;
+	private int apiCallCountRejected = 0;
+	private int apiCallCountAborted = 0;
+	private int apiCallCountSubscribe = 0;
+	private int apiCallCountMatches = 0;
 	private int apiCallCountStats = 0;
 	
+	private StringFragmentCache stringFragmentCache = new StringFragmentCache(0);
+	
+	private AtomicLong writeGeneration = new AtomicLong(0);
+	private final String eTagInstanceToken = Long.toString(System.currentTimeMillis(), 36);
+	private Map truncatedETags = Collections.synchronizedMap(new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return (this.size() > 1024);
+		}
+	});
+	private FindResultCache findResultCache = new FindResultCache(0, 0);
+	private FindResultCache pagedMatchIdCache = new FindResultCache(0, 0); // sorted index match IDs of paged finds, to not re-sort for every page
+	private RequestCoalescer requestCoalescer = null;
+	private int maxRankedStrings = 10000;
+	
+	private ExecutorService multiFindExecutor = null;
+	private ExecutorService federatedFindExecutor = null;
+	private int federatedFindTimeout = 5000;
+	private Semaphore findPermits = null;
+	private int findQueueTimeout = 10000;
+	private int findMaxTime = 60000;
+	private int findMaxRows = 0;
+	private int maxMultiFindQueries = 1000;
+	private int multiFindMaxRows = 1000;
+	private static class MultiFindQuery {
+		final String id;
+		final String[] fullTextQueryPredicates;
+		final boolean disjunctive;
+		final String matchMode;
+		final boolean rankByRelevance;
+		final int limit;
+		final boolean selfCanonicalOnly;
+		final Properties detailPredicates;
+		MultiFindQuery(String id, String[] fullTextQueryPredicates, boolean disjunctive, String matchMode, boolean rankByRelevance, int limit, boolean selfCanonicalOnly, Properties detailPredicates) {
+			this.id = id;
+			this.fullTextQueryPredicates = fullTextQueryPredicates;
+			this.disjunctive = disjunctive;
+			this.matchMode = matchMode;
+			this.rankByRelevance = rankByRelevance;
+			this.limit = limit;
+			this.selfCanonicalOnly = selfCanonicalOnly;
+			this.detailPredicates = detailPredicates;
+		}
+	}
+	
+	private HashMap identifierTypeStatistics = null; // identifier type -> {number of identifiers, number of distinct values}
+	private int maxPlannedIdSetSize = 10000;
+	private static class IdentifierLookup {
+		final String detailName;
+		final String type;
+		final String valuePattern;
+		final boolean exact;
+		final int estimate;
+		IdentifierLookup(String detailName, String type, String valuePattern, boolean exact, int estimate) {
+			this.detailName = detailName;
+			this.type = type;
+			this.valuePattern = valuePattern;
+			this.exact = exact;
+			this.estimate = estimate;
+		}
+	}
+	
+	private HashMap clusterIdsToCanonicalIds = new HashMap();
+	private boolean clusterIdsToCanonicalIdsLoaded = false;
+	private volatile LinkedStringIndex linkedStringIndex = null;
+	private ArrayList linkedStringIndexBacklog = new ArrayList();
+	
+	private volatile CreateTimeCounter stringCounter = null;
+	private volatile CreateTimeCounter stringClusterCounter = null;
+	private ArrayList stringCounterBacklog = new ArrayList();
+	private boolean stringCountersLoading = false;
+	private int stringCounterReconcileInterval = (60 * 60);
+	
+	private RecentStringRing recentStrings = new RecentStringRing(1000);
+	private boolean recentStringsLoaded = false;
+	private HashMap rssDocumentCache = new HashMap();
+	private int rssDocumentCacheGeneration = 0;
+	
+	private HashMap formattersByPath = new HashMap();
+	private static class CachedFormatter {
+		final long lastModified;
+		final Transformer formatter;
+		CachedFormatter(long lastModified, Transformer formatter) {
+			this.lastModified = lastModified;
+			this.formatter = formatter;
+		}
+	}
+	
 	/**
 	 * Retrieve the name of the string data table. This method exists to allow
 	 * sub classes to assemble SQL queries.
@@ -177,6 +362,15 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		return this.parsedStringIdentifierTableName;
 	}
 	
+	/**
+	 * Retrieve the name of the structured field table. This method exists to
+	 * allow sub classes to assemble SQL queries.
+	 * @return the table name
+	 */
+	public String getStringFieldTableName() {
+		return this.parsedStringFieldTableName;
+	}
+	
 	/**
 	 * Specify the name to use for the contained data in outside resources like
 	 * databases (table name prefix) or the file system. This default
@@ -275,6 +469,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		this.parsedStringTableName = (externalDataName + PARSED_STRING_TABLE_NAME_SUFFIX);
 		this.parsedStringIndexTableName = (externalDataName + PARSED_STRING_INDEX_TABLE_NAME_SUFFIX);
 		this.parsedStringHistoryTableName = (externalDataName + PARSED_STRING_HISTORY_TABLE_NAME_SUFFIX);
+		this.parsedStringTokenTableName = (externalDataName + PARSED_STRING_TOKEN_TABLE_NAME_SUFFIX);
+		this.parsedStringFieldTableName = (externalDataName + PARSED_STRING_FIELD_TABLE_NAME_SUFFIX);
 		
 		//	get and check database connection
 		this.io = WebAppHost.getInstance(this.getServletContext()).getIoProvider();
@@ -302,6 +498,7 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		dtd.addColumn(LOCAL_UPDATE_DOMAIN_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, DOMAIN_COLUMN_LENGTH);
 		dtd.addColumn(DELETED_COLUMN_NAME, TableDefinition.CHAR_DATATYPE, 1);
 		dtd.addColumn(STRING_TEXT_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, STRING_TEXT_COLUMN_LENGTH);
+		dtd.addColumn(SEARCH_STRING_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, STRING_TEXT_COLUMN_LENGTH);
 		if (!this.io.ensureTable(dtd, true))
 			throw new RuntimeException("ParsedStringPool: Cannot work without database access.");
 		
@@ -357,6 +554,34 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		this.io.indexColumn(this.parsedStringIdentifierTableName, ID_TYPE_COLUMN_NAME);
 		this.io.indexColumn(this.parsedStringIdentifierTableName, ID_VALUE_COLUMN_NAME);
 		
+		//	create structured field table
+		TableDefinition ftd = new TableDefinition(this.parsedStringFieldTableName);
+		ftd.addColumn(STRING_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 32);
+		ftd.addColumn(STRING_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ftd.addColumn(FIELD_NAME_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, FIELD_NAME_COLUMN_LENGTH);
+		ftd.addColumn(FIELD_VALUE_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, FIELD_VALUE_COLUMN_LENGTH);
+		ftd.addColumn(FIELD_NUMBER_COLUMN_NAME, TableDefinition.BIGINT_DATATYPE, 0);
+		if (!this.io.ensureTable(ftd, true))
+			throw new RuntimeException("ParsedStringPool: Cannot work without database access.");
+		
+		//	index structured fields (values for exact and prefix matches, numbers for ranges)
+		this.io.indexColumn(this.parsedStringFieldTableName, STRING_ID_COLUMN_NAME);
+		this.io.indexColumn(this.parsedStringFieldTableName, STRING_ID_HASH_COLUMN_NAME);
+		this.io.indexColumns(this.parsedStringFieldTableName, new String[] {FIELD_NAME_COLUMN_NAME, FIELD_VALUE_COLUMN_NAME});
+		this.io.indexColumns(this.parsedStringFieldTableName, new String[] {FIELD_NAME_COLUMN_NAME, FIELD_NUMBER_COLUMN_NAME});
+		
+		//	create full text token table
+		TableDefinition ttd = new TableDefinition(this.parsedStringTokenTableName);
+		ttd.addColumn(STRING_ID_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, 32);
+		ttd.addColumn(STRING_ID_HASH_COLUMN_NAME, TableDefinition.INT_DATATYPE, 0);
+		ttd.addColumn(TOKEN_COLUMN_NAME, TableDefinition.VARCHAR_DATATYPE, TOKEN_COLUMN_LENGTH);
+		if (!this.io.ensureTable(ttd, true))
+			throw new RuntimeException("ParsedStringPool: Cannot work without database access.");
+		
+		//	index full text tokens
+		this.io.indexColumn(this.parsedStringTokenTableName, STRING_ID_HASH_COLUMN_NAME);
+		this.io.indexColumn(this.parsedStringTokenTableName, TOKEN_COLUMN_NAME);
+		
 		//	clean up legacy duplicate data
 		String cleanupGetterQuery = "SELECT " + STRING_ID_COLUMN_NAME + ", min(" + CREATE_TIME_COLUMN_NAME + ")" +
 				" FROM " + this.parsedStringTableName + 
@@ -409,7 +634,174 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		this.apiCallCountUpdate = Integer.parseInt(this.getSetting("apiCallCountUpdate", "0"));
 		this.apiCallCountCount = Integer.parseInt(this.getSetting("apiCallCountCount", "0"));
 		this.apiCallCountClusterCount = Integer.parseInt(this.getSetting("apiCallCountClusterCount", "0"));
+		this.apiCallCountSimilar = Integer.parseInt(this.getSetting("apiCallCountSimilar", "0"));
+		this.apiCallCountSuggest = Integer.parseInt(this.getSetting("apiCallCountSuggest", "0"));
+		this.apiCallCountAggregate = Integer.parseInt(this.getSetting("apiCallCountAggregate", "0"));
+		this.apiCallCountMultiFind = Integer.parseInt(this.getSetting("apiCallCountMultiFind", "0"));
+		this.apiCallCountResolve = Integer.parseInt(this.getSetting("apiCallCountResolve", "0"));
+		this.apiCallCountCluster = Integer.parseInt(this.getSetting("apiCallCountCluster", "0"));
+		this.apiCallCountCoalesced = Integer.parseInt(this.getSetting("apiCallCountCoalesced", "0"));
+		this.apiCallCountRejected = Integer.parseInt(this.getSetting("apiCallCountRejected", "0"));
+		this.apiCallCountAborted = Integer.parseInt(this.getSetting("apiCallCountAborted", "0"));
+		this.apiCallCountSubscribe = Integer.parseInt(this.getSetting("apiCallCountSubscribe", "0"));
+		this.apiCallCountMatches = Integer.parseInt(this.getSetting("apiCallCountMatches", "0"));
 		this.apiCallCountStats = Integer.parseInt(this.getSetting("apiCallCountStats", "0"));
+		
+		//	create cache for rendered strings (size in KB)
+		this.stringFragmentCache = new StringFragmentCache(1024 * Integer.parseInt(this.getSetting("fragmentCacheSize", "16384")));
+		
+		//	create cache for search results
+		this.findResultCache = new FindResultCache(Integer.parseInt(this.getSetting("findCacheSize", "256")), Integer.parseInt(this.getSetting("findCacheMaxRows", "1000")));
+		this.pagedMatchIdCache = new FindResultCache(Integer.parseInt(this.getSetting("pagedMatchIdCacheSize", "16")), Integer.parseInt(this.getSetting("pagedMatchIdCacheMaxRows", "100000")));
+		
+		//	create coalescer for identical concurrent read requests (maximum response size in bytes, 0 deactivates coalescing)
+		int coalesceMaxBytes = Integer.parseInt(this.getSetting("coalesceMaxBytes", "1048576"));
+		if (coalesceMaxBytes > 0)
+			this.requestCoalescer = new RequestCoalescer(Integer.parseInt(this.getSetting("coalesceMaxRequests", "256")), coalesceMaxBytes, Long.parseLong(this.getSetting("coalesceMaxWait", "10000")));
+		
+		//	get maximum number of strings to rank by relevance in memory if search engine is not available
+		this.maxRankedStrings = Integer.parseInt(this.getSetting("maxRankedStrings", ("" + this.maxRankedStrings)));
+		
+		//	get maximum estimated number of strings to look up by identifier before fetching them by ID, rather than joining tables
+		this.maxPlannedIdSetSize = Integer.parseInt(this.getSetting("maxPlannedIdSetSize", ("" + this.maxPlannedIdSetSize)));
+		
+		//	create thread pool for running batch searches, and get maximum number of searches per batch
+		this.multiFindExecutor = Executors.newFixedThreadPool(Integer.parseInt(this.getSetting("multiFindThreads", ("" + Runtime.getRuntime().availableProcessors()))));
+		this.maxMultiFindQueries = Integer.parseInt(this.getSetting("maxMultiFindQueries", ("" + this.maxMultiFindQueries)));
+		
+		//	get maximum number of strings to load per batch search (0 means no limit beyond the row budget)
+		this.multiFindMaxRows = Integer.parseInt(this.getSetting("multiFindMaxRows", ("" + this.multiFindMaxRows)));
+		
+		//	create thread pool for querying peer nodes in federated searches (if enabled), and get timeout for peer responses (in milliseconds)
+		if ("true".equals(this.getSetting("federatedFind", "false")))
+			this.federatedFindExecutor = Executors.newCachedThreadPool();
+		this.federatedFindTimeout = Integer.parseInt(this.getSetting("federatedFindTimeout", ("" + this.federatedFindTimeout)));
+		
+		//	get maximum number of concurrent searches (0 deactivates admission control), and how long excess searches queue (in milliseconds)
+		int maxConcurrentFinds = Integer.parseInt(this.getSetting("maxConcurrentFinds", ("" + (4 * Runtime.getRuntime().availableProcessors()))));
+		if (maxConcurrentFinds > 0)
+			this.findPermits = new Semaphore(maxConcurrentFinds, true);
+		this.findQueueTimeout = Integer.parseInt(this.getSetting("findQueueTimeout", ("" + this.findQueueTimeout)));
+		
+		//	get transliterations to fold search strings with beyond case and diacritics, and re-index search strings and tokens if folding changed
+		StringVector searchFoldTransliterations = new StringVector();
+		String[] searchFoldRules = this.getSetting("searchFoldTransliterations", "").trim().split("\\s+");
+		for (int r = 0; r < searchFoldRules.length; r++) {
+			if (searchFoldRules[r].indexOf('=') < 1) {
+				if (searchFoldRules[r].length() != 0)
+					System.out.println("ParsedStringPool: invalid search string transliteration " + searchFoldRules[r]);
+				continue;
+			}
+			searchFoldTransliterations.addElement(searchFoldRules[r].substring(0, searchFoldRules[r].indexOf('=')).toLowerCase());
+			searchFoldTransliterations.addElement(searchFoldRules[r].substring(searchFoldRules[r].indexOf('=') + "=".length()).toLowerCase());
+		}
+		this.searchFoldTransliterations = searchFoldTransliterations.toStringArray();
+		String searchFoldSignature = ("folded:" + searchFoldTransliterations.concatStrings(" "));
+		if (!searchFoldSignature.equals(this.getSetting("searchFoldSignature", ""))) {
+			this.setSetting("tokenIndexWatermark", "0");
+			this.setSetting("searchFoldSignature", searchFoldSignature);
+		}
+		boolean searchEngineFoldChanged = !searchFoldSignature.equals(this.getSetting("searchEngineFoldSignature", ""));
+		
+		//	get annotation paths to extract structured fields from parsed strings with, keyed by field name
+		Settings indexFields = this.config.getSubset("indexField");
+		String[] indexFieldNames = indexFields.getKeys();
+		for (int f = 0; f < indexFieldNames.length; f++) {
+			if (!indexFieldNames[f].matches("[a-zA-Z0-9\\_]{1," + FIELD_NAME_COLUMN_LENGTH + "}")) {
+				System.out.println("ParsedStringPool: invalid field name " + indexFieldNames[f]);
+				continue;
+			}
+			String indexFieldPath = indexFields.getSetting(indexFieldNames[f]);
+			try {
+				this.indexFieldPaths.put(indexFieldNames[f], new GPath(indexFieldPath));
+				this.indexFieldSignature += (indexFieldNames[f] + "=" + indexFieldPath + ";");
+			}
+			catch (GPathException gpe) {
+				System.out.println("ParsedStringPool: invalid path for field " + indexFieldNames[f] + ": " + gpe.getMessage());
+			}
+		}
+		this.fieldIndexComplete = (this.indexFieldPaths.isEmpty() || (this.indexFieldSignature.equals(this.getSetting("fieldIndexSignature", "")) && "true".equals(this.getSetting("fieldIndexComplete", "false"))));
+		
+		//	get time budget (in milliseconds) and row budget of individual searches (0 means no budget)
+		this.findMaxTime = Integer.parseInt(this.getSetting("findMaxTime", ("" + this.findMaxTime)));
+		this.findMaxRows = Integer.parseInt(this.getSetting("findMaxRows", ("" + this.findMaxRows)));
+		
+		//	create percolator for standing queries (if enabled) and load registered queries, and get maximum number of queries and maximum poll wait time (in milliseconds)
+		if ("true".equals(this.getSetting("percolator", "false"))) {
+			this.percolator = new Percolator(Integer.parseInt(this.getSetting("percolatorQueueSize", "10000")));
+			this.standingQueryFile = new File(this.dataFolder, "standingQueries.txt");
+			this.loadStandingQueries();
+		}
+		this.maxStandingQueries = Integer.parseInt(this.getSetting("maxStandingQueries", ("" + this.maxStandingQueries)));
+		this.maxMatchWait = Integer.parseInt(this.getSetting("maxMatchWait", ("" + this.maxMatchWait)));
+		
+		//	get interval for reconciling string counters with database (in seconds)
+		this.stringCounterReconcileInterval = Integer.parseInt(this.getSetting("counterReconcileInterval", ("" + this.stringCounterReconcileInterval)));
+		
+		//	create ring for serving RSS feed from memory
+		this.recentStrings = new RecentStringRing(Integer.parseInt(this.getSetting("rssRingSize", ("" + this.recentStrings.getCapacity()))));
+		
+		//	check whether or not to build trigram index for substring and regular expression search
+		this.trigramIndexEnabled = "true".equals(this.getSetting("trigramIndex", "false"));
+		
+		//	check whether or not to build near-duplicate index, and get similarity threshold for proposing canonical IDs on insertion
+		this.similarityIndexEnabled = "true".equals(this.getSetting("similarityIndex", "false"));
+		this.duplicateThreshold = Double.parseDouble(this.getSetting("duplicateThreshold", ("" + this.duplicateThreshold)));
+		
+		//	check whether or not to build typeahead index, and get maximum number of suggestions per prefix
+		this.suggestIndexEnabled = "true".equals(this.getSetting("suggestIndex", "false"));
+		this.maxSuggestions = Integer.parseInt(this.getSetting("maxSuggestions", ("" + this.maxSuggestions)));
+		
+		//	check whether or not to build facet index for aggregate action
+		this.facetIndexEnabled = "true".equals(this.getSetting("facetIndex", "false"));
+		
+		//	check whether or not to build identifier index for resolve action, and get maximum number of identifiers per request
+		this.identifierIndexEnabled = "true".equals(this.getSetting("identifierIndex", "false"));
+		this.maxResolveIdentifiers = Integer.parseInt(this.getSetting("maxResolveIdentifiers", ("" + this.maxResolveIdentifiers)));
+		
+		//	open embedded search engine if enabled (indexing new strings right away, catching up on existing ones in background)
+		if ("true".equals(this.getSetting("searchEngine", "false"))) try {
+			if (searchEngineFoldChanged) {
+				SegmentSearchEngine.discard(new File(this.dataFolder, "searchIndex"));
+				this.setSetting("searchEngineFoldSignature", searchFoldSignature);
+			}
+			this.searchEngine = new SegmentSearchEngine(new File(this.dataFolder, "searchIndex"), Integer.parseInt(this.getSetting("searchEngineFlushSize", "10000")), Integer.parseInt(this.getSetting("searchEngineMergeFactor", "10")));
+		}
+		catch (IOException ioe) {
+			System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while opening search engine.");
+			ioe.printStackTrace(System.out);
+		}
+		
+		//	load in-memory data structures in the background, falling back to the database until done
+		Thread memoryDataLoader = new Thread("StringPoolMemoryDataLoader") {
+			public void run() {
+				loadClusterCanonicalIDs();
+				loadStringCounters();
+				loadIdentifierStatistics();
+				loadRecentStrings();
+				loadTrigramIndex();
+				loadSimilarityIndex();
+				loadSuggestIndex();
+				loadFacetIndex();
+				loadIdentifierIndex();
+				buildSearchIndex();
+				indexStringTokens();
+				indexStringFields();
+				
+				//	periodically reconcile counters with database, fixing any drift
+				while (doUpdates) {
+					try {
+						Thread.sleep(1000 * ((long) stringCounterReconcileInterval));
+					} catch (InterruptedException ie) {}
+					if (doUpdates) {
+						loadStringCounters();
+						loadIdentifierStatistics();
+					}
+				}
+			}
+		};
+		memoryDataLoader.setDaemon(true);
+		memoryDataLoader.start();
 //		
 //		//	start thread updating string cluster IDs and canonical string IDs
 //		Thread stringClusterIdUpdater = new Thread() {
@@ -680,8 +1072,33 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		this.setSetting("apiCallCountUpdate", ("" + this.apiCallCountUpdate));
 		this.setSetting("apiCallCountCount", ("" + this.apiCallCountCount));
 		this.setSetting("apiCallCountClusterCount", ("" + this.apiCallCountClusterCount));
+		this.setSetting("apiCallCountSimilar", ("" + this.apiCallCountSimilar));
+		this.setSetting("apiCallCountSuggest", ("" + this.apiCallCountSuggest));
+		this.setSetting("apiCallCountAggregate", ("" + this.apiCallCountAggregate));
+		this.setSetting("apiCallCountMultiFind", ("" + this.apiCallCountMultiFind));
+		this.setSetting("apiCallCountResolve", ("" + this.apiCallCountResolve));
+		this.setSetting("apiCallCountCluster", ("" + this.apiCallCountCluster));
+		this.setSetting("apiCallCountCoalesced", ("" + this.apiCallCountCoalesced));
+		this.setSetting("apiCallCountRejected", ("" + this.apiCallCountRejected));
+		this.setSetting("apiCallCountAborted", ("" + this.apiCallCountAborted));
+		this.setSetting("apiCallCountSubscribe", ("" + this.apiCallCountSubscribe));
+		this.setSetting("apiCallCountMatches", ("" + this.apiCallCountMatches));
 		this.setSetting("apiCallCountStats", ("" + this.apiCallCountStats));
 		this.doUpdates = false;
+		if (this.multiFindExecutor != null)
+			this.multiFindExecutor.shutdownNow();
+		if (this.federatedFindExecutor != null)
+			this.federatedFindExecutor.shutdownNow();
+		if (this.searchEngine != null) try {
+			long closeTime = System.currentTimeMillis();
+			this.searchEngine.close();
+			if (this.searchEngineReady)
+				this.searchEngine.setWatermark(closeTime);
+		}
+		catch (IOException ioe) {
+			System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while closing search engine.");
+			ioe.printStackTrace(System.out);
+		}
 		this.io.close();
 	}
 	
@@ -861,6 +1278,57 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				action = action.substring(0, action.indexOf('/'));
 		}
 		
+		//	answer conditional requests for data without reading any strings (not for federated searches, as peer nodes change independently)
+		String eTag = null;
+		if ((FEED_ACTION_NAME.equals(action) || RSS_FEED_ACTION_NAME.equals(action) || GET_ACTION_NAME.equals(action) || CLUSTER_ACTION_NAME.equals(action) || FIND_ACTION_NAME.equals(action) || SIMILAR_ACTION_NAME.equals(action) || SUGGEST_ACTION_NAME.equals(action) || AGGREGATE_ACTION_NAME.equals(action) || COUNT_ACTION_NAME.equals(action)) && !FEDERATED_PARAMETER.equals(request.getParameter(FEDERATED_PARAMETER))) {
+			eTag = this.getETag(action, request);
+			response.setHeader("ETag", eTag);
+			if (isETagMatch(request.getHeader("If-None-Match"), eTag) && !this.truncatedETags.containsKey(eTag)) {
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+		
+		//	coalesce identical concurrent read requests (the ETag covers action, parameters, and write generation)
+		RequestCoalescer.Flight flight = (((this.requestCoalescer == null) || (eTag == null)) ? null : this.requestCoalescer.join(eTag));
+		
+		//	wait for identical request in flight, and replay its response, or execute if it takes too long or is not available for sharing
+		if ((flight != null) && !flight.isLeader()) {
+			RequestCoalescer.BufferedResponse coalescedResponse = this.requestCoalescer.await(flight);
+			if (coalescedResponse != null) {
+				this.apiCallCountTotal++;
+				this.apiCallCountCoalesced++;
+				coalescedResponse.replay(response);
+				return;
+			}
+			this.doGetAction(action, request, response);
+		}
+		
+		//	execute request, buffering response for identical requests arriving in the meantime
+		else if (flight != null) {
+			RequestCoalescer.BufferedResponse coalescedResponse = null;
+			try {
+				RequestCoalescer.BufferingResponse bufferingResponse = this.requestCoalescer.wrap(response);
+				this.doGetAction(action, request, bufferingResponse);
+				coalescedResponse = bufferingResponse.finish();
+				if (request.getAttribute(TRUNCATED_ATTRIBUTE) != null)
+					coalescedResponse = null;
+			}
+			finally {
+				this.requestCoalescer.land(eTag, coalescedResponse);
+			}
+		}
+		
+		//	execute request on its own
+		else this.doGetAction(action, request, response);
+		
+		//	make sure responses cut off by the time budget of a search are neither revalidated nor shared
+		if ((eTag != null) && (request.getAttribute(TRUNCATED_ATTRIBUTE) != null))
+			this.truncatedETags.put(eTag, eTag);
+	}
+	
+	private void doGetAction(String action, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		
 		//	request for string feed
 		if (FEED_ACTION_NAME.equals(action))
 			this.doFeedStrings(request, response);
@@ -873,14 +1341,34 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		else if (GET_ACTION_NAME.equals(action))
 			this.doGetStrings(request, response);
 		
+		//	request for strings sharing a canonical ID
+		else if (CLUSTER_ACTION_NAME.equals(action))
+			this.doGetLinkedStrings(request, response);
+		
 		//	search for strings
 		else if (FIND_ACTION_NAME.equals(action))
-			this.doFindStrings(request, response);
+			this.doAdmittedFindStrings(request, response);
+		
+		//	search for near-duplicates of a string
+		else if (SIMILAR_ACTION_NAME.equals(action))
+			this.doSimilarStrings(request, response);
+		
+		//	get typeahead suggestions
+		else if (SUGGEST_ACTION_NAME.equals(action))
+			this.doSuggestStrings(request, response);
+		
+		//	get facet counts
+		else if (AGGREGATE_ACTION_NAME.equals(action))
+			this.doAggregate(request, response);
 		
 		//	get number of strings
 		else if (COUNT_ACTION_NAME.equals(action))
 			this.doCount(request, response);
 		
+		//	poll for strings matching standing queries
+		else if (MATCHES_ACTION_NAME.equals(action))
+			this.doGetMatches(request, response);
+		
 		//	get API call statistics
 		else if (API_STATS_ACTION_NAME.equals(action))
 			this.doApiStats(request, response);
@@ -889,6 +1377,43 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		else super.doGet(request, response);
 	}
 	
+	private String getETag(String action, HttpServletRequest request) {
+		StringBuffer eTagData = new StringBuffer(action);
+		eTagData.append("|" + request.getServerName() + "|" + request.getContextPath() + request.getServletPath());
+		Object[] paramNames = request.getParameterMap().keySet().toArray();
+		Arrays.sort(paramNames);
+		for (int p = 0; p < paramNames.length; p++) {
+			String[] paramValues = request.getParameterValues((String) paramNames[p]);
+			for (int v = 0; v < paramValues.length; v++)
+				eTagData.append("|" + paramNames[p] + "=" + paramValues[v]);
+		}
+		
+		//	include modification time of stylesheet, if any
+		String format = request.getParameter(FORMAT_PARAMETER);
+		if (format != null) {
+			File formatFile = new File(this.dataFolder, format);
+			if (formatFile.exists())
+				eTagData.append("|" + formatFile.lastModified());
+		}
+		
+		//	any write to the pool changes the write generation, and thus all ETags, instance token covers restarts
+		return ("\"" + this.eTagInstanceToken + "-" + this.writeGeneration.get() + "-" + HashUtils.getMd5(eTagData.toString()) + "\"");
+	}
+	
+	private static boolean isETagMatch(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null)
+			return false;
+		String[] eTags = ifNoneMatch.split("\\s*\\,\\s*");
+		for (int t = 0; t < eTags.length; t++) {
+			String matchETag = eTags[t].trim();
+			if (matchETag.startsWith("W/"))
+				matchETag = matchETag.substring("W/".length());
+			if ("*".equals(matchETag) || eTag.equals(matchETag))
+				return true;
+		}
+		return false;
+	}
+	
 	private void doFeedStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		long updatedSince = -1;
 		String updatedSinceString = request.getParameter(UPDATED_SINCE_ATTRIBUTE);
@@ -912,9 +1437,9 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			response.setCharacterEncoding(ENCODING);
 			response.setContentType("text/xml");
 			
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
-			this.sendStrings(strings, bw, updatedSince, false);
-			bw.flush();
+			OutputStream out = new BufferedOutputStream(response.getOutputStream());
+			this.sendStrings(strings, out, updatedSince, false);
+			out.flush();
 		}
 		finally {
 			strings.close();
@@ -928,16 +1453,33 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			top = Integer.parseInt(topString);
 		} catch (NumberFormatException nfe) {}
 		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("application/rss+xml");
+		
+		//	check cache for document rendered since last insert
+		String rssDocumentKey = (top + "|" + request.getServerName() + "|" + request.getContextPath() + "|" + request.getServletPath());
+		byte[] rssDocument;
+		int rssDocumentGeneration;
+		synchronized (this.rssDocumentCache) {
+			rssDocument = ((byte[]) this.rssDocumentCache.get(rssDocumentKey));
+			rssDocumentGeneration = this.rssDocumentCacheGeneration;
+		}
+		if (rssDocument != null) {
+			this.apiCallCountTotal++;
+			this.apiCallCountRss++;
+			response.getOutputStream().write(rssDocument);
+			response.getOutputStream().flush();
+			return;
+		}
+		
 		String webAppName = request.getContextPath();
 		while (webAppName.startsWith("/"))
 			webAppName = webAppName.substring(1);
 		
 		InternalPooledStringIterator strings = this.getStringRssFeed(top);
+		ByteArrayOutputStream rssBuffer = new ByteArrayOutputStream();
 		try {
-			response.setCharacterEncoding(ENCODING);
-			response.setContentType("application/rss+xml");
-			
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(rssBuffer, ENCODING));
 			bw.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>"); bw.newLine();
 			bw.write("<rss version=\"2.0\">"); bw.newLine();
 			bw.write("<channel>"); bw.newLine();
@@ -967,22 +1509,52 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		finally {
 			strings.close();
 		}
+		
+		//	cache document if served from memory and no string was added in the meantime
+		rssDocument = rssBuffer.toByteArray();
+		if (strings instanceof ListParsedStringIterator) synchronized (this.rssDocumentCache) {
+			if (this.rssDocumentCacheGeneration == rssDocumentGeneration) {
+				if (this.rssDocumentCache.size() >= 64)
+					this.rssDocumentCache.clear();
+				this.rssDocumentCache.put(rssDocumentKey, rssDocument);
+			}
+		}
+		response.getOutputStream().write(rssDocument);
+		response.getOutputStream().flush();
 	}	
 	
 	private void doGetStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String[] ids = request.getParameterValues(ID_PARAMETER);
+		if (((ids == null) || (ids.length == 0)) && (request.getParameter(CANONICAL_STRING_ID_ATTRIBUTE) != null)) {
+			this.doGetLinkedStrings(request, response); // linked strings requested by older clients
+			return;
+		}
 		if ((ids == null) || (ids.length == 0)) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "String ID missing.");
 			return;
 		}
 		
 		InternalPooledStringIterator strings = this.getInternalStrings(ids);
+		this.sendStrings(request, response, strings);
+	}
+	
+	private void doGetLinkedStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String canonicalId = request.getParameter(CANONICAL_STRING_ID_ATTRIBUTE);
+		if ((canonicalId == null) || (canonicalId.trim().length() == 0)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Canonical string ID missing.");
+			return;
+		}
 		
+		InternalPooledStringIterator strings = this.getInternalLinkedStrings(canonicalId.trim());
+		this.sendStrings(request, response, strings);
+	}
+	
+	private void sendStrings(HttpServletRequest request, HttpServletResponse response, InternalPooledStringIterator strings) throws ServletException, IOException {
 		try {
 			String format = request.getParameter(FORMAT_PARAMETER);
 			Transformer formatter = null;
 			if (format != null) try {
-				formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+				formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
 			}
 			catch (IOException ioe) {
 				response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
@@ -990,51 +1562,143 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			}
 			response.setCharacterEncoding(ENCODING);
 			response.setContentType("text/xml");
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+			OutputStream out = new BufferedOutputStream(response.getOutputStream());
 			if (formatter != null)
-				bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
-			this.sendStrings(strings, bw, -1, true);
-			bw.flush();
-			bw.close();
+				out = new BufferedOutputStream(XsltUtils.wrap(out, formatter));
+			this.sendStrings(strings, out, -1, true);
+			out.flush();
+			out.close();
 		}
 		finally {
 			strings.close();
 		}
 	}
 	
+	/*
+	 * Run a search once admitted, i.e., once fewer than the maximum number of
+	 * searches are running. Excess searches queue for a permit in arrival
+	 * order, and are rejected if they do not get one within the queue timeout.
+	 */
+	private void doAdmittedFindStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (!this.acquireFindPermit()) {
+			this.apiCallCountTotal++;
+			response.setHeader("Retry-After", ("" + Math.max(1, (this.findQueueTimeout / 1000))));
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many concurrent searches, please try again later.");
+			return;
+		}
+		try {
+			this.doFindStrings(request, response);
+		}
+		finally {
+			this.releaseFindPermit();
+		}
+	}
+	
+	/*
+	 * Acquire a permit for running a search, queueing for up to the queue
+	 * timeout. Without admission control, this method returns true right away.
+	 * Every search needs to go through here, be it a REST search, a batch
+	 * search, or a direct search by a sub class.
+	 */
+	private boolean acquireFindPermit() {
+		if (this.findPermits == null)
+			return true;
+		boolean admitted = false;
+		try {
+			admitted = this.findPermits.tryAcquire(this.findQueueTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ie) {}
+		if (!admitted) {
+			this.apiCallCountRejected++;
+			System.out.println("StringPoolServlet: search rejected, too many concurrent searches");
+		}
+		return admitted;
+	}
+	
+	private void releaseFindPermit() {
+		if (this.findPermits != null)
+			this.findPermits.release();
+	}
+	
+	/*
+	 * Enforce the row budget on the limit of a search (0 means no limit).
+	 */
+	private int getFindLimit(int limit) {
+		if ((this.findMaxRows > 0) && ((limit < 1) || (limit > this.findMaxRows)))
+			limit = this.findMaxRows;
+		return limit;
+	}
+	
 	private void doFindStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		String[] fullTextQueryPredicates = request.getParameterValues(QUERY_PARAMETER);
 		boolean disjunctive = OR_COMBINE.equals(request.getParameter(COMBINE_PARAMETER));
+		String matchMode = request.getParameter(MATCH_MODE_PARAMETER);
+		if ((matchMode != null) && !TOKEN_MATCH_MODE.equals(matchMode) && !SUBSTRING_MATCH_MODE.equals(matchMode) && !REGEX_MATCH_MODE.equals(matchMode)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid match mode: " + matchMode));
+			return;
+		}
+		String sort = request.getParameter(SORT_PARAMETER);
+		if ((sort != null) && !RELEVANCE_SORT.equals(sort)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid sort order: " + sort));
+			return;
+		}
+		FindCursor cursor = null;
+		String cursorString = request.getParameter(CURSOR_PARAMETER);
+		if (cursorString != null) try {
+			cursor = FindCursor.decode(cursorString);
+		}
+		catch (IllegalArgumentException iae) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, iae.getMessage());
+			return;
+		}
 		int limit = 0;
 		String limitString = request.getParameter(LIMIT_PARAMETER);
 		if (limitString != null) try {
 			limit = Integer.parseInt(limitString);
 		} catch (NumberFormatException nfe) {}
+		limit = this.getFindLimit(limit); // enforce row budget
 		
-		Properties detailPredicates = new Properties();
-		String typeQueryPredicate = request.getParameter(TYPE_PARAMETER);
-		if (typeQueryPredicate != null)
-			detailPredicates.setProperty(TYPE_PARAMETER, typeQueryPredicate);
-		String userQueryPredicate = request.getParameter(USER_PARAMETER);
-		if (userQueryPredicate != null)
-			detailPredicates.setProperty(USER_PARAMETER, userQueryPredicate);
-		
-		if (this.isUsingIndexTable)
-			this.addIndexPredicates(request, detailPredicates);
-		
+		Properties detailPredicates = this.getDetailPredicates(request);
 		if (((fullTextQueryPredicates == null) || (fullTextQueryPredicates.length == 0)) && detailPredicates.isEmpty()) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
 			return;
 		}
 		
-		InternalPooledStringIterator strings = this.findInternalStrings(fullTextQueryPredicates, disjunctive, limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), detailPredicates);
+		boolean federated = FEDERATED_PARAMETER.equals(request.getParameter(FEDERATED_PARAMETER));
+		if (federated && (this.federatedFindExecutor == null)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Federated search not available.");
+			return;
+		}
+		if (federated && (cursor != null)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Cursor not supported in federated search.");
+			return;
+		}
+		
+		//	start the clock before running the query, so the time budget covers the entire search
+		FindBudget budget = new FindBudget(this.findMaxTime);
+		InternalPooledStringIterator strings;
+		StringBuffer plan = new StringBuffer();
+		try {
+			strings = this.findInternalStrings(fullTextQueryPredicates, disjunctive, matchMode, RELEVANCE_SORT.equals(sort), limit, SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER)), detailPredicates, cursor, budget, plan);
+		}
+		catch (IOException ioe) {
+			sendFindError(response, ioe);
+			return;
+		}
+		response.setHeader("X-Find-Plan", plan.toString());
+		
+		//	add results from peer nodes
+		if (federated)
+			strings = this.getFederatedStrings(strings, request, limit, budget);
 		System.out.println("StringPoolServlet: REST search complete");
 		
+		//	enforce time budget while streaming result
+		strings = new BudgetedStringIterator(strings, budget);
+		
 		try {
 			String format = request.getParameter(FORMAT_PARAMETER);
 			Transformer formatter = null;
 			if ((format != null) && !CONCISE_FORMAT.equals(format)) try {
-				formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+				formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
 			}
 			catch (IOException ioe) {
 				response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
@@ -1042,69 +1706,586 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			}
 			response.setCharacterEncoding(ENCODING);
 			response.setContentType("text/xml");
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+			OutputStream out = new BufferedOutputStream(response.getOutputStream());
 			if (formatter != null)
-				bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
-			this.sendStrings(strings, bw, -1, !CONCISE_FORMAT.equals(format));
-			bw.flush();
-			bw.close();
+				out = new BufferedOutputStream(XsltUtils.wrap(out, formatter));
+			
+			//	render bounded pages before sending them, so the root tag can flag them as truncated and omit the cursor if the time budget runs out
+			ByteArrayOutputStream pageBuffer = ((limit > 0) ? new ByteArrayOutputStream() : null);
+			if (pageBuffer != null) {
+				while (strings.hasNextString())
+					this.writeString(strings.getNextString(), pageBuffer, false, !CONCISE_FORMAT.equals(format));
+			}
+			if (strings.isTruncated())
+				response.setHeader("Cache-Control", "no-store"); // streamed results are committed by the time they turn out truncated
+			this.sendStrings(strings, pageBuffer, out, -1, !CONCISE_FORMAT.equals(format), null);
+			if (strings.isTruncated())
+				request.setAttribute(TRUNCATED_ATTRIBUTE, "true");
+			out.flush();
+			out.close();
+		}
+		
+		//	client gone (or response failed otherwise), stop streaming right away
+		catch (IOException ioe) {
+			this.apiCallCountAborted++;
+			System.out.println("StringPoolServlet: search cancelled, " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while sending result");
+			throw ioe;
 		}
 		finally {
 			strings.close();
 		}
 	}
 	
-	private void doCount(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		long since;
-		String sinceString = request.getParameter(SINCE_ATTRIBUTE);
-		if (sinceString == null)
-			since = 0;
-		else try {
-			since = parseTime(sinceString);
-		}
-		catch (NumberFormatException nfe) {
-			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid time limit.");
-			return;
-		}
-		
-		int count = this.countInternal(since);
-		int clusterCount = this.clusterCountInternal(since);
-		this.apiCallCountTotal--; // compensate for incrementing in each counting method
-		
-		String format = request.getParameter(FORMAT_PARAMETER);
-		Transformer formatter = null;
-		if (format != null) try {
-			formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+	/*
+	 * Time budget of a search, shared by all stages of the search, from
+	 * running the query through loading and sending the result. The stages
+	 * check the budget between units of work, and stop once it is used up,
+	 * flagging the result as truncated. A budget with a maximum time of 0 is
+	 * never used up.
+	 */
+	private static class FindBudget {
+		final long deadline;
+		boolean exhausted = false;
+		FindBudget(long maxTime) {
+			this.deadline = ((maxTime > 0) ? (System.currentTimeMillis() + maxTime) : Long.MAX_VALUE);
 		}
-		catch (IOException ioe) {
-			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
-			return;
+		boolean isExhausted() {
+			if (!this.exhausted && (System.currentTimeMillis() > this.deadline))
+				this.exhausted = true;
+			return this.exhausted;
 		}
-		
-		response.setCharacterEncoding(ENCODING);
-		response.setContentType("text/xml");
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
-		if (formatter != null)
-			bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
-		bw.write("<" + this.stringSetNodeType);
-		bw.write(this.xmlNamespaceAttribute);
-		bw.write(" " + COUNT_ATTRIBUTE + "=\"" + count + "\"");
-		bw.write(" " + CLUSTER_COUNT_ATTRIBUTE + "=\"" + clusterCount + "\"");
-		if (since > 0)
-			bw.write(" " + SINCE_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(since)) + "\"");
-		bw.write("/>");
-		bw.flush();
-		bw.close();
 	}
 	
-	private void doApiStats(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		this.apiCallCountTotal++;
-		this.apiCallCountStats++;
-		
-		String format = request.getParameter(FORMAT_PARAMETER);
-		Transformer formatter = null;
-		if (format != null) try {
-			formatter = XsltUtils.getTransformer(new File(this.dataFolder, format), !"force".equals(request.getParameter("formatCache")));
+	/*
+	 * Failure of a search caused by the state of this node rather than by the
+	 * search proper, i.e., either a database error, or an index the search
+	 * requires not being ready yet, which is temporary. Any other exception
+	 * thrown by a search indicates an invalid search.
+	 */
+	private static class FindFailedException extends IOException {
+		final boolean temporary;
+		FindFailedException(String message, boolean temporary) {
+			super(message);
+			this.temporary = temporary;
+		}
+	}
+	
+	/*
+	 * Report an exception thrown by a search to the client: 400 for invalid
+	 * searches, 503 (to retry later) for indexes not ready yet, and 500 for
+	 * database errors.
+	 */
+	private static void sendFindError(HttpServletResponse response, IOException ioe) throws IOException {
+		if (!(ioe instanceof FindFailedException))
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ioe.getMessage());
+		else if (((FindFailedException) ioe).temporary) {
+			response.setHeader("Retry-After", "60");
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, ioe.getMessage());
+		}
+		else response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ioe.getMessage());
+	}
+	
+	/*
+	 * Iterator cutting off a search result once the time budget of the search
+	 * is used up, closing the wrapped iterator, and with it any underlying
+	 * database cursor, right away. The response remains well-formed, but ends
+	 * with the last string sent before the deadline, and is flagged as
+	 * truncated. Results already truncated while loading them are in memory,
+	 * and are sent as loaded.
+	 */
+	private class BudgetedStringIterator extends InternalPooledStringIterator {
+		private InternalPooledStringIterator strings;
+		private FindBudget budget;
+		private boolean cutOff = false;
+		BudgetedStringIterator(InternalPooledStringIterator strings, FindBudget budget) {
+			this.strings = strings;
+			this.budget = budget;
+		}
+		boolean hasNextString() {
+			if (this.cutOff)
+				return false;
+			if (!this.strings.isTruncated() && this.budget.isExhausted()) {
+				this.cutOff = true;
+				this.strings.close();
+				apiCallCountAborted++;
+				System.out.println("StringPoolServlet: search cut off after exceeding time budget of " + findMaxTime + "ms");
+				return false;
+			}
+			return this.strings.hasNextString();
+		}
+		InternalPooledString getNextString() {
+			return (this.hasNextString() ? this.strings.getNextString() : null);
+		}
+		void close() {
+			this.strings.close();
+		}
+		String getNextCursor() {
+			return (this.isTruncated() ? null : this.strings.getNextCursor());
+		}
+		boolean isTruncated() {
+			return (this.cutOff || this.strings.isTruncated());
+		}
+	}
+	
+	/*
+	 * Send a search to all active peer nodes in parallel, and wrap the local
+	 * search result in an iterator that merges in the peer results. The
+	 * iterator buffers the local result and the peer results until all peers
+	 * answered or the peer timeout passed, and then returns one entry per
+	 * string ID, namely the most recent version: local strings first, followed
+	 * by the strings only found on peers in the order the peers answered. If
+	 * the search is ranked by relevance, the merged result is re-ranked as a
+	 * whole instead.
+	 */
+	private InternalPooledStringIterator getFederatedStrings(InternalPooledStringIterator localStrings, HttpServletRequest request, int limit, FindBudget budget) throws IOException {
+		
+		//	build query for peers, without cursor or custom format (we format the merged result ourselves), and with the limit enforced locally
+		StringBuffer peerQuery = new StringBuffer(ACTION_PARAMETER + "=" + FIND_ACTION_NAME);
+		for (Iterator pnit = request.getParameterMap().keySet().iterator(); pnit.hasNext();) {
+			String paramName = ((String) pnit.next());
+			if (ACTION_PARAMETER.equals(paramName) || FEDERATED_PARAMETER.equals(paramName) || CURSOR_PARAMETER.equals(paramName) || FORMAT_PARAMETER.equals(paramName) || "formatCache".equals(paramName) || LIMIT_PARAMETER.equals(paramName))
+				continue;
+			String[] paramValues = request.getParameterValues(paramName);
+			for (int v = 0; v < paramValues.length; v++)
+				peerQuery.append("&" + URLEncoder.encode(paramName, ENCODING) + "=" + URLEncoder.encode(paramValues[v], ENCODING));
+		}
+		if (CONCISE_FORMAT.equals(request.getParameter(FORMAT_PARAMETER)))
+			peerQuery.append("&" + FORMAT_PARAMETER + "=" + CONCISE_FORMAT);
+		if (limit > 0)
+			peerQuery.append("&" + LIMIT_PARAMETER + "=" + limit);
+		
+		//	send search to peers
+		CompletionService peerSearches = new ExecutorCompletionService(this.federatedFindExecutor);
+		ArrayList peerSearchFutures = new ArrayList();
+		OnnNode[] nodes = this.getNodes();
+		for (int n = 0; n < nodes.length; n++) {
+			if (!nodes[n].isActive())
+				continue;
+			final OnnNode node = nodes[n];
+			final String query = peerQuery.toString();
+			peerSearchFutures.add(peerSearches.submit(new Callable() {
+				public Object call() throws Exception {
+					return findPeerStrings(node, query);
+				}
+			}));
+		}
+		//	wait for peers no longer than the time budget of the search allows
+		String[] rankPredicates = (RELEVANCE_SORT.equals(request.getParameter(SORT_PARAMETER)) ? request.getParameterValues(QUERY_PARAMETER) : null);
+		return new FederatedStringIterator(localStrings, peerSearches, peerSearchFutures, Math.min((System.currentTimeMillis() + this.federatedFindTimeout), budget.deadline), limit, rankPredicates);
+	}
+	
+	private InternalPooledString[] findPeerStrings(OnnNode node, String query) throws IOException {
+		try {
+			URL findUrl = new URL(node.accessUrl + "?" + query);
+			HttpURLConnection findCon = ((HttpURLConnection) findUrl.openConnection());
+			findCon.setConnectTimeout(this.federatedFindTimeout);
+			findCon.setReadTimeout(this.federatedFindTimeout);
+			BufferedReader findReader = new BufferedReader(new InputStreamReader(findCon.getInputStream(), ENCODING));
+			try {
+				return this.readStrings(findReader, "xml", System.currentTimeMillis(), null);
+			}
+			finally {
+				findReader.close();
+			}
+		}
+		catch (IOException ioe) {
+			throw new IOException(node.name + ": " + ioe.getMessage());
+		}
+	}
+	
+	private class FederatedStringIterator extends InternalPooledStringIterator {
+		private InternalPooledStringIterator localStrings;
+		private CompletionService peerSearches;
+		private ArrayList pendingPeerSearches;
+		private long deadline;
+		private int limit;
+		private String[] rankPredicates;
+		private ArrayList strings = null;
+		private int stringIndex = 0;
+		private boolean truncated = false;
+		FederatedStringIterator(InternalPooledStringIterator localStrings, CompletionService peerSearches, ArrayList pendingPeerSearches, long deadline, int limit, String[] rankPredicates) {
+			this.localStrings = localStrings;
+			this.peerSearches = peerSearches;
+			this.pendingPeerSearches = pendingPeerSearches;
+			this.deadline = deadline;
+			this.limit = limit;
+			this.rankPredicates = rankPredicates;
+		}
+		boolean hasNextString() {
+			if (this.strings == null)
+				this.strings = this.mergeStrings();
+			return (this.stringIndex < this.strings.size());
+		}
+		private ArrayList mergeStrings() {
+			LinkedHashMap stringsById = new LinkedHashMap();
+			
+			//	collect local strings (IDs are unique locally)
+			while ((this.localStrings != null) && this.localStrings.hasNextString()) {
+				if (System.currentTimeMillis() > this.deadline) {
+					this.truncated = true;
+					break;
+				}
+				InternalPooledString string = this.localStrings.getNextString();
+				stringsById.put(string.id, string);
+			}
+			if (this.localStrings != null) {
+				this.truncated = (this.truncated || this.localStrings.isTruncated());
+				this.localStrings.close();
+				this.localStrings = null;
+			}
+			
+			//	add peer strings as peers answer, keeping the most recent version of each string in the position of the first one
+			while (this.pendingPeerSearches.size() != 0) {
+				InternalPooledString[] peerStrings = this.getNextPeerStrings();
+				for (int s = 0; (peerStrings != null) && (s < peerStrings.length); s++) {
+					InternalPooledString string = ((InternalPooledString) stringsById.get(peerStrings[s].id));
+					if ((string == null) || (string.updateTime < peerStrings[s].updateTime))
+						stringsById.put(peerStrings[s].id, peerStrings[s]);
+				}
+			}
+			
+			//	rank merged result as a whole if requested, cut to limit otherwise
+			ArrayList strings = new ArrayList(stringsById.values());
+			if (this.rankPredicates != null)
+				return rankStrings(strings, this.rankPredicates, this.limit, null).getObjects();
+			while ((this.limit > 0) && (strings.size() > this.limit))
+				strings.remove(strings.size() - 1);
+			return strings;
+		}
+		private InternalPooledString[] getNextPeerStrings() {
+			long wait = (this.deadline - System.currentTimeMillis());
+			Future peerSearch = null;
+			if (wait > 0) try {
+				peerSearch = this.peerSearches.poll(wait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {}
+			if (peerSearch == null) {
+				System.out.println("StringPoolServlet: federated search timed out with " + this.pendingPeerSearches.size() + " peers pending");
+				this.close();
+				return null;
+			}
+			this.pendingPeerSearches.remove(peerSearch);
+			try {
+				return ((InternalPooledString[]) peerSearch.get());
+			}
+			catch (ExecutionException ee) {
+				System.out.println("StringPoolServlet: federated search failed on " + ee.getCause().getMessage());
+				return null;
+			}
+			catch (InterruptedException ie) {
+				return null;
+			}
+		}
+		InternalPooledString getNextString() {
+			return (this.hasNextString() ? ((InternalPooledString) this.strings.get(this.stringIndex++)) : null);
+		}
+		void close() {
+			if (this.localStrings != null) {
+				this.localStrings.close();
+				this.localStrings = null;
+			}
+			for (int s = 0; s < this.pendingPeerSearches.size(); s++)
+				((Future) this.pendingPeerSearches.get(s)).cancel(true);
+			this.pendingPeerSearches.clear();
+		}
+		boolean isTruncated() {
+			return this.truncated;
+		}
+	}
+	
+	private Properties getDetailPredicates(HttpServletRequest request) {
+		Properties detailPredicates = new Properties();
+		String typeQueryPredicate = request.getParameter(TYPE_PARAMETER);
+		if (typeQueryPredicate != null)
+			detailPredicates.setProperty(TYPE_PARAMETER, typeQueryPredicate);
+		String userQueryPredicate = request.getParameter(USER_PARAMETER);
+		if (userQueryPredicate != null)
+			detailPredicates.setProperty(USER_PARAMETER, userQueryPredicate);
+		
+		for (Iterator pnit = request.getParameterMap().keySet().iterator(); pnit.hasNext();) {
+			String paramName = ((String) pnit.next());
+			if (paramName.startsWith("F-"))
+				detailPredicates.setProperty(paramName, request.getParameter(paramName));
+		}
+		
+		if (this.isUsingIndexTable)
+			this.addIndexPredicates(request, detailPredicates);
+		return detailPredicates;
+	}
+	
+	private void doCount(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		long since;
+		String sinceString = request.getParameter(SINCE_ATTRIBUTE);
+		if (sinceString == null)
+			since = 0;
+		else try {
+			since = parseTime(sinceString);
+		}
+		catch (NumberFormatException nfe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid time limit.");
+			return;
+		}
+		
+		int count = this.countInternal(since);
+		int clusterCount = this.clusterCountInternal(since);
+		this.apiCallCountTotal--; // compensate for incrementing in each counting method
+		
+		String format = request.getParameter(FORMAT_PARAMETER);
+		Transformer formatter = null;
+		if (format != null) try {
+			formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
+		}
+		catch (IOException ioe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
+			return;
+		}
+		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		if (formatter != null)
+			bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
+		bw.write("<" + this.stringSetNodeType);
+		bw.write(this.xmlNamespaceAttribute);
+		bw.write(" " + COUNT_ATTRIBUTE + "=\"" + count + "\"");
+		bw.write(" " + CLUSTER_COUNT_ATTRIBUTE + "=\"" + clusterCount + "\"");
+		if (since > 0)
+			bw.write(" " + SINCE_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(since)) + "\"");
+		bw.write("/>");
+		bw.flush();
+		bw.close();
+	}
+	
+	/*
+	 * The returned transformer pools compiled stylesheet and transformer
+	 * instances, so it is safe for concurrent use. We recompile stylesheets
+	 * whenever their file was modified, as XsltUtils keeps them by path only.
+	 */
+	private Transformer getFormatter(String format, boolean forceReload) throws IOException {
+		File formatFile = new File(this.dataFolder, format);
+		String formatPath = formatFile.getAbsolutePath();
+		long lastModified = formatFile.lastModified();
+		if (!forceReload) synchronized (this.formattersByPath) {
+			CachedFormatter cachedFormatter = ((CachedFormatter) this.formattersByPath.get(formatPath));
+			if ((cachedFormatter != null) && (cachedFormatter.lastModified == lastModified))
+				return cachedFormatter.formatter;
+		}
+		Transformer formatter = XsltUtils.getTransformer(formatFile, false);
+		synchronized (this.formattersByPath) {
+			this.formattersByPath.put(formatPath, new CachedFormatter(lastModified, formatter));
+		}
+		return formatter;
+	}
+	
+	private void doSimilarStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String id = request.getParameter(ID_PARAMETER);
+		String text = request.getParameter(QUERY_PARAMETER);
+		if ((id == null) && ((text == null) || (text.trim().length() == 0))) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "String ID or query missing.");
+			return;
+		}
+		double threshold = 0.5;
+		String thresholdString = request.getParameter(THRESHOLD_PARAMETER);
+		if (thresholdString != null) try {
+			threshold = Double.parseDouble(thresholdString);
+		}
+		catch (NumberFormatException nfe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid threshold: " + thresholdString));
+			return;
+		}
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		
+		InternalPooledStringIterator strings;
+		try {
+			strings = this.findInternalSimilarStrings(id, text, threshold, limit);
+		}
+		catch (IOException ioe) {
+			sendFindError(response, ioe);
+			return;
+		}
+		
+		try {
+			String format = request.getParameter(FORMAT_PARAMETER);
+			Transformer formatter = null;
+			if ((format != null) && !CONCISE_FORMAT.equals(format)) try {
+				formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
+			}
+			catch (IOException ioe) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
+				return;
+			}
+			response.setCharacterEncoding(ENCODING);
+			response.setContentType("text/xml");
+			OutputStream out = new BufferedOutputStream(response.getOutputStream());
+			if (formatter != null)
+				out = new BufferedOutputStream(XsltUtils.wrap(out, formatter));
+			this.sendStrings(strings, out, -1, !CONCISE_FORMAT.equals(format));
+			out.flush();
+			out.close();
+		}
+		finally {
+			strings.close();
+		}
+	}
+	
+	private void doSuggestStrings(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String prefix = request.getParameter(QUERY_PARAMETER);
+		if ((prefix == null) || (prefix.trim().length() == 0)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Query missing.");
+			return;
+		}
+		int limit = 10;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		if ((limit < 1) || (limit > this.maxSuggestions))
+			limit = this.maxSuggestions;
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountSuggest++;
+		SuggestIndex suggestIndex = this.suggestIndex;
+		if (suggestIndex == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Suggestions not available.");
+			return;
+		}
+		String[] suggestions = suggestIndex.suggest(prefix, limit);
+		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		bw.write("<" + this.stringSetNodeType);
+		bw.write(this.xmlNamespaceAttribute);
+		bw.write(">");
+		bw.newLine();
+		for (int s = 0; s < suggestions.length; s += 2) {
+			bw.write("<" + this.stringNodeType);
+			bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + suggestions[s] + "\"");
+			bw.write(" " + SNIPPET_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(suggestions[s+1], true) + "\"");
+			bw.write("/>");
+			bw.newLine();
+		}
+		bw.write("</" + this.stringSetNodeType + ">");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+	}
+	
+	private void doAggregate(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String[] facetNames = request.getParameterValues(FACET_PARAMETER);
+		if (facetNames == null)
+			facetNames = FACET_NAMES;
+		int[] facets = new int[facetNames.length];
+		for (int f = 0; f < facetNames.length; f++) {
+			facets[f] = Arrays.asList(FACET_NAMES).indexOf(facetNames[f]);
+			if (facets[f] == -1) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid facet: " + facetNames[f]));
+				return;
+			}
+		}
+		String[] fullTextQueryPredicates = request.getParameterValues(QUERY_PARAMETER);
+		boolean disjunctive = OR_COMBINE.equals(request.getParameter(COMBINE_PARAMETER));
+		String matchMode = request.getParameter(MATCH_MODE_PARAMETER);
+		if ((matchMode != null) && !TOKEN_MATCH_MODE.equals(matchMode) && !SUBSTRING_MATCH_MODE.equals(matchMode) && !REGEX_MATCH_MODE.equals(matchMode)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid match mode: " + matchMode));
+			return;
+		}
+		int limit = 0;
+		String limitString = request.getParameter(LIMIT_PARAMETER);
+		if (limitString != null) try {
+			limit = Integer.parseInt(limitString);
+		} catch (NumberFormatException nfe) {}
+		Properties detailPredicates = this.getDetailPredicates(request);
+		boolean selfCanonicalOnly = SELF_CANONICAL_ONLY_PARAMETER.equals(request.getParameter(SELF_CANONICAL_ONLY_PARAMETER));
+		
+		FacetIndex facetIndex = this.facetIndex;
+		if (facetIndex == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Aggregation not available.");
+			return;
+		}
+		
+		//	get IDs of strings matching filter (if any)
+		String[] ids = null;
+		if (((fullTextQueryPredicates != null) && (fullTextQueryPredicates.length != 0)) || !detailPredicates.isEmpty() || selfCanonicalOnly) {
+			InternalPooledStringIterator strings;
+			try {
+				strings = this.findInternalStrings(fullTextQueryPredicates, disjunctive, matchMode, false, 0, selfCanonicalOnly, detailPredicates, null, new FindBudget(0), null);
+			}
+			catch (IOException ioe) {
+				sendFindError(response, ioe);
+				return;
+			}
+			finally {
+				this.apiCallCountTotal--; // compensate for incrementing in find method
+				this.apiCallCountFind--;
+			}
+			ArrayList idList = new ArrayList();
+			try {
+				while (strings.hasNextString())
+					idList.add(strings.getNextString().id);
+			}
+			finally {
+				strings.close();
+			}
+			ids = ((String[]) idList.toArray(new String[idList.size()]));
+		}
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountAggregate++;
+		FacetIndex.FacetCount[][] facetCounts = new FacetIndex.FacetCount[facets.length][];
+		for (int f = 0; f < facets.length; f++)
+			facetCounts[f] = facetIndex.getCounts(facets[f], ids, limit);
+		
+		String format = request.getParameter(FORMAT_PARAMETER);
+		Transformer formatter = null;
+		if (format != null) try {
+			formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
+		}
+		catch (IOException ioe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
+			return;
+		}
+		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		if (formatter != null)
+			bw = new BufferedWriter(XsltUtils.wrap(bw, formatter));
+		bw.write("<" + this.stringSetNodeType);
+		bw.write(this.xmlNamespaceAttribute);
+		bw.write(" " + COUNT_ATTRIBUTE + "=\"" + ((ids == null) ? facetIndex.size() : ids.length) + "\"");
+		bw.write(">");
+		bw.newLine();
+		for (int f = 0; f < facets.length; f++) {
+			bw.write("<" + FACET_NODE_TYPE + " " + FACET_NAME_ATTRIBUTE + "=\"" + FACET_NAMES[facets[f]] + "\">");
+			bw.newLine();
+			for (int v = 0; v < facetCounts[f].length; v++) {
+				bw.write("<" + FACET_VALUE_NODE_TYPE);
+				bw.write(" " + FACET_VALUE_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(facetCounts[f][v].value, true) + "\"");
+				bw.write(" " + COUNT_ATTRIBUTE + "=\"" + facetCounts[f][v].count + "\"");
+				bw.write("/>");
+				bw.newLine();
+			}
+			bw.write("</" + FACET_NODE_TYPE + ">");
+			bw.newLine();
+		}
+		bw.write("</" + this.stringSetNodeType + ">");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+	}
+	
+	private void doApiStats(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		this.apiCallCountTotal++;
+		this.apiCallCountStats++;
+		
+		String format = request.getParameter(FORMAT_PARAMETER);
+		Transformer formatter = null;
+		if (format != null) try {
+			formatter = this.getFormatter(format, "force".equals(request.getParameter("formatCache")));
 		}
 		catch (IOException ioe) {
 			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid format: " + format));
@@ -1125,6 +2306,17 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		bw.write(" update=\"" + this.apiCallCountUpdate + "\"");
 		bw.write(" count=\"" + this.apiCallCountCount + "\"");
 		bw.write(" clusters=\"" + this.apiCallCountClusterCount + "\"");
+		bw.write(" similar=\"" + this.apiCallCountSimilar + "\"");
+		bw.write(" suggest=\"" + this.apiCallCountSuggest + "\"");
+		bw.write(" aggregate=\"" + this.apiCallCountAggregate + "\"");
+		bw.write(" multiFind=\"" + this.apiCallCountMultiFind + "\"");
+		bw.write(" resolve=\"" + this.apiCallCountResolve + "\"");
+		bw.write(" cluster=\"" + this.apiCallCountCluster + "\"");
+		bw.write(" coalesced=\"" + this.apiCallCountCoalesced + "\"");
+		bw.write(" rejected=\"" + this.apiCallCountRejected + "\"");
+		bw.write(" aborted=\"" + this.apiCallCountAborted + "\"");
+		bw.write(" subscribe=\"" + this.apiCallCountSubscribe + "\"");
+		bw.write(" matches=\"" + this.apiCallCountMatches + "\"");
 		bw.write(" stats=\"" + this.apiCallCountStats + "\"");
 		bw.write("/>");
 		bw.flush();
@@ -1152,13 +2344,38 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		return "";
 	}
 	
-	private void sendStrings(InternalPooledStringIterator strings, BufferedWriter bw, long updatedSince, boolean full) throws IOException {
-		if (!strings.hasNextString()) {
+	private void sendStrings(InternalPooledStringIterator strings, OutputStream out, long updatedSince, boolean full) throws IOException {
+		this.sendStrings(strings, out, updatedSince, full, null);
+	}
+	
+	private void sendStrings(InternalPooledStringIterator strings, OutputStream out, long updatedSince, boolean full, String queryId) throws IOException {
+		this.sendStrings(strings, null, out, updatedSince, full, queryId);
+	}
+	
+	/*
+	 * Send a set of strings. If a page buffer is given, it holds the strings
+	 * rendered up front, so the root tag can tell whether or not the result
+	 * is truncated. Otherwise, the strings stream from the iterator, and if
+	 * the result turns out truncated only while streaming, a closing element
+	 * flags it as truncated.
+	 */
+	private void sendStrings(InternalPooledStringIterator strings, ByteArrayOutputStream pageBuffer, OutputStream out, long updatedSince, boolean full, String queryId) throws IOException {
+		
+		//	buffer wrapping tags, so flushing them does not flush the response
+		ByteArrayOutputStream tagBuffer = new ByteArrayOutputStream();
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(tagBuffer, ENCODING));
+		if ((pageBuffer == null) ? !strings.hasNextString() : (pageBuffer.size() == 0)) {
 			bw.write("<" + this.stringSetNodeType);
 			bw.write(this.xmlNamespaceAttribute);
+			if (queryId != null)
+				bw.write(" " + QUERY_ID_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(queryId, true) + "\"");
 			if (updatedSince != -1)
 				bw.write(" " + UPDATED_SINCE_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(updatedSince)) + "\"");
+			if (strings.isTruncated())
+				bw.write(" " + TRUNCATED_ATTRIBUTE + "=\"true\"");
 			bw.write("/>");
+			bw.flush();
+			tagBuffer.writeTo(out);
 			return;
 		}
 		
@@ -1170,14 +2387,52 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		bw.write(this.xmlNamespaceAttribute);
 		if (xmlNamespaceUriBindings.length() != 0)
 			bw.write(" " + xmlNamespaceUriBindings);
+		if (queryId != null)
+			bw.write(" " + QUERY_ID_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(queryId, true) + "\"");
 		if (updatedSince != -1)
 			bw.write(" " + UPDATED_SINCE_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(updatedSince)) + "\"");
+		boolean truncated = strings.isTruncated();
+		if ((strings.getNextCursor() != null) && !truncated)
+			bw.write(" " + NEXT_CURSOR_ATTRIBUTE + "=\"" + strings.getNextCursor() + "\"");
+		if (truncated)
+			bw.write(" " + TRUNCATED_ATTRIBUTE + "=\"true\"");
 		bw.write(">");
 		bw.newLine();
-		while (strings.hasNextString())
-			this.writeString(strings.getNextString(), bw, (updatedSince != -1), full);
+		bw.flush();
+		tagBuffer.writeTo(out);
+		tagBuffer.reset();
+		if (pageBuffer != null)
+			pageBuffer.writeTo(out);
+		else while (strings.hasNextString())
+			this.writeString(strings.getNextString(), out, (updatedSince != -1), full);
+		if (!truncated && strings.isTruncated()) {
+			bw.write("<" + TRUNCATED_NODE_TYPE + "/>");
+			bw.newLine();
+		}
 		bw.write("</" + this.stringSetNodeType + ">");
 		bw.newLine();
+		bw.flush();
+		tagBuffer.writeTo(out);
+	}
+	
+	private void writeString(InternalPooledString string, OutputStream out, boolean isFeed, boolean full) throws IOException {
+		
+		//	use cached fragment if rendered from current version of string (feed entries are too short lived to be worth caching)
+		byte[] stringBytes = (isFeed ? null : this.stringFragmentCache.get(string.id, full, string.parseChecksum, string.updateTime));
+		
+		//	render fragment otherwise
+		if (stringBytes == null) {
+			ByteArrayOutputStream stringBuffer = new ByteArrayOutputStream();
+			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(stringBuffer, ENCODING));
+			this.writeString(string, bw, isFeed, full);
+			bw.flush();
+			stringBytes = stringBuffer.toByteArray();
+			
+			//	cache fragment if rendered from storage
+			if (!isFeed && (string.stringParsed == null))
+				this.stringFragmentCache.put(string.id, full, string.parseChecksum, string.updateTime, stringBytes);
+		}
+		out.write(stringBytes);
 	}
 	
 	private void writeString(InternalPooledString string, BufferedWriter bw, boolean isFeed, boolean full) throws IOException {
@@ -1284,10 +2539,588 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			}
 		}
 		
+		//	batch of searches
+		else if (MULTI_FIND_ACTION_NAME.equals(action))
+			this.doMultiFind(request, response);
+		
+		//	batch of identifiers to resolve
+		else if (RESOLVE_ACTION_NAME.equals(action))
+			this.doResolve(request, response);
+		
+		//	registration of standing query
+		else if (SUBSCRIBE_ACTION_NAME.equals(action))
+			this.doSubscribe(request, response);
+		
+		//	removal of standing query
+		else if (UNSUBSCRIBE_ACTION_NAME.equals(action))
+			this.doUnsubscribe(request, response);
+		
 		//	other action, to be handled by super class
 		else super.doPost(request, response);
 	}
 	
+	private void doMultiFind(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		
+		//	read queries
+		Reader r = new BufferedReader(new InputStreamReader(request.getInputStream(), ENCODING));
+		final ArrayList queryList = new ArrayList();
+		xmlParser.stream(r, new TokenReceiver() {
+			private TreeNodeAttributeSet queryAttributes = null;
+			private StringBuffer queryText = null;
+			public void close() throws IOException {}
+			public void storeToken(String token, int treeDepth) throws IOException {
+				if (xmlGrammar.isTag(token) && QUERY_NODE_TYPE.equals(xmlGrammar.getType(token))) {
+					if (xmlGrammar.isEndTag(token)) {
+						if (this.queryAttributes != null)
+							queryList.add(getMultiFindQuery(this.queryAttributes, this.queryText.toString()));
+						this.queryAttributes = null;
+					}
+					else {
+						this.queryAttributes = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar);
+						this.queryText = new StringBuffer();
+						if (xmlGrammar.isSingularTag(token)) {
+							queryList.add(getMultiFindQuery(this.queryAttributes, ""));
+							this.queryAttributes = null;
+						}
+					}
+				}
+				else if ((this.queryAttributes != null) && !xmlGrammar.isTag(token))
+					this.queryText.append(xmlGrammar.unescape(token));
+			}
+		});
+		if (queryList.isEmpty()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
+			return;
+		}
+		if (queryList.size() > this.maxMultiFindQueries) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Too many queries, at most " + this.maxMultiFindQueries + " allowed."));
+			return;
+		}
+		MultiFindQuery[] queries = ((MultiFindQuery[]) queryList.toArray(new MultiFindQuery[queryList.size()]));
+		boolean full = !CONCISE_FORMAT.equals(request.getParameter(FORMAT_PARAMETER));
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountMultiFind++;
+		HashMap futureQueries = new HashMap();
+		CompletionService searches = this.findInternalStringsBatch(queries, futureQueries);
+		
+		//	send results as searches complete
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		OutputStream out = new BufferedOutputStream(response.getOutputStream());
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, ENCODING));
+		bw.write("<" + STRING_SETS_NODE_TYPE + this.xmlNamespaceAttribute + ">");
+		bw.newLine();
+		bw.flush();
+		for (int f = 0; f < futureQueries.size(); f++) {
+			Future search;
+			try {
+				search = searches.take();
+			}
+			catch (InterruptedException ie) {
+				break;
+			}
+			ArrayList queryIndexes = ((ArrayList) futureQueries.get(search));
+			ListParsedStringIterator strings = null;
+			String error = null;
+			try {
+				strings = ((ListParsedStringIterator) search.get());
+			}
+			catch (InterruptedException ie) {
+				error = "Search interrupted";
+			}
+			catch (ExecutionException ee) {
+				error = ((ee.getCause() instanceof IOException) ? ee.getCause().getMessage() : ee.getCause().toString());
+			}
+			for (int q = 0; q < queryIndexes.size(); q++) {
+				MultiFindQuery query = queries[((Integer) queryIndexes.get(q)).intValue()];
+				if (strings != null)
+					this.sendStrings(strings.copy(), out, -1, full, query.id);
+				else {
+					bw.write("<" + this.stringSetNodeType + this.xmlNamespaceAttribute);
+					bw.write(" " + QUERY_ID_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(query.id, true) + "\"");
+					bw.write(" " + ERROR_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(error, true) + "\"");
+					bw.write("/>");
+					bw.newLine();
+					bw.flush();
+				}
+			}
+			out.flush();
+		}
+		bw.write("</" + STRING_SETS_NODE_TYPE + ">");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+	}
+	
+	private void doResolve(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		
+		//	read identifiers
+		Reader r = new BufferedReader(new InputStreamReader(request.getInputStream(), ENCODING));
+		final ArrayList typeList = new ArrayList();
+		final ArrayList valueList = new ArrayList();
+		xmlParser.stream(r, new TokenReceiver() {
+			public void close() throws IOException {}
+			public void storeToken(String token, int treeDepth) throws IOException {
+				if (xmlGrammar.isTag(token) && !xmlGrammar.isEndTag(token) && IDENTIFIER_NODE_TYPE.equals(xmlGrammar.getType(token))) {
+					TreeNodeAttributeSet identifierAttributes = TreeNodeAttributeSet.getTagAttributes(token, xmlGrammar);
+					typeList.add(identifierAttributes.getAttribute(IDENTIFIER_TYPE_ATTRIBUTE, ""));
+					valueList.add(identifierAttributes.getAttribute(IDENTIFIER_VALUE_ATTRIBUTE, ""));
+				}
+			}
+		});
+		if (typeList.isEmpty()) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
+			return;
+		}
+		if (typeList.size() > this.maxResolveIdentifiers) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Too many identifiers, at most " + this.maxResolveIdentifiers + " allowed."));
+			return;
+		}
+		String[] types = ((String[]) typeList.toArray(new String[typeList.size()]));
+		String[] values = ((String[]) valueList.toArray(new String[valueList.size()]));
+		
+		String[][] stringIds = this.resolveIdentifiers(types, values);
+		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		bw.write("<" + IDENTIFIER_SET_NODE_TYPE + this.xmlNamespaceAttribute + ">");
+		bw.newLine();
+		for (int i = 0; i < types.length; i++) {
+			bw.write("<" + IDENTIFIER_NODE_TYPE);
+			bw.write(" " + IDENTIFIER_TYPE_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(types[i], true) + "\"");
+			bw.write(" " + IDENTIFIER_VALUE_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(values[i], true) + "\"");
+			if (stringIds[i].length == 0) {
+				bw.write("/>");
+				bw.newLine();
+				continue;
+			}
+			bw.write(">");
+			bw.newLine();
+			for (int s = 0; s < stringIds[i].length; s++) {
+				bw.write("<" + this.stringNodeType + " " + STRING_ID_ATTRIBUTE + "=\"" + stringIds[i][s] + "\"/>");
+				bw.newLine();
+			}
+			bw.write("</" + IDENTIFIER_NODE_TYPE + ">");
+			bw.newLine();
+		}
+		bw.write("</" + IDENTIFIER_SET_NODE_TYPE + ">");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+	}
+	
+	private void doSubscribe(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (this.percolator == null) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, "Standing queries are not enabled on this node.");
+			return;
+		}
+		String subscriber = request.getParameter(SUBSCRIBER_PARAMETER);
+		if ((subscriber == null) || (subscriber.trim().length() == 0)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing subscriber.");
+			return;
+		}
+		subscriber = subscriber.trim().replaceAll("\\s+", " ");
+		
+		//	issue token with first query of subscriber, and require it for any further ones
+		Percolator.StandingQuery query;
+		synchronized (this.percolator) {
+			if (this.percolator.size() >= this.maxStandingQueries) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Too many standing queries, at most " + this.maxStandingQueries + " allowed."));
+				return;
+			}
+			String subscriberToken = this.percolator.getSubscriberToken(subscriber);
+			if (subscriberToken == null)
+				subscriberToken = RandomByteSource.getGUID();
+			else if (!subscriberToken.equals(request.getParameter(SUBSCRIBER_TOKEN_PARAMETER))) {
+				response.sendError(HttpServletResponse.SC_FORBIDDEN, ("Invalid token for subscriber: " + subscriber));
+				return;
+			}
+			query = this.getStandingQuery(RandomByteSource.getGUID(), subscriber, subscriberToken, request.getParameterValues(QUERY_PARAMETER), OR_COMBINE.equals(request.getParameter(COMBINE_PARAMETER)), request.getParameter(TYPE_PARAMETER), request.getParameter(USER_PARAMETER));
+			if (query == null) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Empty query.");
+				return;
+			}
+			this.percolator.register(query);
+		}
+		this.storeStandingQueries();
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountSubscribe++;
+		this.sendStandingQuery(query, true, response);
+	}
+	
+	private void doUnsubscribe(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (this.percolator == null) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, "Standing queries are not enabled on this node.");
+			return;
+		}
+		String queryId = request.getParameter(ID_PARAMETER);
+		if (queryId == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing query ID.");
+			return;
+		}
+		Percolator.StandingQuery query = this.percolator.unregister(queryId, request.getParameter(SUBSCRIBER_TOKEN_PARAMETER));
+		if (query == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, ("Invalid query ID or subscriber token: " + queryId));
+			return;
+		}
+		this.storeStandingQueries();
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountSubscribe++;
+		this.sendStandingQuery(query, false, response);
+	}
+	
+	private void sendStandingQuery(Percolator.StandingQuery query, boolean includeToken, HttpServletResponse response) throws IOException {
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		bw.write("<" + STANDING_QUERY_NODE_TYPE + this.xmlNamespaceAttribute);
+		bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(query.id, true) + "\"");
+		bw.write(" " + SUBSCRIBER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(query.subscriber, true) + "\"");
+		if (includeToken)
+			bw.write(" " + SUBSCRIBER_TOKEN_ATTRIBUTE + "=\"" + query.subscriberToken + "\"");
+		bw.write("/>");
+		bw.newLine();
+		bw.flush();
+		bw.close();
+	}
+	
+	private void doGetMatches(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if (this.percolator == null) {
+			response.sendError(HttpServletResponse.SC_NOT_IMPLEMENTED, "Standing queries are not enabled on this node.");
+			return;
+		}
+		String subscriber = request.getParameter(SUBSCRIBER_PARAMETER);
+		if (subscriber == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing subscriber.");
+			return;
+		}
+		subscriber = subscriber.trim().replaceAll("\\s+", " ");
+		String subscriberToken = request.getParameter(SUBSCRIBER_TOKEN_PARAMETER);
+		if (subscriberToken == null) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing subscriber token.");
+			return;
+		}
+		int limit = 1000;
+		int wait = 0;
+		try {
+			if (request.getParameter(LIMIT_PARAMETER) != null)
+				limit = Integer.parseInt(request.getParameter(LIMIT_PARAMETER));
+			if (request.getParameter(WAIT_PARAMETER) != null)
+				wait = Math.min(Integer.parseInt(request.getParameter(WAIT_PARAMETER)), this.maxMatchWait);
+		}
+		catch (NumberFormatException nfe) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, ("Invalid number: " + nfe.getMessage()));
+			return;
+		}
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountMatches++;
+		Percolator.MatchBatch batch = this.percolator.getMatches(subscriber, subscriberToken, Math.max(limit, 1), Math.max(wait, 0));
+		if (batch == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, ("No standing queries for subscriber, or invalid token: " + subscriber));
+			return;
+		}
+		
+		response.setCharacterEncoding(ENCODING);
+		response.setContentType("text/xml");
+		response.setHeader("Cache-Control", "no-cache");
+		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), ENCODING));
+		bw.write("<" + MATCH_SET_NODE_TYPE + this.xmlNamespaceAttribute);
+		bw.write(" " + SUBSCRIBER_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(subscriber, true) + "\"");
+		if (batch.overflow)
+			bw.write(" " + OVERFLOW_ATTRIBUTE + "=\"true\"");
+		if (batch.matches.length == 0) {
+			bw.write("/>");
+			bw.newLine();
+		}
+		else {
+			bw.write(">");
+			bw.newLine();
+			for (int m = 0; m < batch.matches.length; m++) {
+				bw.write("<" + MATCH_NODE_TYPE);
+				bw.write(" " + QUERY_ID_ATTRIBUTE + "=\"" + AnnotationUtils.escapeForXml(batch.matches[m].queryId, true) + "\"");
+				bw.write(" " + STRING_ID_ATTRIBUTE + "=\"" + batch.matches[m].stringId + "\"");
+				bw.write(" " + MATCH_TIME_ATTRIBUTE + "=\"" + batch.matches[m].time + "\"");
+				bw.write("/>");
+				bw.newLine();
+			}
+			bw.write("</" + MATCH_SET_NODE_TYPE + ">");
+			bw.newLine();
+		}
+		bw.flush();
+		bw.close();
+	}
+	
+	/*
+	 * Compile a standing query, folding its full text predicates the same way
+	 * as the search strings, so the percolator matches strings exactly like
+	 * the find action would. The query string records the query parameters
+	 * in URL encoded form, for persisting the query. If the query has no
+	 * predicates at all, this method returns null.
+	 */
+	private Percolator.StandingQuery getStandingQuery(String id, String subscriber, String subscriberToken, String[] fullTextQueryPredicates, boolean disjunctive, String type, String user) throws IOException {
+		StringBuffer queryString = new StringBuffer();
+		ArrayList predicates = new ArrayList();
+		ArrayList predicateTokens = new ArrayList();
+		if (fullTextQueryPredicates != null)
+			for (int q = 0; q < fullTextQueryPredicates.length; q++) {
+				if ((fullTextQueryPredicates[q].length() == 0) || fullTextQueryPredicates[q].matches("[\\s\\%]++"))
+					continue;
+				String predicate = this.getSearchString(fullTextQueryPredicates[q]);
+				predicates.add(predicate);
+				predicateTokens.add((String[]) getIndexTokens(predicate).toArray(new String[0]));
+				queryString.append("&" + QUERY_PARAMETER + "=" + URLEncoder.encode(fullTextQueryPredicates[q], ENCODING));
+			}
+		if (disjunctive)
+			queryString.append("&" + COMBINE_PARAMETER + "=" + OR_COMBINE);
+		if ((type != null) && (type.trim().length() != 0)) {
+			type = type.trim().toLowerCase();
+			queryString.append("&" + TYPE_PARAMETER + "=" + URLEncoder.encode(type, ENCODING));
+		}
+		else type = null;
+		if ((user != null) && (user.trim().length() != 0)) {
+			user = user.trim().toLowerCase();
+			queryString.append("&" + USER_PARAMETER + "=" + URLEncoder.encode(user, ENCODING));
+		}
+		else user = null;
+		if (predicates.isEmpty() && (type == null) && (user == null))
+			return null;
+		return new Percolator.StandingQuery(id, subscriber, subscriberToken, queryString.substring(1), ((String[]) predicates.toArray(new String[predicates.size()])), ((String[][]) predicateTokens.toArray(new String[predicateTokens.size()][])), disjunctive, type, user);
+	}
+	
+	/*
+	 * Load the standing queries persisted in the data folder, one per line,
+	 * with ID, subscriber, subscriber token, and URL encoded query string
+	 * separated by tabs.
+	 */
+	private void loadStandingQueries() {
+		if (!this.standingQueryFile.exists())
+			return;
+		try {
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(this.standingQueryFile), ENCODING));
+			for (String line; (line = br.readLine()) != null;) {
+				String[] data = line.split("\\t");
+				if (data.length != 4)
+					continue;
+				ArrayList predicates = new ArrayList();
+				boolean disjunctive = false;
+				String type = null;
+				String user = null;
+				String[] params = data[3].split("\\&");
+				for (int p = 0; p < params.length; p++) {
+					if (params[p].indexOf('=') == -1)
+						continue;
+					String name = params[p].substring(0, params[p].indexOf('='));
+					String value = URLDecoder.decode(params[p].substring(params[p].indexOf('=') + "=".length()), ENCODING);
+					if (QUERY_PARAMETER.equals(name))
+						predicates.add(value);
+					else if (COMBINE_PARAMETER.equals(name))
+						disjunctive = OR_COMBINE.equals(value);
+					else if (TYPE_PARAMETER.equals(name))
+						type = value;
+					else if (USER_PARAMETER.equals(name))
+						user = value;
+				}
+				Percolator.StandingQuery query = this.getStandingQuery(data[0], data[1], data[2], ((String[]) predicates.toArray(new String[predicates.size()])), disjunctive, type, user);
+				if (query != null)
+					this.percolator.register(query);
+			}
+			br.close();
+			System.out.println("ParsedStringPool: " + this.percolator.size() + " standing queries loaded.");
+		}
+		catch (IOException ioe) {
+			System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while loading standing queries.");
+			ioe.printStackTrace(System.out);
+		}
+	}
+	
+	/*
+	 * Persist the standing queries to the data folder. Called after changing
+	 * the standing queries, without holding the lock on the percolator, which
+	 * is only needed for taking a snapshot of the queries. Taking the snapshot
+	 * under the file lock ensures the last write reflects all changes.
+	 */
+	private void storeStandingQueries() {
+		synchronized (this.standingQueryFileLock) {
+			Percolator.StandingQuery[] queries = this.percolator.getQueries();
+			try {
+				BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.standingQueryFile), ENCODING));
+				for (int q = 0; q < queries.length; q++) {
+					bw.write(queries[q].id + "\t" + queries[q].subscriber + "\t" + queries[q].subscriberToken + "\t" + queries[q].query);
+					bw.newLine();
+				}
+				bw.flush();
+				bw.close();
+			}
+			catch (IOException ioe) {
+				System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing standing queries.");
+				ioe.printStackTrace(System.out);
+			}
+		}
+	}
+	
+	/*
+	 * Resolve external identifiers from the in-memory identifier index if
+	 * available, or from the identifier table otherwise, looking up the
+	 * values of each type in chunks, which can use the index on the value
+	 * column.
+	 */
+	private String[][] resolveIdentifiersInternal(String[] types, String[] values) {
+		String[][] stringIds = new String[types.length][];
+		IdentifierIndex identifierIndex = this.identifierIndex;
+		if (identifierIndex != null) {
+			for (int i = 0; i < types.length; i++)
+				stringIds[i] = identifierIndex.resolve((this.indexCaseSensitive() ? types[i] : types[i].toLowerCase()), (this.indexCaseSensitive() ? values[i] : values[i].toLowerCase()));
+			return stringIds;
+		}
+		
+		//	group identifiers by type
+		HashMap typeIndexes = new HashMap();
+		for (int i = 0; i < types.length; i++) {
+			stringIds[i] = new String[0];
+			String type = (this.indexCaseSensitive() ? types[i] : types[i].toLowerCase());
+			ArrayList indexes = ((ArrayList) typeIndexes.get(type));
+			if (indexes == null) {
+				indexes = new ArrayList();
+				typeIndexes.put(type, indexes);
+			}
+			indexes.add(new Integer(i));
+		}
+		
+		//	look up values of each type in chunks
+		for (Iterator tit = typeIndexes.keySet().iterator(); tit.hasNext();) {
+			String type = ((String) tit.next());
+			ArrayList indexes = ((ArrayList) typeIndexes.get(type));
+			for (int c = 0; c < indexes.size(); c += 100) {
+				HashMap valueIndexes = new HashMap();
+				StringBuffer valueList = new StringBuffer();
+				for (int i = c; i < Math.min((c + 100), indexes.size()); i++) {
+					Integer index = ((Integer) indexes.get(i));
+					String value = (this.indexCaseSensitive() ? values[index.intValue()] : values[index.intValue()].toLowerCase());
+					ArrayList sameValueIndexes = ((ArrayList) valueIndexes.get(value));
+					if (sameValueIndexes == null) {
+						sameValueIndexes = new ArrayList();
+						valueIndexes.put(value, sameValueIndexes);
+						valueList.append(((valueList.length() == 0) ? "" : ", ") + "'" + EasyIO.sqlEscape(value) + "'");
+					}
+					sameValueIndexes.add(index);
+				}
+				String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + ID_VALUE_COLUMN_NAME + 
+						" FROM " + this.parsedStringIdentifierTableName + 
+						" WHERE " + ID_VALUE_COLUMN_NAME + " IN (" + valueList.toString() + ")" + 
+							" AND " + ID_TYPE_COLUMN_NAME + " = '" + EasyIO.sqlEscape(type) + "'" + 
+						";";
+				SqlQueryResult sqr = null;
+				try {
+					sqr = this.io.executeSelectQuery(query);
+					while (sqr.next()) {
+						ArrayList sameValueIndexes = ((ArrayList) valueIndexes.get(sqr.getString(1)));
+						if (sameValueIndexes == null)
+							continue;
+						for (int i = 0; i < sameValueIndexes.size(); i++) {
+							int index = ((Integer) sameValueIndexes.get(i)).intValue();
+							String[] indexStringIds = new String[stringIds[index].length + 1];
+							System.arraycopy(stringIds[index], 0, indexStringIds, 0, stringIds[index].length);
+							indexStringIds[stringIds[index].length] = sqr.getString(0);
+							stringIds[index] = indexStringIds;
+						}
+					}
+				}
+				catch (SQLException sqle) {
+					System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while resolving identifiers.");
+					System.out.println("  query was " + query);
+				}
+				finally {
+					if (sqr != null)
+						sqr.close();
+				}
+			}
+		}
+		return stringIds;
+	}
+	
+	private MultiFindQuery getMultiFindQuery(TreeNodeAttributeSet queryAttributes, String queryText) {
+		Properties detailPredicates = new Properties();
+		if (queryAttributes.getAttribute(TYPE_PARAMETER) != null)
+			detailPredicates.setProperty(TYPE_PARAMETER, queryAttributes.getAttribute(TYPE_PARAMETER));
+		if (queryAttributes.getAttribute(USER_PARAMETER) != null)
+			detailPredicates.setProperty(USER_PARAMETER, queryAttributes.getAttribute(USER_PARAMETER));
+		int limit = 0;
+		try {
+			limit = Integer.parseInt(queryAttributes.getAttribute(LIMIT_PARAMETER, "0"));
+		} catch (NumberFormatException nfe) {}
+		queryText = queryText.trim();
+		return new MultiFindQuery(
+				queryAttributes.getAttribute(ID_PARAMETER, ""),
+				((queryText.length() == 0) ? null : new String[] {queryText}),
+				OR_COMBINE.equals(queryAttributes.getAttribute(COMBINE_PARAMETER)),
+				queryAttributes.getAttribute(MATCH_MODE_PARAMETER),
+				RELEVANCE_SORT.equals(queryAttributes.getAttribute(SORT_PARAMETER)),
+				limit,
+				SELF_CANONICAL_ONLY_PARAMETER.equals(queryAttributes.getAttribute(SELF_CANONICAL_ONLY_PARAMETER)),
+				detailPredicates
+			);
+	}
+	
+	/*
+	 * Run a batch of searches concurrently on the batch search thread pool,
+	 * running identical ones only once. The returned completion service hands
+	 * out the futures of the searches in the order they complete, each
+	 * resulting in a list iterator over the matching strings, or failing with
+	 * the exception thrown by the search. The argument map receives a list of
+	 * the indexes of the queries each future belongs to. Each search needs a
+	 * permit like any other search, is subject to the time budget, and loads
+	 * at most as many strings as both the row budget and the batch row limit
+	 * allow.
+	 */
+	private CompletionService findInternalStringsBatch(MultiFindQuery[] queries, HashMap futureQueries) {
+		CompletionService searches = new ExecutorCompletionService(this.multiFindExecutor);
+		HashMap queryKeyFutures = new HashMap();
+		for (int q = 0; q < queries.length; q++) {
+			final MultiFindQuery query = queries[q];
+			int queryLimit = this.getFindLimit(query.limit);
+			if ((this.multiFindMaxRows > 0) && ((queryLimit < 1) || (queryLimit > this.multiFindMaxRows)))
+				queryLimit = this.multiFindMaxRows;
+			final int limit = queryLimit;
+			String queryKey = FindResultCache.getKey(query.fullTextQueryPredicates, query.disjunctive, query.matchMode, query.rankByRelevance, limit, query.selfCanonicalOnly, query.detailPredicates);
+			Future search = ((Future) queryKeyFutures.get(queryKey));
+			if (search == null) {
+				search = searches.submit(new Callable() {
+					public Object call() throws Exception {
+						if ((query.fullTextQueryPredicates == null) && query.detailPredicates.isEmpty())
+							throw new IOException("Empty query.");
+						if (!acquireFindPermit())
+							throw new IOException("Too many concurrent searches, please try again later.");
+						try {
+							FindBudget budget = new FindBudget(findMaxTime);
+							InternalPooledStringIterator strings = new BudgetedStringIterator(findInternalStrings(query.fullTextQueryPredicates, query.disjunctive, query.matchMode, query.rankByRelevance, limit, query.selfCanonicalOnly, query.detailPredicates, null, budget, null), budget);
+							ArrayList stringList = new ArrayList();
+							try {
+								while (strings.hasNextString())
+									stringList.add(strings.getNextString());
+							}
+							finally {
+								strings.close();
+							}
+							return new ListParsedStringIterator(stringList, null, strings.isTruncated());
+						}
+						finally {
+							releaseFindPermit();
+						}
+					}
+				});
+				queryKeyFutures.put(queryKey, search);
+				futureQueries.put(search, new ArrayList());
+			}
+			((ArrayList) futureQueries.get(search)).add(new Integer(q));
+		}
+		return searches;
+	}
+	
 	private InternalPooledString doPlainUpdate(String stringId, String canonicalStringId, boolean deleted, String domain, String user, long updateTime, String updateSource, InternalPooledString localString, String localUpdateSourceDomain) throws IOException {
 		this.apiCallCountTotal++;
 		this.apiCallCountUpdate++;
@@ -1317,7 +3150,9 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				return null;
 			else {
 				this.writeHistoryEntry(existingString.id, existingString.id.hashCode(), updateTime, domain, user, localUpdateTime, localUpdateSourceDomain, updateSource);
-				return new InternalPooledString(existingString, canonicalStringId, deleted, domain, user, updateTime, localUpdateTime);
+				InternalPooledString updatedString = new InternalPooledString(existingString, canonicalStringId, deleted, domain, user, updateTime, localUpdateTime);
+				this.stringStored(updatedString, existingString, false);
+				return updatedString;
 			}
 		}
 		catch (SQLException sqle) {
@@ -1400,8 +3235,12 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				bw.write(" " + CREATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.createTime)) + "\"");
 				bw.write(" " + UPDATE_TIME_ATTRIBUTE + "=\"" + TIMESTAMP_DATE_FORMAT.format(new Date(string.updateTime)) + "\"");
 				if ((string.updateTime == string.localUpdateTime) && (requestTime <= string.updateTime)) {
-					 if (string.createTime >= requestTime)
+					 if (string.createTime >= requestTime) {
 						 bw.write(" " + CREATED_ATTRIBUTE + "=\"true\"");
+						 String proposedCanonicalStringId = this.getProposedCanonicalStringId(string);
+						 if (proposedCanonicalStringId != null)
+							 bw.write(" " + PROPOSED_CANONICAL_STRING_ID_ATTRIBUTE + "=\"" + proposedCanonicalStringId + "\"");
+					 }
 					 else bw.write(" " + UPDATED_ATTRIBUTE + "=\"true\"");
 				}
 				bw.write(" " + DELETED_ATTRIBUTE + "=\"" + (string.deleted ? "true" : "false") + "\"");
@@ -1434,7 +3273,7 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			}
 		}
 		
-		//	xml input (PUT update or FEED resolver query - user is null in latter case only)
+		//	xml input (PUT update or FEED resolver query or federated search - user is null in latter cases only)
 		else if ("xml".equalsIgnoreCase(format)) {
 			xmlParser.stream(stringReader, new TokenReceiver() {
 				private String canonicalStringId = null;
@@ -1447,6 +3286,9 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				private MutableAnnotation stringParsed = null;
 				private String updateDomain = null;
 				private String updateUser = null;
+				private long createTime = -1;
+				private long updateTime = -1;
+				private boolean deleted = false;
 				public void close() throws IOException {}
 				public void storeToken(String token, int treeDepth) throws IOException {
 					if (xmlGrammar.isTag(token)) {
@@ -1484,14 +3326,20 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 										updateDomain = null;
 										updateUser = null;
 									}
+									long createTime = (((userName == null) && (this.createTime != -1)) ? this.createTime : requestTime);
+									long updateTime = (((userName == null) && (this.updateTime != -1)) ? this.updateTime : requestTime);
+									boolean deleted = ((userName == null) && this.deleted);
 									if ((createDomain != null) && (createUser != null))
-										strings.add(new InternalPooledString(requestTime, createDomain, createUser, requestTime, updateDomain, updateUser, 0, this.canonicalStringId, false, this.stringPlain, this.stringParsed));
+										strings.add(new InternalPooledString(createTime, createDomain, createUser, updateTime, updateDomain, updateUser, 0, this.canonicalStringId, deleted, this.stringPlain, this.stringParsed));
 								}
 								this.canonicalStringId = null;
 								this.createDomain = null;
 								this.createUser = null;
 								this.updateDomain = null;
 								this.updateUser = null;
+								this.createTime = -1;
+								this.updateTime = -1;
+								this.deleted = false;
 							}
 							else {
 								if (!xmlGrammar.isSingularTag(token)) {
@@ -1501,6 +3349,13 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 									this.createUser = tnas.getAttribute(CREATE_USER_ATTRIBUTE);
 									this.updateDomain = tnas.getAttribute(UPDATE_DOMAIN_ATTRIBUTE);
 									this.updateUser = tnas.getAttribute(UPDATE_USER_ATTRIBUTE);
+									
+									//	remote strings (FEED resolver query or federated search) come with their times and deletion flag
+									try {
+										this.createTime = parseTime(tnas.getAttribute(CREATE_TIME_ATTRIBUTE));
+										this.updateTime = parseTime(tnas.getAttribute(UPDATE_TIME_ATTRIBUTE));
+									} catch (RuntimeException re) {}
+									this.deleted = "true".equals(tnas.getAttribute(DELETED_ATTRIBUTE, "false"));
 								}
 							}
 							this.stringPlainBuffer = null;
@@ -1668,12 +3523,19 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 									";");
 							this.io.executeUpdateQuery(query);
 						}
+						String[] identifier = ((String[]) psidd.identifiers.get(psidd.updateParts.get(i)));
+						this.updateIdentifierIndex(string.id, identifier[0], identifier[1]);
 					}
 					catch (SQLException sqle) {
 						System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while indexing parsed string identifiers.");
 						System.out.println("  query was " + query);
 					}
 				}
+			
+			//	write field table entries
+			synchronized (this.parsedStringFieldTableName) {
+				this.writeFields(this.getFieldData(string.id, string.stringParsed), isUpdate);
+			}
 		}
 		catch (IOException ioe) {
 			System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while storing string.");
@@ -1745,6 +3607,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 					DELETED_COLUMN_NAME + 
 					", " + 
 					STRING_TEXT_COLUMN_NAME +
+					", " + 
+					SEARCH_STRING_COLUMN_NAME +
 				") VALUES (" +
 					"'" + EasyIO.sqlEscape(string.id) + "'" +
 					", " + 
@@ -1783,6 +3647,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 					"'" + (string.deleted ? "D" : " ") + "'" +
 					", " + 
 					"'" + EasyIO.sqlEscape(string.stringPlain) + "'" +
+					", " + 
+					"'" + EasyIO.sqlEscape(this.getSearchString(string.stringPlain)) + "'" +
 				");";
 		
 		/*
@@ -1795,13 +3661,17 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			try {
 				int updated = 0;
 				
-				//	try updating existing string
+				//	try updating existing string, getting previous canonical ID first to keep cluster counter up to date
 				try {
+					String previousCanonicalId = (isUpdate ? this.getStoredCanonicalStringId(string.id) : null);
 					updated = this.io.executeUpdateQuery(updateQuery);
 					
 					//	we did update a record, so we're done here
 					if (updated != 0) {
 						this.writeHistoryEntry(string.id, string.id.hashCode(), string.updateTime, string.updateDomain, string.updateUser, string.localUpdateTime, updateSourceDomain, updateSource);
+						this.stringStored(string, null, false);
+						if (previousCanonicalId != null)
+							this.updateStringClusterCounter(string, previousCanonicalId);
 						return true;
 					}
 				}
@@ -1814,6 +3684,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				updated = this.io.executeUpdateQuery(insertQuery);
 				if (updated == 1) {
 					this.writeHistoryEntry(string.id, string.id.hashCode(), string.updateTime, string.updateDomain, string.updateUser, string.localUpdateTime, updateSourceDomain, updateSource);
+					this.writeTokens(string.id, string.stringPlain, false);
+					this.stringStored(string, null, true);
 					return true;
 				}
 				else return false;
@@ -1826,6 +3698,66 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		}
 	}
 	
+	/*
+	 * Bring in-memory data structures up to date after a string was inserted
+	 * or updated. The previous version of the string is null if unknown.
+	 */
+	private void stringStored(InternalPooledString string, InternalPooledString previousString, boolean isNewString) {
+		this.writeGeneration.incrementAndGet();
+		this.updateStringCounters(string, previousString, isNewString);
+		this.updateLinkedStringIndex(string.id, string.canonicalId);
+		if (isNewString) {
+			this.setClusterCanonicalId(string.clusterId, ((string.canonicalId.length() == 0) ? string.id : string.canonicalId), true);
+			this.recentStrings.add(string.id, string.createTime, new InternalPooledString(string.id, string.createTime, string.updateTime, string.stringPlain));
+			synchronized (this.rssDocumentCache) {
+				this.rssDocumentCache.clear();
+				this.rssDocumentCacheGeneration++;
+			}
+			if (this.trigramIndexEnabled) synchronized (this.trigramIndexBacklog) {
+				if (this.trigramIndex == null)
+					this.trigramIndexBacklog.add(new String[] {string.id, this.getFoldedText(string.stringPlain)});
+				else try {
+					this.trigramIndex.add(string.id, this.getFoldedText(string.stringPlain));
+				}
+				catch (OutOfMemoryError oome) {
+					System.out.println("ParsedStringPool: out of memory while adding to trigram index, check -XX:MaxDirectMemorySize, disabling index.");
+					this.trigramIndex = null;
+					this.trigramIndexEnabled = false;
+				}
+				catch (RuntimeException re) {
+					System.out.println("ParsedStringPool: " + re.getClass().getName() + " (" + re.getMessage() + ") while adding to trigram index, disabling index.");
+					this.trigramIndex = null;
+					this.trigramIndexEnabled = false;
+				}
+			}
+			if (this.suggestIndexEnabled) synchronized (this.suggestIndexBacklog) {
+				if (this.suggestIndex == null)
+					this.suggestIndexBacklog.add(new String[] {string.id, string.stringPlain});
+				else this.suggestIndex.add(string.id, string.stringPlain);
+			}
+			if (this.similarityIndexEnabled) synchronized (this.similarityIndexBacklog) {
+				if (this.similarityIndex == null)
+					this.similarityIndexBacklog.add(new String[] {string.id, string.clusterId, this.getClusteringString(string.stringPlain)});
+				else this.similarityIndex.add(string.id, string.clusterId, this.getClusteringString(string.stringPlain));
+			}
+			if (this.searchEngine != null)
+				this.searchEngine.add(string.id, this.getFoldedText(string.stringPlain));
+			this.updateFacetIndex(string.id, new String[] {((string.type == null) ? "" : string.type), string.createUser, string.createDomain, getYear(string.createTime)});
+		}
+		else {
+			this.stringFragmentCache.invalidate(string.id);
+			this.setClusterCanonicalId(string.clusterId, string.canonicalId, false);
+			if (previousString == null) // full update, type might have changed
+				this.updateFacetIndex(string.id, new String[] {((string.type == null) ? "" : string.type), null, null, null});
+		}
+		
+		//	match new and fully updated strings against standing queries
+		if ((this.percolator != null) && (isNewString || (previousString == null)) && !string.deleted && (string.stringPlain != null)) {
+			String searchString = this.getSearchString(string.stringPlain);
+			this.percolator.percolate(string.id, searchString, getIndexTokens(searchString), string.type, string.createUser, string.updateUser);
+		}
+	}
+	
 	/**
 	 * Extend the index entry of a parsed string with sub class specific
 	 * attributes. This default implementation does nothing, sub classes are
@@ -1892,6 +3824,7 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	protected static class ParsedStringIdentifierData {
 		StringVector updateParts = new StringVector();
 		Properties insertParts = new Properties();
+		HashMap identifiers = new HashMap();
 		String id;
 		boolean caseSensitive;
 		ParsedStringIdentifierData(String id, boolean caseSensitive) {
@@ -1908,9 +3841,10 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			String updatePart = "SET " + ID_VALUE_COLUMN_NAME + " = '" + EasyIO.sqlEscape(this.caseSensitive ? value : value.toLowerCase()) + "'" +
 					" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + this.id.hashCode() +
 					" AND " + STRING_ID_COLUMN_NAME + " LIKE '" + EasyIO.sqlEscape(this.id) + "'" +
-					" AND " + ID_TYPE_COLUMN_NAME + " LIKE '" + EasyIO.sqlEscape(this.caseSensitive ? value : type.toLowerCase()) + "'" +
+					" AND " + ID_TYPE_COLUMN_NAME + " LIKE '" + EasyIO.sqlEscape(this.caseSensitive ? type : type.toLowerCase()) + "'" +
 					"";
 			this.updateParts.addElementIgnoreDuplicates(updatePart);
+			this.identifiers.put(updatePart, new String[] {(this.caseSensitive ? type : type.toLowerCase()), (this.caseSensitive ? value : value.toLowerCase())});
 			this.insertParts.setProperty(updatePart, "(" +
 					STRING_ID_COLUMN_NAME + 
 					", " + 
@@ -1936,22 +3870,380 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		}
 	}
 	
-	private void writeHistoryEntry(String stringId, int stringIdHash, long updateTime, String updateDomain, String updateUser, long localUpdateTime, String updateSourceDomain, String updateSource) {
-		String query = "INSERT INTO " + this.parsedStringHistoryTableName + " (" + 
-					STRING_ID_COLUMN_NAME + 
-					", " + 
-					STRING_ID_HASH_COLUMN_NAME + 
-					", " + 
-					UPDATE_TIME_COLUMN_NAME + 
-					", " + 
-					UPDATE_DOMAIN_COLUMN_NAME + 
-					", " + 
-					UPDATE_USER_COLUMN_NAME + 
-					", " + 
-					LOCAL_UPDATE_TIME_COLUMN_NAME + 
-					", " + 
-					LOCAL_UPDATE_DOMAIN_COLUMN_NAME + 
-					", " + 
+	/**
+	 * Extend the structured fields of a parsed string with sub class specific
+	 * values, in addition to the ones extracted with the annotation paths
+	 * declared in the configuration. This default implementation does
+	 * nothing, sub classes are welcome to overwrite it as needed.
+	 * @param fieldData the field data object to extend
+	 * @param stringParsed the parsed string to extend the field data from
+	 */
+	protected void extendFieldData(ParsedStringFieldData fieldData, MutableAnnotation stringParsed) {}
+	
+	/**
+	 * Object encapsulating the structured fields of a parsed string. Fields
+	 * can have multiple values, and values starting with an integer number are
+	 * also indexed by that number, for range matches.
+	 * 
+	 * @author sautter
+	 */
+	protected static class ParsedStringFieldData {
+		ArrayList fields = new ArrayList();
+		HashSet fieldKeys = new HashSet();
+		String id;
+		boolean caseSensitive;
+		ParsedStringFieldData(String id, boolean caseSensitive) {
+			this.id = id;
+			this.caseSensitive = caseSensitive;
+		}
+		
+		/**
+		 * Add a value of a structured field to index. Adding multiple values
+		 * for the same field name indexes all of them. The name has to consist
+		 * of letters, digits, and underscores only.
+		 * @param name the name of the field
+		 * @param value the value to index
+		 */
+		public void addField(String name, String value) {
+			String fieldValue = normalizeFieldValue(value, this.caseSensitive);
+			if ((fieldValue.length() == 0) || !this.fieldKeys.add(name + '\u0000' + fieldValue))
+				return;
+			this.fields.add(new String[] {name, fieldValue, getFieldNumber(fieldValue)});
+		}
+		
+		boolean containsData() {
+			return (this.fields.size() != 0);
+		}
+	}
+	
+	private static String normalizeFieldValue(String value, boolean caseSensitive) {
+		value = value.trim().replaceAll("\\s+", " ");
+		if (!caseSensitive)
+			value = value.toLowerCase();
+		return ((value.length() > FIELD_VALUE_COLUMN_LENGTH) ? value.substring(0, FIELD_VALUE_COLUMN_LENGTH) : value);
+	}
+	
+	private static String getFieldNumber(String value) {
+		Matcher numberMatcher = FIELD_NUMBER_PATTERN.matcher(value);
+		return (numberMatcher.lookingAt() ? numberMatcher.group() : null);
+	}
+	private static final Pattern FIELD_NUMBER_PATTERN = Pattern.compile("\\-?[0-9]{1,18}(?![0-9])");
+	
+	private ParsedStringFieldData getFieldData(String stringId, MutableAnnotation stringParsed) {
+		ParsedStringFieldData psfd = new ParsedStringFieldData(stringId, this.indexCaseSensitive());
+		for (Iterator fit = this.indexFieldPaths.keySet().iterator(); fit.hasNext();) {
+			String fieldName = ((String) fit.next());
+			try {
+				QueriableAnnotation[] fieldAnnots = GPath.evaluatePath(stringParsed, ((GPath) this.indexFieldPaths.get(fieldName)), null);
+				for (int a = 0; a < fieldAnnots.length; a++)
+					psfd.addField(fieldName, fieldAnnots[a].getValue());
+			}
+			catch (GPathException gpe) {
+				System.out.println("ParsedStringPool: " + gpe.getClass().getName() + " (" + gpe.getMessage() + ") while extracting field " + fieldName + " from string " + stringId);
+			}
+		}
+		this.extendFieldData(psfd, stringParsed);
+		return psfd;
+	}
+	
+	private void writeFields(ParsedStringFieldData fieldData, boolean replace) {
+		if (replace) {
+			String deleteQuery = "DELETE FROM " + this.parsedStringFieldTableName + 
+					" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + fieldData.id.hashCode() + 
+						" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(fieldData.id) + "'" +
+					";";
+			try {
+				this.io.executeUpdateQuery(deleteQuery);
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting string fields.");
+				System.out.println("  query was " + deleteQuery);
+			}
+		}
+		for (int f = 0; f < fieldData.fields.size(); f++) {
+			String[] field = ((String[]) fieldData.fields.get(f));
+			String insertQuery = "INSERT INTO " + this.parsedStringFieldTableName + " (" + 
+						STRING_ID_COLUMN_NAME + 
+						", " + 
+						STRING_ID_HASH_COLUMN_NAME + 
+						", " + 
+						FIELD_NAME_COLUMN_NAME + 
+						", " + 
+						FIELD_VALUE_COLUMN_NAME + 
+						", " + 
+						FIELD_NUMBER_COLUMN_NAME + 
+					") VALUES (" +
+						"'" + EasyIO.sqlEscape(fieldData.id) + "'" +
+						", " + 
+						fieldData.id.hashCode() + 
+						", " + 
+						"'" + EasyIO.sqlEscape(field[0]) + "'" +
+						", " + 
+						"'" + EasyIO.sqlEscape(field[1]) + "'" +
+						", " + 
+						((field[2] == null) ? "NULL" : field[2]) +
+					");";
+			try {
+				this.io.executeUpdateQuery(insertQuery);
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing string field.");
+				System.out.println("  query was " + insertQuery);
+			}
+		}
+	}
+	
+	/*
+	 * Extract the structured fields of all strings stored before the current
+	 * set of annotation paths was configured, or while the node was down. The
+	 * watermark is the local update time up to which strings are indexed, and
+	 * goes back to the start whenever the configured paths change. Strings
+	 * stored while this runs have their fields written by storeString(),
+	 * under the same lock, so the fields never go back to an older version.
+	 * Until all strings are indexed after a change of the annotation paths,
+	 * field predicates are rejected, as they would only find some strings.
+	 */
+	private void indexStringFields() {
+		if (this.indexFieldPaths.isEmpty())
+			return;
+		if (!this.indexFieldSignature.equals(this.getSetting("fieldIndexSignature", ""))) {
+			this.setSetting("fieldIndexWatermark", "0");
+			this.setSetting("fieldIndexComplete", "false");
+			this.setSetting("fieldIndexSignature", this.indexFieldSignature);
+		}
+		long watermark = Long.parseLong(this.getSetting("fieldIndexWatermark", "0"));
+		int batchSize = 1000;
+		int indexed = 0;
+		while (this.doUpdates) {
+			String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + LOCAL_UPDATE_TIME_COLUMN_NAME + 
+					" FROM " + this.parsedStringTableName + 
+					" WHERE " + LOCAL_UPDATE_TIME_COLUMN_NAME + " > " + watermark + 
+					" ORDER BY " + LOCAL_UPDATE_TIME_COLUMN_NAME + 
+					" LIMIT " + batchSize + 
+					";";
+			ArrayList batch = new ArrayList();
+			SqlQueryResult sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(query, true);
+				while (sqr.next())
+					batch.add(new String[] {sqr.getString(0), sqr.getString(1)});
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading strings for field indexing.");
+				System.out.println("  query was " + query);
+				return;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+			if (batch.isEmpty())
+				break;
+			
+			//	in a full batch, strings sharing the last update time may continue in the next batch, so leave them to that one
+			long lastUpdateTime = Long.parseLong(((String[]) batch.get(batch.size() - 1))[1]);
+			if ((batch.size() == batchSize) && (Long.parseLong(((String[]) batch.get(0))[1]) == lastUpdateTime)) {
+				batchSize *= 2;
+				continue;
+			}
+			for (int s = 0; s < batch.size(); s++) {
+				String[] string = ((String[]) batch.get(s));
+				long updateTime = Long.parseLong(string[1]);
+				if ((batch.size() == batchSize) && (updateTime == lastUpdateTime))
+					break;
+				synchronized (this.parsedStringFieldTableName) {
+					MutableAnnotation stringParsed = this.getStringParsed(string[0]);
+					if (stringParsed != null)
+						this.writeFields(this.getFieldData(string[0], stringParsed), true);
+				}
+				watermark = updateTime;
+				indexed++;
+			}
+			this.setSetting("fieldIndexWatermark", ("" + watermark));
+		}
+		if (this.doUpdates) {
+			this.setSetting("fieldIndexComplete", "true");
+			this.fieldIndexComplete = true;
+			System.out.println("ParsedStringPool: field index complete, indexed " + indexed + " strings.");
+		}
+	}
+	
+	/**
+	 * Extract the full text index tokens from a string. Tokens are the lower
+	 * case sequences of letters and digits in the argument string, truncated
+	 * to the length of the token column.
+	 * @param str the string to tokenize
+	 * @return the tokens of the argument string, without duplicates
+	 */
+	protected static TreeSet getIndexTokens(String str) {
+		TreeSet tokens = new TreeSet();
+		String[] rawTokens = str.toLowerCase().split("[^\\p{L}\\p{N}]++");
+		for (int t = 0; t < rawTokens.length; t++) {
+			if (rawTokens[t].length() == 0)
+				continue;
+			if (rawTokens[t].length() > TOKEN_COLUMN_LENGTH)
+				tokens.add(rawTokens[t].substring(0, TOKEN_COLUMN_LENGTH));
+			else tokens.add(rawTokens[t]);
+		}
+		return tokens;
+	}
+	
+	private void writeTokens(String stringId, String stringPlain, boolean replace) {
+		if (replace) {
+			String deleteQuery = "DELETE FROM " + this.parsedStringTokenTableName + 
+					" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + stringId.hashCode() + 
+						" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(stringId) + "'" +
+					";";
+			try {
+				this.io.executeUpdateQuery(deleteQuery);
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while deleting string tokens.");
+				System.out.println("  query was " + deleteQuery);
+			}
+		}
+		for (Iterator tit = getIndexTokens(this.getSearchString(stringPlain)).iterator(); tit.hasNext();) {
+			String token = ((String) tit.next());
+			String insertQuery = "INSERT INTO " + this.parsedStringTokenTableName + " (" + 
+						STRING_ID_COLUMN_NAME + 
+						", " + 
+						STRING_ID_HASH_COLUMN_NAME + 
+						", " + 
+						TOKEN_COLUMN_NAME + 
+					") VALUES (" +
+						"'" + EasyIO.sqlEscape(stringId) + "'" +
+						", " + 
+						stringId.hashCode() + 
+						", " + 
+						"'" + EasyIO.sqlEscape(token) + "'" +
+					");";
+			try {
+				this.io.executeUpdateQuery(insertQuery);
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing string token.");
+				System.out.println("  query was " + insertQuery);
+			}
+		}
+	}
+	
+	/*
+	 * Fold a string for search, i.e., reduce it to its decomposed base
+	 * characters without diacritics, expand ligatures, convert it to lower
+	 * case, and apply any configured transliterations. 'M\u00FCller' and
+	 * 'Muller' thus both come out as 'muller', and so does 'Mueller', but only
+	 * if the 'ue=u' transliteration is configured, which it is not by default.
+	 * All indexes and full text queries use this folding.
+	 */
+	private String getFoldedText(String str) {
+		String foldedText = StringUtils.normalizeString(str).toLowerCase();
+		for (int t = 0; t < this.searchFoldTransliterations.length; t += 2)
+			foldedText = foldedText.replace(this.searchFoldTransliterations[t], this.searchFoldTransliterations[t+1]);
+		return foldedText;
+	}
+	
+	/*
+	 * Fold a string for search, truncating the result to the length of the
+	 * search string column.
+	 */
+	private String getSearchString(String str) {
+		String searchString = this.getFoldedText(str);
+		return ((searchString.length() > STRING_TEXT_COLUMN_LENGTH) ? searchString.substring(0, STRING_TEXT_COLUMN_LENGTH) : searchString);
+	}
+	
+	private void writeSearchString(String stringId, String stringPlain) {
+		String updateQuery = "UPDATE " + this.parsedStringTableName + 
+				" SET " + SEARCH_STRING_COLUMN_NAME + " = '" + EasyIO.sqlEscape(this.getSearchString(stringPlain)) + "'" +
+				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + stringId.hashCode() + 
+					" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(stringId) + "'" +
+				";";
+		try {
+			this.io.executeUpdateQuery(updateQuery);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing search string.");
+			System.out.println("  query was " + updateQuery);
+		}
+	}
+	
+	/*
+	 * Index the tokens and write the folded search strings of all strings
+	 * stored before the token table and search string column existed, before
+	 * search string folding last changed, or while the node was down. The
+	 * watermark is the local update time up to which strings are indexed.
+	 * Strings inserted while this runs have their tokens and search strings
+	 * written by storeString(), so re-indexing them is harmless.
+	 */
+	private void indexStringTokens() {
+		long watermark = Long.parseLong(this.getSetting("tokenIndexWatermark", "0"));
+		int batchSize = 1000;
+		int indexed = 0;
+		while (this.doUpdates) {
+			String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + LOCAL_UPDATE_TIME_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME + 
+					" FROM " + this.parsedStringTableName + 
+					" WHERE " + LOCAL_UPDATE_TIME_COLUMN_NAME + " > " + watermark + 
+					" ORDER BY " + LOCAL_UPDATE_TIME_COLUMN_NAME + 
+					" LIMIT " + batchSize + 
+					";";
+			ArrayList batch = new ArrayList();
+			SqlQueryResult sqr = null;
+			try {
+				sqr = this.io.executeSelectQuery(query, true);
+				while (sqr.next())
+					batch.add(new String[] {sqr.getString(0), sqr.getString(1), sqr.getString(2)});
+			}
+			catch (SQLException sqle) {
+				System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading strings for token indexing.");
+				System.out.println("  query was " + query);
+				return;
+			}
+			finally {
+				if (sqr != null)
+					sqr.close();
+			}
+			if (batch.isEmpty())
+				break;
+			
+			//	in a full batch, strings sharing the last update time may continue in the next batch, so leave them to that one
+			long lastUpdateTime = Long.parseLong(((String[]) batch.get(batch.size() - 1))[1]);
+			if ((batch.size() == batchSize) && (Long.parseLong(((String[]) batch.get(0))[1]) == lastUpdateTime)) {
+				batchSize *= 2;
+				continue;
+			}
+			for (int s = 0; s < batch.size(); s++) {
+				String[] string = ((String[]) batch.get(s));
+				long updateTime = Long.parseLong(string[1]);
+				if ((batch.size() == batchSize) && (updateTime == lastUpdateTime))
+					break;
+				this.writeTokens(string[0], string[2], true);
+				this.writeSearchString(string[0], string[2]);
+				watermark = updateTime;
+				indexed++;
+			}
+			this.setSetting("tokenIndexWatermark", ("" + watermark));
+		}
+		if (this.doUpdates) {
+			this.tokenIndexComplete = true;
+			System.out.println("ParsedStringPool: token index complete, indexed " + indexed + " strings.");
+		}
+	}
+	
+	private void writeHistoryEntry(String stringId, int stringIdHash, long updateTime, String updateDomain, String updateUser, long localUpdateTime, String updateSourceDomain, String updateSource) {
+		String query = "INSERT INTO " + this.parsedStringHistoryTableName + " (" + 
+					STRING_ID_COLUMN_NAME + 
+					", " + 
+					STRING_ID_HASH_COLUMN_NAME + 
+					", " + 
+					UPDATE_TIME_COLUMN_NAME + 
+					", " + 
+					UPDATE_DOMAIN_COLUMN_NAME + 
+					", " + 
+					UPDATE_USER_COLUMN_NAME + 
+					", " + 
+					LOCAL_UPDATE_TIME_COLUMN_NAME + 
+					", " + 
+					LOCAL_UPDATE_DOMAIN_COLUMN_NAME + 
+					", " + 
 					UPDATE_SOURCE_COLUMN_NAME +
 				") VALUES (" +
 					"'" + EasyIO.sqlEscape(stringId) + "'" +
@@ -1971,149 +4263,758 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 					"'" + EasyIO.sqlEscape(updateSource) + "'" +
 				");";
 		try {
-			this.io.executeUpdateQuery(query);
+			this.io.executeUpdateQuery(query);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing string history.");
+			System.out.println("  query was " + query);
+		}
+	}
+	
+	private File parsedStringsFolder;
+	private void storeParsedString(String id, MutableAnnotation modsString) throws IOException {
+		
+		//	create two-layer storage folder structure
+		String primaryFolderName = id.substring(0, 2);
+		File primaryFolder = new File(this.parsedStringsFolder, primaryFolderName);
+		if (!primaryFolder.exists()) primaryFolder.mkdir();
+		
+		String secondaryFolderName = id.substring(2, 4);
+		File secondaryFolder = new File(primaryFolder, secondaryFolderName);
+		if (!secondaryFolder.exists()) secondaryFolder.mkdir();
+		
+		//	create actual string file
+		File stringFile = new File(secondaryFolder, (id + ".xml"));
+		
+		//	file exists (we have an update), make way
+		if (stringFile.exists()) {
+			File oldStringFile = new File(secondaryFolder, (id + "." + System.currentTimeMillis() + ".xml"));
+			stringFile.renameTo(oldStringFile);
+			stringFile = new File(secondaryFolder, (id + ".xml"));
+		}
+		stringFile.createNewFile();
+		
+		//	write parse
+		Writer out = new OutputStreamWriter(new FileOutputStream(stringFile), ENCODING);
+		AnnotationUtils.writeXML(modsString, out);
+		out.flush();
+		out.close();
+	}
+	
+	/**
+	 * Retrieve the parsed version of a pooled string. If there is no parsed
+	 * version for the pooled string with the argument ID, this method returns
+	 * null.
+	 * @param id the ID of the pooled string whose parsed version to retrieve
+	 * @return the parsed string
+	 */
+	public MutableAnnotation getStringParsed(String id) {
+		String primaryFolderName = id.substring(0, 2);
+		String secondaryFolderName = id.substring(2, 4);
+		try {
+			File stringFile = new File(this.parsedStringsFolder, (primaryFolderName + "/" + secondaryFolderName + "/" + id + ".xml"));
+			Reader stringIn = new InputStreamReader(new FileInputStream(stringFile), ENCODING);
+			MutableAnnotation stringParsed = Gamta.newDocument(Gamta.newTokenSequence(null, Gamta.INNER_PUNCTUATION_TOKENIZER));
+			SgmlDocumentReader.readDocument(stringIn, stringParsed);
+			stringIn.close();
+			return stringParsed;
+		}
+		catch (FileNotFoundException fnfe) {
+			return null;
+		}
+		catch (IOException ioe) {
+			ioe.printStackTrace(System.out);
+			return null;
+		}
+	}
+	
+	private InternalPooledString getInternalString(String id) throws IOException {
+		String[] ids = {id};
+		InternalPooledStringIterator stringi = this.getInternalStrings(ids);
+		InternalPooledString string = (stringi.hasNextString() ? stringi.getNextString() : null);
+		stringi.close();
+		return string;
+	}
+	
+	private InternalPooledStringIterator getInternalStrings(String[] ids) throws IOException {
+		this.apiCallCountTotal++;
+		this.apiCallCountGet++;
+		if (ids.length == 0)
+			return new InternalPooledStringIterator() {
+				public void close() {}
+				public boolean hasNextString() {
+					return false;
+				}
+				public InternalPooledString getNextString() {
+					return null;
+				}
+			};
+		
+		StringBuffer idString = new StringBuffer();
+		StringBuffer idHashString = new StringBuffer();
+		for (int i = 0; i < ids.length; i++) {
+			if (i != 0) {
+				idString.append(", ");
+				idHashString.append(", ");
+			}
+			idString.append("'" + EasyIO.sqlEscape(ids[i]) + "'");
+			idHashString.append(ids[i].hashCode());
+		}
+		
+		String fields = (
+				STRING_ID_COLUMN_NAME + 
+				", " + 
+				STRING_CLUSTER_ID_COLUMN_NAME + 
+				", " + 
+				CANONICAL_STRING_ID_COLUMN_NAME + 
+				", " + 
+				PARSE_CHECKSUM_COLUMN_NAME + 
+				", " +
+				CREATE_TIME_COLUMN_NAME + 
+				", " +
+				CREATE_DOMAIN_COLUMN_NAME + 
+				", " +
+				CREATE_USER_COLUMN_NAME + 
+				", " +
+				UPDATE_TIME_COLUMN_NAME + 
+				", " +
+				UPDATE_DOMAIN_COLUMN_NAME + 
+				", " +
+				UPDATE_USER_COLUMN_NAME + 
+				", " +
+				LOCAL_UPDATE_TIME_COLUMN_NAME + 
+				", " +
+				DELETED_COLUMN_NAME + 
+				", " +
+				STRING_TEXT_COLUMN_NAME
+				);
+		String query = "SELECT " + fields +
+				" FROM " + this.parsedStringTableName +
+				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " IN (" + idHashString.toString() + ")" + 
+					" AND " + STRING_ID_COLUMN_NAME + " IN (" + idString.toString() + ")" + 
+				";";
+		
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while getting strings.");
+			System.out.println("  query was " + query);
+		}
+		return new SqlParsedStringIterator(sqr, 'O');
+	}
+	
+	private void loadClusterCanonicalIDs() {
+		HashMap clusterIdsToCanonicalIds = new HashMap();
+		HashSet canonicalClusterIds = new HashSet();
+		LinkedStringIndex linkedStringIndex = new LinkedStringIndex();
+		String query = "SELECT " + STRING_CLUSTER_ID_COLUMN_NAME + ", " + STRING_ID_COLUMN_NAME + ", " + CANONICAL_STRING_ID_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next()) {
+				linkedStringIndex.set(sqr.getString(1), sqr.getString(2));
+				String clusterId = sqr.getString(0);
+				if ((clusterId == null) || (clusterId.length() == 0))
+					continue;
+				
+				//	first canonical ID in cluster wins, as in database lookup, fall back to string ID
+				if (canonicalClusterIds.contains(clusterId))
+					continue;
+				String canonicalStringId = sqr.getString(2);
+				if ((canonicalStringId != null) && (canonicalStringId.length() != 0)) {
+					clusterIdsToCanonicalIds.put(clusterId, canonicalStringId);
+					canonicalClusterIds.add(clusterId);
+				}
+				else clusterIdsToCanonicalIds.put(clusterId, sqr.getString(1));
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading cluster canonical IDs.");
+			System.out.println("  query was " + query);
+			return;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	merge with what has been stored in the meantime, which is more recent
+		synchronized (this.clusterIdsToCanonicalIds) {
+			for (Iterator cidit = clusterIdsToCanonicalIds.keySet().iterator(); cidit.hasNext();) {
+				String clusterId = ((String) cidit.next());
+				if (!this.clusterIdsToCanonicalIds.containsKey(clusterId))
+					this.clusterIdsToCanonicalIds.put(clusterId, clusterIdsToCanonicalIds.get(clusterId));
+			}
+			this.clusterIdsToCanonicalIdsLoaded = true;
+		}
+		System.out.println("ParsedStringPool: loaded canonical IDs for " + clusterIdsToCanonicalIds.size() + " clusters.");
+		
+		//	apply updates made in the meantime and switch to linked string index
+		synchronized (this.linkedStringIndexBacklog) {
+			for (int s = 0; s < this.linkedStringIndexBacklog.size(); s++) {
+				String[] link = ((String[]) this.linkedStringIndexBacklog.get(s));
+				linkedStringIndex.set(link[0], link[1]);
+			}
+			this.linkedStringIndexBacklog.clear();
+			this.linkedStringIndex = linkedStringIndex;
+		}
+		System.out.println("ParsedStringPool: linked string index loaded for " + linkedStringIndex.size() + " strings.");
+	}
+	
+	private void updateLinkedStringIndex(String id, String canonicalId) {
+		synchronized (this.linkedStringIndexBacklog) {
+			if (this.linkedStringIndex == null)
+				this.linkedStringIndexBacklog.add(new String[] {id, canonicalId});
+			else this.linkedStringIndex.set(id, canonicalId);
+		}
+	}
+	
+	private void loadStringCounters() {
+		CreateTimeCounter stringCounter = new CreateTimeCounter();
+		CreateTimeCounter stringClusterCounter = new CreateTimeCounter();
+		String query = "SELECT " + CREATE_TIME_COLUMN_NAME + ", " + STRING_ID_COLUMN_NAME + ", " + CANONICAL_STRING_ID_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		
+		//	record writes made while loading (writes the query already sees may be counted twice until the next reload)
+		synchronized (this.stringCounterBacklog) {
+			this.stringCounterBacklog.clear();
+			this.stringCountersLoading = true;
+		}
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next()) {
+				long createTime = sqr.getLong(0);
+				stringCounter.add(createTime);
+				if (isSelfCanonical(sqr.getString(1), sqr.getString(2)))
+					stringClusterCounter.add(createTime);
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading string counters.");
+			System.out.println("  query was " + query);
+			synchronized (this.stringCounterBacklog) {
+				this.stringCounterBacklog.clear();
+				this.stringCountersLoading = false;
+			}
+			return;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	apply writes made in the meantime and switch to new counters
+		synchronized (this.stringCounterBacklog) {
+			for (int d = 0; d < this.stringCounterBacklog.size(); d++)
+				countString(stringCounter, stringClusterCounter, ((long[]) this.stringCounterBacklog.get(d)));
+			this.stringCounterBacklog.clear();
+			this.stringCountersLoading = false;
+			this.stringCounter = stringCounter;
+			this.stringClusterCounter = stringClusterCounter;
+		}
+		System.out.println("ParsedStringPool: string counters loaded.");
+	}
+	
+	private void loadRecentStrings() {
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + CREATE_TIME_COLUMN_NAME + ", " + UPDATE_TIME_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME +  
+				" FROM " + this.parsedStringTableName +
+				" ORDER BY " + CREATE_TIME_COLUMN_NAME + " DESC" +
+				" LIMIT " + this.recentStrings.getCapacity() + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			SqlParsedStringIterator strings = new SqlParsedStringIterator(sqr, 'R');
+			
+			//	strings added in the meantime are already in the ring, and are more recent
+			while (strings.hasNextString()) {
+				InternalPooledString string = strings.getNextString();
+				this.recentStrings.add(string.id, string.createTime, string);
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading recent strings.");
+			System.out.println("  query was " + query);
+			return;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		synchronized (this.recentStrings) {
+			this.recentStringsLoaded = true;
+		}
+		System.out.println("ParsedStringPool: recent strings loaded.");
+	}
+	
+	private void loadTrigramIndex() {
+		if (!this.trigramIndexEnabled)
+			return;
+		TrigramIndex trigramIndex = new TrigramIndex();
+		int threads = Runtime.getRuntime().availableProcessors();
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			ArrayList ids = new ArrayList();
+			ArrayList texts = new ArrayList();
+			while (sqr.next()) {
+				ids.add(sqr.getString(0));
+				texts.add(this.getFoldedText(sqr.getString(1)));
+				if (ids.size() == 10000) {
+					trigramIndex.addAll(((String[]) ids.toArray(new String[ids.size()])), ((String[]) texts.toArray(new String[texts.size()])), threads);
+					ids.clear();
+					texts.clear();
+				}
+			}
+			if (ids.size() != 0)
+				trigramIndex.addAll(((String[]) ids.toArray(new String[ids.size()])), ((String[]) texts.toArray(new String[texts.size()])), threads);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading trigram index.");
+			System.out.println("  query was " + query);
+			trigramIndex = null;
+		}
+		catch (OutOfMemoryError oome) {
+			System.out.println("ParsedStringPool: out of memory while loading trigram index, check -XX:MaxDirectMemorySize.");
+			trigramIndex = null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	add strings stored in the meantime and switch to index
+		synchronized (this.trigramIndexBacklog) {
+			if (trigramIndex == null)
+				this.trigramIndexEnabled = false;
+			else for (int s = 0; s < this.trigramIndexBacklog.size(); s++) {
+				String[] string = ((String[]) this.trigramIndexBacklog.get(s));
+				trigramIndex.add(string[0], string[1]);
+			}
+			this.trigramIndexBacklog.clear();
+			this.trigramIndex = trigramIndex;
+		}
+		if (trigramIndex != null)
+			System.out.println("ParsedStringPool: trigram index loaded for " + trigramIndex.size() + " strings.");
+	}
+	
+	private void loadSimilarityIndex() {
+		if (!this.similarityIndexEnabled)
+			return;
+		MinHashIndex similarityIndex = new MinHashIndex();
+		int threads = Runtime.getRuntime().availableProcessors();
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + STRING_CLUSTER_ID_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			ArrayList ids = new ArrayList();
+			ArrayList clusterIds = new ArrayList();
+			ArrayList texts = new ArrayList();
+			while (sqr.next()) {
+				ids.add(sqr.getString(0));
+				clusterIds.add(sqr.getString(1));
+				texts.add(this.getClusteringString(sqr.getString(2)));
+				if (ids.size() == 10000) {
+					similarityIndex.addAll(((String[]) ids.toArray(new String[ids.size()])), ((String[]) clusterIds.toArray(new String[clusterIds.size()])), ((String[]) texts.toArray(new String[texts.size()])), threads);
+					ids.clear();
+					clusterIds.clear();
+					texts.clear();
+				}
+			}
+			if (ids.size() != 0)
+				similarityIndex.addAll(((String[]) ids.toArray(new String[ids.size()])), ((String[]) clusterIds.toArray(new String[clusterIds.size()])), ((String[]) texts.toArray(new String[texts.size()])), threads);
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading similarity index.");
+			System.out.println("  query was " + query);
+			similarityIndex = null;
+		}
+		catch (OutOfMemoryError oome) {
+			System.out.println("ParsedStringPool: out of memory while loading similarity index.");
+			similarityIndex = null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	add strings stored in the meantime and switch to index
+		synchronized (this.similarityIndexBacklog) {
+			if (similarityIndex == null)
+				this.similarityIndexEnabled = false;
+			else for (int s = 0; s < this.similarityIndexBacklog.size(); s++) {
+				String[] string = ((String[]) this.similarityIndexBacklog.get(s));
+				similarityIndex.add(string[0], string[1], string[2]);
+			}
+			this.similarityIndexBacklog.clear();
+			this.similarityIndex = similarityIndex;
+		}
+		if (similarityIndex != null)
+			System.out.println("ParsedStringPool: similarity index loaded for " + similarityIndex.size() + " strings.");
+	}
+	
+	private void loadSuggestIndex() {
+		if (!this.suggestIndexEnabled)
+			return;
+		SuggestIndex suggestIndex = new SuggestIndex(this.maxSuggestions);
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				suggestIndex.add(sqr.getString(0), sqr.getString(1));
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading suggest index.");
+			System.out.println("  query was " + query);
+			suggestIndex = null;
+		}
+		catch (OutOfMemoryError oome) {
+			System.out.println("ParsedStringPool: out of memory while loading suggest index.");
+			suggestIndex = null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	add strings stored in the meantime and switch to index
+		synchronized (this.suggestIndexBacklog) {
+			if (suggestIndex == null)
+				this.suggestIndexEnabled = false;
+			else for (int s = 0; s < this.suggestIndexBacklog.size(); s++) {
+				String[] string = ((String[]) this.suggestIndexBacklog.get(s));
+				suggestIndex.add(string[0], string[1]);
+			}
+			this.suggestIndexBacklog.clear();
+			this.suggestIndex = suggestIndex;
+		}
+		if (suggestIndex != null)
+			System.out.println("ParsedStringPool: suggest index loaded for " + suggestIndex.size() + " strings.");
+	}
+	
+	private void updateFacetIndex(String id, String[] facetValues) {
+		if (this.facetIndexEnabled) synchronized (this.facetIndexBacklog) {
+			if (this.facetIndex == null)
+				this.facetIndexBacklog.add(new Object[] {id, facetValues});
+			else this.facetIndex.set(id, facetValues);
+		}
+	}
+	
+	private static String getYear(long time) {
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		calendar.setTimeInMillis(time);
+		return ("" + calendar.get(Calendar.YEAR));
+	}
+	
+	private void loadFacetIndex() {
+		if (!this.facetIndexEnabled)
+			return;
+		FacetIndex facetIndex = new FacetIndex(FACET_NAMES.length);
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + STRING_TYPE_COLUMN_NAME + ", " + CREATE_USER_COLUMN_NAME + ", " + CREATE_DOMAIN_COLUMN_NAME + ", " + CREATE_TIME_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				facetIndex.set(sqr.getString(0), new String[] {sqr.getString(1), sqr.getString(2), sqr.getString(3), getYear(sqr.getLong(4))});
 		}
 		catch (SQLException sqle) {
-			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while storing string history.");
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading facet index.");
 			System.out.println("  query was " + query);
+			facetIndex = null;
+		}
+		catch (OutOfMemoryError oome) {
+			System.out.println("ParsedStringPool: out of memory while loading facet index.");
+			facetIndex = null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		
+		//	apply updates made in the meantime and switch to index
+		synchronized (this.facetIndexBacklog) {
+			if (facetIndex == null)
+				this.facetIndexEnabled = false;
+			else for (int s = 0; s < this.facetIndexBacklog.size(); s++) {
+				Object[] update = ((Object[]) this.facetIndexBacklog.get(s));
+				facetIndex.set(((String) update[0]), ((String[]) update[1]));
+			}
+			this.facetIndexBacklog.clear();
+			this.facetIndex = facetIndex;
 		}
+		if (facetIndex != null)
+			System.out.println("ParsedStringPool: facet index loaded for " + facetIndex.size() + " strings.");
 	}
 	
-	private File parsedStringsFolder;
-	private void storeParsedString(String id, MutableAnnotation modsString) throws IOException {
-		
-		//	create two-layer storage folder structure
-		String primaryFolderName = id.substring(0, 2);
-		File primaryFolder = new File(this.parsedStringsFolder, primaryFolderName);
-		if (!primaryFolder.exists()) primaryFolder.mkdir();
-		
-		String secondaryFolderName = id.substring(2, 4);
-		File secondaryFolder = new File(primaryFolder, secondaryFolderName);
-		if (!secondaryFolder.exists()) secondaryFolder.mkdir();
-		
-		//	create actual string file
-		File stringFile = new File(secondaryFolder, (id + ".xml"));
-		
-		//	file exists (we have an update), make way
-		if (stringFile.exists()) {
-			File oldStringFile = new File(secondaryFolder, (id + "." + System.currentTimeMillis() + ".xml"));
-			stringFile.renameTo(oldStringFile);
-			stringFile = new File(secondaryFolder, (id + ".xml"));
+	private void updateIdentifierIndex(String id, String type, String value) {
+		if (this.identifierIndexEnabled) synchronized (this.identifierIndexBacklog) {
+			if (this.identifierIndex == null)
+				this.identifierIndexBacklog.add(new String[] {id, type, value});
+			else this.identifierIndex.set(id, type, value);
+		}
+	}
+	
+	private void loadIdentifierIndex() {
+		if (!this.identifierIndexEnabled)
+			return;
+		IdentifierIndex identifierIndex = new IdentifierIndex();
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + ID_TYPE_COLUMN_NAME + ", " + ID_VALUE_COLUMN_NAME + 
+				" FROM " + this.parsedStringIdentifierTableName + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				identifierIndex.set(sqr.getString(0), sqr.getString(1), sqr.getString(2));
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading identifier index.");
+			System.out.println("  query was " + query);
+			identifierIndex = null;
+		}
+		catch (OutOfMemoryError oome) {
+			System.out.println("ParsedStringPool: out of memory while loading identifier index.");
+			identifierIndex = null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
 		}
-		stringFile.createNewFile();
 		
-		//	write parse
-		Writer out = new OutputStreamWriter(new FileOutputStream(stringFile), ENCODING);
-		AnnotationUtils.writeXML(modsString, out);
-		out.flush();
-		out.close();
+		//	apply updates made in the meantime and switch to index
+		synchronized (this.identifierIndexBacklog) {
+			if (identifierIndex == null)
+				this.identifierIndexEnabled = false;
+			else for (int i = 0; i < this.identifierIndexBacklog.size(); i++) {
+				String[] identifier = ((String[]) this.identifierIndexBacklog.get(i));
+				identifierIndex.set(identifier[0], identifier[1], identifier[2]);
+			}
+			this.identifierIndexBacklog.clear();
+			this.identifierIndex = identifierIndex;
+		}
+		if (identifierIndex != null)
+			System.out.println("ParsedStringPool: identifier index loaded with " + identifierIndex.size() + " identifiers.");
 	}
 	
-	/**
-	 * Retrieve the parsed version of a pooled string. If there is no parsed
-	 * version for the pooled string with the argument ID, this method returns
-	 * null.
-	 * @param id the ID of the pooled string whose parsed version to retrieve
-	 * @return the parsed string
-	 */
-	public MutableAnnotation getStringParsed(String id) {
-		String primaryFolderName = id.substring(0, 2);
-		String secondaryFolderName = id.substring(2, 4);
+	private void buildSearchIndex() {
+		if (this.searchEngine == null)
+			return;
+		
+		//	index strings updated after last watermark (all strings on first start), leaving some slack for concurrent writes
+		long watermark = this.searchEngine.getWatermark();
+		long buildStart = System.currentTimeMillis();
+		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME + 
+				" FROM " + this.parsedStringTableName + 
+				" WHERE " + LOCAL_UPDATE_TIME_COLUMN_NAME + " > " + watermark + 
+				";";
+		
+		//	write segments in parallel, reading on while previous batches are indexed
+		ExecutorService segmentWriters = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		final IOException[] segmentWriterError = {null};
+		SqlQueryResult sqr = null;
+		int count = 0;
 		try {
-			File stringFile = new File(this.parsedStringsFolder, (primaryFolderName + "/" + secondaryFolderName + "/" + id + ".xml"));
-			Reader stringIn = new InputStreamReader(new FileInputStream(stringFile), ENCODING);
-			MutableAnnotation stringParsed = Gamta.newDocument(Gamta.newTokenSequence(null, Gamta.INNER_PUNCTUATION_TOKENIZER));
-			SgmlDocumentReader.readDocument(stringIn, stringParsed);
-			stringIn.close();
-			return stringParsed;
+			sqr = this.io.executeSelectQuery(query);
+			ArrayList ids = new ArrayList();
+			ArrayList texts = new ArrayList();
+			while (true) {
+				boolean next = sqr.next();
+				if (next) {
+					ids.add(sqr.getString(0));
+					texts.add(this.getFoldedText(sqr.getString(1)));
+					count++;
+				}
+				if ((ids.size() == 50000) || (!next && (ids.size() != 0))) {
+					final String[] batchIds = ((String[]) ids.toArray(new String[ids.size()]));
+					final String[] batchTexts = ((String[]) texts.toArray(new String[texts.size()]));
+					segmentWriters.execute(new Runnable() {
+						public void run() {
+							try {
+								searchEngine.addSegment(batchIds, batchTexts);
+							}
+							catch (IOException ioe) {
+								segmentWriterError[0] = ioe;
+							}
+						}
+					});
+					ids.clear();
+					texts.clear();
+				}
+				if (!next)
+					break;
+			}
 		}
-		catch (FileNotFoundException fnfe) {
-			return null;
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while building search index.");
+			System.out.println("  query was " + query);
+			return;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+			segmentWriters.shutdown();
+			try {
+				segmentWriters.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException ie) {}
+		}
+		
+		//	record progress and switch find over to search engine
+		try {
+			if (segmentWriterError[0] != null)
+				throw segmentWriterError[0];
+			this.searchEngine.setWatermark(buildStart - (1000 * 60));
 		}
 		catch (IOException ioe) {
+			System.out.println("ParsedStringPool: " + ioe.getClass().getName() + " (" + ioe.getMessage() + ") while building search index.");
 			ioe.printStackTrace(System.out);
-			return null;
+			return;
 		}
+		this.searchEngineReady = true;
+		System.out.println("ParsedStringPool: search index built, " + count + " strings added.");
 	}
 	
-	private InternalPooledString getInternalString(String id) throws IOException {
-		String[] ids = {id};
-		InternalPooledStringIterator stringi = this.getInternalStrings(ids);
-		InternalPooledString string = (stringi.hasNextString() ? stringi.getNextString() : null);
-		stringi.close();
-		return string;
+	private static boolean isSelfCanonical(String stringId, String canonicalStringId) {
+		return ((canonicalStringId == null) || (canonicalStringId.length() == 0) || canonicalStringId.equals(stringId));
 	}
 	
-	private InternalPooledStringIterator getInternalStrings(String[] ids) throws IOException {
-		this.apiCallCountTotal++;
-		this.apiCallCountGet++;
-		if (ids.length == 0)
-			return new InternalPooledStringIterator() {
-				public void close() {}
-				public boolean hasNextString() {
-					return false;
-				}
-				public InternalPooledString getNextString() {
-					return null;
-				}
-			};
-		
-		StringBuffer idString = new StringBuffer();
-		StringBuffer idHashString = new StringBuffer();
-		for (int i = 0; i < ids.length; i++) {
-			if (i != 0) {
-				idString.append(", ");
-				idHashString.append(", ");
-			}
-			idString.append("'" + EasyIO.sqlEscape(ids[i]) + "'");
-			idHashString.append(ids[i].hashCode());
+	private void updateStringCounters(InternalPooledString string, InternalPooledString previousString, boolean isNewString) {
+		if (isNewString)
+			this.countString(new long[] {string.createTime, 1, (isSelfCanonical(string.id, string.canonicalId) ? 1 : 0)});
+		else if (previousString != null)
+			this.updateStringClusterCounter(string, previousString.canonicalId);
+	}
+	
+	private void updateStringClusterCounter(InternalPooledString string, String previousCanonicalId) {
+		boolean isSelfCanonical = isSelfCanonical(string.id, string.canonicalId);
+		boolean wasSelfCanonical = isSelfCanonical(string.id, previousCanonicalId);
+		if (isSelfCanonical != wasSelfCanonical)
+			this.countString(new long[] {string.createTime, 0, (isSelfCanonical ? 1 : -1)});
+	}
+	
+	/*
+	 * Apply a change to the string counters, given as create time, change to
+	 * string count, and change to cluster count. While the counters are being
+	 * reloaded, the change is also recorded for applying to the new counters.
+	 */
+	private void countString(long[] delta) {
+		synchronized (this.stringCounterBacklog) {
+			if (this.stringCountersLoading)
+				this.stringCounterBacklog.add(delta);
+			CreateTimeCounter stringCounter = this.stringCounter;
+			CreateTimeCounter stringClusterCounter = this.stringClusterCounter;
+			if ((stringCounter != null) && (stringClusterCounter != null))
+				countString(stringCounter, stringClusterCounter, delta);
 		}
-		
-		String fields = (
-				STRING_ID_COLUMN_NAME + 
-				", " + 
-				STRING_CLUSTER_ID_COLUMN_NAME + 
-				", " + 
-				CANONICAL_STRING_ID_COLUMN_NAME + 
-				", " + 
-				PARSE_CHECKSUM_COLUMN_NAME + 
-				", " +
-				CREATE_TIME_COLUMN_NAME + 
-				", " +
-				CREATE_DOMAIN_COLUMN_NAME + 
-				", " +
-				CREATE_USER_COLUMN_NAME + 
-				", " +
-				UPDATE_TIME_COLUMN_NAME + 
-				", " +
-				UPDATE_DOMAIN_COLUMN_NAME + 
-				", " +
-				UPDATE_USER_COLUMN_NAME + 
-				", " +
-				LOCAL_UPDATE_TIME_COLUMN_NAME + 
-				", " +
-				DELETED_COLUMN_NAME + 
-				", " +
-				STRING_TEXT_COLUMN_NAME
-				);
-		String query = "SELECT " + fields +
+	}
+	
+	private static void countString(CreateTimeCounter stringCounter, CreateTimeCounter stringClusterCounter, long[] delta) {
+		if (delta[1] > 0)
+			stringCounter.add(delta[0]);
+		else if (delta[1] < 0)
+			stringCounter.remove(delta[0]);
+		if (delta[2] > 0)
+			stringClusterCounter.add(delta[0]);
+		else if (delta[2] < 0)
+			stringClusterCounter.remove(delta[0]);
+	}
+	
+	/*
+	 * Get the canonical ID a string is stored with, or null if the string
+	 * does not exist or the lookup fails.
+	 */
+	private String getStoredCanonicalStringId(String stringId) {
+		String query = "SELECT " + CANONICAL_STRING_ID_COLUMN_NAME +
 				" FROM " + this.parsedStringTableName +
-				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " IN (" + idHashString.toString() + ")" + 
-					" AND " + STRING_ID_COLUMN_NAME + " IN (" + idString.toString() + ")" + 
+				" WHERE " + STRING_ID_HASH_COLUMN_NAME + " = " + stringId.hashCode() + 
+					" AND " + STRING_ID_COLUMN_NAME + " = '" + EasyIO.sqlEscape(stringId) + "'" + 
 				";";
-		
 		SqlQueryResult sqr = null;
 		try {
 			sqr = this.io.executeSelectQuery(query);
+			if (sqr.next()) {
+				String canonicalStringId = sqr.getString(0);
+				return ((canonicalStringId == null) ? "" : canonicalStringId);
+			}
+			else return null;
 		}
 		catch (SQLException sqle) {
-			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while getting strings.");
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while getting canonical string ID.");
 			System.out.println("  query was " + query);
+			return null;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+	}
+	
+	private void setClusterCanonicalId(String clusterId, String canonicalStringId, boolean isNewString) {
+		if ((clusterId == null) || (clusterId.length() == 0) || (canonicalStringId == null) || (canonicalStringId.length() == 0))
+			return;
+		synchronized (this.clusterIdsToCanonicalIds) {
+			if (!isNewString || !this.clusterIdsToCanonicalIds.containsKey(clusterId))
+				this.clusterIdsToCanonicalIds.put(clusterId, canonicalStringId);
 		}
-		return new SqlParsedStringIterator(sqr, 'O');
+	}
+	
+	/*
+	 * Obtain the canonical ID for a string about to be inserted, proposing the
+	 * canonical ID of a near-duplicate if the string starts a new cluster.
+	 */
+	/*
+	 * Propose a canonical ID for a newly added string that starts a cluster
+	 * of its own, namely the one of its closest near-duplicate in another
+	 * cluster. The estimated similarity of candidates is confirmed with the
+	 * exact one before proposing. The proposal is only reported to the client
+	 * adding the string, never stored, as strings that differ only in e.g.
+	 * volume, year, or pages are similar, but distinct.
+	 */
+	private String getProposedCanonicalStringId(InternalPooledString string) throws IOException {
+		MinHashIndex similarityIndex = this.similarityIndex;
+		if ((similarityIndex == null) || (this.duplicateThreshold <= 0) || !isSelfCanonical(string.id, string.canonicalId))
+			return null;
+		String clusteringString = this.getClusteringString(string.stringPlain);
+		MinHashIndex.Match[] duplicates = similarityIndex.findSimilar(clusteringString, this.duplicateThreshold, 5);
+		for (int d = 0; d < duplicates.length; d++) {
+			if (duplicates[d].id.equals(string.id) || duplicates[d].clusterId.equals(string.clusterId))
+				continue;
+			InternalPooledString duplicate = this.getInternalString(duplicates[d].id);
+			this.apiCallCountTotal--; // compensate for incrementing in get method
+			this.apiCallCountGet--;
+			if ((duplicate == null) || (duplicate.stringPlain == null))
+				continue;
+			if (MinHashIndex.getSimilarity(clusteringString, this.getClusteringString(duplicate.stringPlain)) < this.duplicateThreshold)
+				continue;
+			String canonicalStringId = this.getCanonicalStringId(duplicates[d].clusterId);
+			return ((canonicalStringId == null) ? duplicates[d].id : canonicalStringId);
+		}
+		return null;
 	}
 	
 	private String getCanonicalStringId(String clusterId) {
+		
+		//	use in-memory lookup once loaded
+		synchronized (this.clusterIdsToCanonicalIds) {
+			if (this.clusterIdsToCanonicalIdsLoaded)
+				return ((String) this.clusterIdsToCanonicalIds.get(clusterId));
+		}
+		
 		String fields = (
 				STRING_ID_COLUMN_NAME + 
 				", " + 
@@ -2149,6 +5050,8 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	}
 	
 	private InternalPooledStringIterator getInternalLinkedStrings(String canonicalId) throws IOException {
+		this.apiCallCountTotal++;
+		this.apiCallCountCluster++;
 		if ((canonicalId == null) || (canonicalId.trim().length() == 0))
 			return new InternalPooledStringIterator() {
 				public void close() {}
@@ -2160,6 +5063,19 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				}
 			};
 		
+		//	use in-memory cluster membership once loaded, fetching canonical string and linked strings by ID
+		LinkedStringIndex linkedStringIndex = this.linkedStringIndex;
+		if (linkedStringIndex != null) {
+			String[] linkedIds = linkedStringIndex.getLinkedIds(canonicalId);
+			String[] ids = new String[linkedIds.length + 1];
+			ids[0] = canonicalId;
+			System.arraycopy(linkedIds, 0, ids, 1, linkedIds.length);
+			InternalPooledStringIterator strings = this.getInternalStrings(ids);
+			this.apiCallCountTotal--; // compensate for incrementing in get method
+			this.apiCallCountGet--;
+			return strings;
+		}
+		
 		String fields = (
 				STRING_ID_COLUMN_NAME + 
 				", " + 
@@ -2211,16 +5127,170 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		return new SqlParsedStringIterator(sqr, 'O');
 	}
 	
-	private InternalPooledStringIterator findInternalStrings(String[] fullTextQueryPredicates, boolean disjunctive, int limit, boolean selfCanonicalOnly, Properties detailPredicates) throws IOException {
+	private InternalPooledStringIterator findInternalSimilarStrings(String id, String text, double threshold, int limit) throws IOException {
+		this.apiCallCountTotal++;
+		this.apiCallCountSimilar++;
+		
+		MinHashIndex similarityIndex = this.similarityIndex;
+		if ((similarityIndex == null) && this.similarityIndexEnabled)
+			throw new FindFailedException("Similarity search is not available at this time", true);
+		else if (similarityIndex == null)
+			throw new IOException("Similarity search not available.");
+		MinHashIndex.Match[] matches = ((id == null) ? similarityIndex.findSimilar(this.getClusteringString(text), threshold, limit) : similarityIndex.findSimilarTo(id, threshold, limit));
+		if (matches == null)
+			throw new IOException("Invalid string ID: " + id);
+		
+		//	load matching strings, and restore order by similarity
+		String[] ids = new String[matches.length];
+		for (int m = 0; m < matches.length; m++)
+			ids[m] = matches[m].id;
+		InternalPooledStringIterator matchStrings = this.getInternalStrings(ids);
+		this.apiCallCountTotal--; // compensate for incrementing in get method
+		this.apiCallCountGet--;
+		HashMap stringsById = new HashMap();
+		try {
+			while (matchStrings.hasNextString()) {
+				InternalPooledString string = matchStrings.getNextString();
+				stringsById.put(string.id, string);
+			}
+		}
+		finally {
+			matchStrings.close();
+		}
+		ArrayList strings = new ArrayList(ids.length);
+		for (int i = 0; i < ids.length; i++) {
+			Object string = stringsById.get(ids[i]);
+			if (string != null)
+				strings.add(string);
+		}
+		return new ListParsedStringIterator(strings);
+	}
+	
+	/*
+	 * Find strings. If a plan buffer is given, it receives a description of
+	 * how the query was answered, i.e., which access paths were used in which
+	 * order, with the (estimated) number of matching strings for each, and
+	 * which predicates were left to SQL. Loading strings into memory stops
+	 * once the argument time budget is used up, returning a result flagged as
+	 * truncated, which is not cached; streamed results are left to the caller
+	 * to cut off.
+	 */
+	private InternalPooledStringIterator findInternalStrings(String[] fullTextQueryPredicates, boolean disjunctive, String matchMode, boolean rankByRelevance, int limit, boolean selfCanonicalOnly, Properties detailPredicates, FindCursor cursor, FindBudget budget, StringBuffer plan) throws IOException {
 		this.apiCallCountTotal++;
 		this.apiCallCountFind++;
+		if (plan == null)
+			plan = new StringBuffer();
+		
+		//	match substrings by default, word matching is an explicit choice, as it changes which strings match
+		if (matchMode == null)
+			matchMode = SUBSTRING_MATCH_MODE;
+		
+		//	check cache, using write generation from before query to not cache results older than the generation (pages are cheap to compute)
+		String cacheKey = ((cursor == null) ? FindResultCache.getKey(fullTextQueryPredicates, disjunctive, matchMode, rankByRelevance, limit, selfCanonicalOnly, detailPredicates) : null);
+		long generation = this.writeGeneration.get();
+		ArrayList cachedResult = ((cacheKey == null) ? null : this.findResultCache.get(cacheKey, generation));
+		if (cachedResult != null) {
+			plan.append("cache(" + cachedResult.size() + ")");
+			return new ListParsedStringIterator(cachedResult);
+		}
+		
+		//	match substrings and regular expressions against trigram index if available
+		boolean substringMatch = SUBSTRING_MATCH_MODE.equals(matchMode);
+		boolean regExMatch = REGEX_MATCH_MODE.equals(matchMode);
+		boolean tokenMatch = TOKEN_MATCH_MODE.equals(matchMode);
+		String[] indexMatchIds = null;
+		if ((substringMatch || regExMatch) && (fullTextQueryPredicates != null)) {
+			TrigramIndex trigramIndex = this.trigramIndex;
+			if (trigramIndex != null)
+				indexMatchIds = this.findTrigramMatches(trigramIndex, fullTextQueryPredicates, disjunctive, regExMatch, budget);
+			else if (regExMatch)
+				throw new FindFailedException("Regular expression search is not available at this time", true);
+		}
+		
+		//	match tokens against search engine if available, ranking right away if requested
+		String[] searchEnginePredicates = null;
+		if ((indexMatchIds == null) && tokenMatch && (fullTextQueryPredicates != null) && this.searchEngineReady)
+			searchEnginePredicates = this.getSearchEnginePredicates(fullTextQueryPredicates);
+		Bm25Scorer.TopScores rankedIndexMatches = null;
+		if ((searchEnginePredicates != null) && rankByRelevance) {
+			rankedIndexMatches = this.searchEngine.findTopRanked(searchEnginePredicates, disjunctive, limit, cursor);
+			indexMatchIds = getIds(rankedIndexMatches);
+		}
+		else if (searchEnginePredicates != null)
+			indexMatchIds = this.searchEngine.find(searchEnginePredicates, disjunctive);
+		boolean fullTextIndexMatched = (indexMatchIds != null);
+		
+		//	page through ranked results only with the search engine, as ranking in memory would have to load and rank all matches for every page
+		if (rankByRelevance && (cursor != null) && (rankedIndexMatches == null)) {
+			if (tokenMatch && (this.searchEngine != null) && (fullTextQueryPredicates != null))
+				throw new FindFailedException("Paging by relevance is not available at this time", true);
+			else throw new IOException("Paging by relevance requires token match mode and the search engine");
+		}
+		if (fullTextIndexMatched)
+			plan.append(((searchEnginePredicates == null) ? "trigram" : "engine") + "(" + indexMatchIds.length + ")");
+		
+		//	look up strings for identifier predicates, most selective first, as long as estimates promise small ID sets
+		HashSet identifierMatchIds = null;
+		HashSet lookedUpDetailNames = new HashSet();
+		IdentifierLookup[] identifierLookups = this.getIdentifierLookups(detailPredicates);
+		for (int l = 0; l < identifierLookups.length; l++) {
+			int candidateCount = ((identifierMatchIds == null) ? ((indexMatchIds == null) ? Integer.MAX_VALUE : indexMatchIds.length) : identifierMatchIds.size());
+			if ((identifierLookups[l].estimate > this.maxPlannedIdSetSize) || (identifierLookups[l].estimate >= candidateCount))
+				break;
+			String[] lookupIds = this.findIdentifierMatches(identifierLookups[l]);
+			lookedUpDetailNames.add(identifierLookups[l].detailName);
+			if (identifierMatchIds == null)
+				identifierMatchIds = new HashSet(Arrays.asList(lookupIds));
+			else identifierMatchIds.retainAll(Arrays.asList(lookupIds));
+			plan.append(((plan.length() == 0) ? "" : " & ") + "identifier:" + identifierLookups[l].type + (identifierLookups[l].exact ? "=" : "~") + "(est " + identifierLookups[l].estimate + ", got " + lookupIds.length + ")");
+			if (identifierMatchIds.isEmpty())
+				break;
+		}
+		if (identifierMatchIds != null)
+			indexMatchIds = ((indexMatchIds == null) ? ((String[]) identifierMatchIds.toArray(new String[identifierMatchIds.size()])) : restrictIds(indexMatchIds, identifierMatchIds));
+		
+		//	sort unranked index matches by ID for paging (re-using the ones of the preceding page if nothing was written since), and skip over previous pages
+		if ((indexMatchIds != null) && (cursor != null) && !rankByRelevance) {
+			String pageKey = FindResultCache.getKey(fullTextQueryPredicates, disjunctive, matchMode, false, 0, selfCanonicalOnly, detailPredicates);
+			ArrayList sortedMatchIds = ((cursor.generation == generation) ? this.pagedMatchIdCache.get(pageKey, generation) : null);
+			if (sortedMatchIds == null) {
+				Arrays.sort(indexMatchIds);
+				sortedMatchIds = new ArrayList(Arrays.asList(indexMatchIds));
+				if (!budget.isExhausted())
+					this.pagedMatchIdCache.put(pageKey, generation, sortedMatchIds);
+			}
+			else plan.append(" & sorted(cached)");
+			int first = ((cursor.lastId == null) ? 0 : Collections.binarySearch(sortedMatchIds, cursor.lastId));
+			first = ((first < 0) ? -(first + 1) : (first + ((cursor.lastId == null) ? 0 : 1)));
+			indexMatchIds = ((String[]) sortedMatchIds.subList(first, sortedMatchIds.size()).toArray(new String[sortedMatchIds.size() - first]));
+		}
 		
 		StringBuffer where = new StringBuffer(disjunctive ? "(1=0" : "(1=1");
-		if (fullTextQueryPredicates != null)
+		ArrayList sqlFilters = new ArrayList();
+		if ((fullTextQueryPredicates != null) && !fullTextIndexMatched)
 			for (int q = 0; q < fullTextQueryPredicates.length; q++) {
 				if ((fullTextQueryPredicates[q].length() == 0) || fullTextQueryPredicates[q].matches("[\\s\\%]++"))
 					continue;
-				where.append(" " + (disjunctive ? "OR" : "AND") + " lower(data." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextQueryPredicates[q].toLowerCase()) + "%'");
+				
+				//	match against folded search strings, and also against lower case plain strings while search strings are still being written
+				if (this.tokenIndexComplete)
+					where.append(" " + (disjunctive ? "OR" : "AND") + " (data." + SEARCH_STRING_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(this.getSearchString(fullTextQueryPredicates[q])) + "%'");
+				else where.append(" " + (disjunctive ? "OR" : "AND") + " ((data." + SEARCH_STRING_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(this.getSearchString(fullTextQueryPredicates[q])) + "%' OR lower(data." + STRING_TEXT_COLUMN_NAME + ") LIKE '%" + EasyIO.prepareForLIKE(fullTextQueryPredicates[q].toLowerCase()) + "%')");
+				sqlFilters.add((this.tokenIndexComplete && tokenMatch) ? "folded+tokens" : (this.tokenIndexComplete ? "folded" : "folded|text"));
+				
+				//	in token match mode, narrow down to strings containing tokens starting with the predicate tokens, substring match remains as filter
+				if (this.tokenIndexComplete && tokenMatch)
+					for (Iterator tit = getIndexTokens(this.getSearchString(fullTextQueryPredicates[q])).iterator(); tit.hasNext();) {
+						String token = ((String) tit.next());
+						if (token.length() < 3)
+							continue; // prefixes this short select too many strings to narrow down anything
+						where.append(" AND data." + STRING_ID_HASH_COLUMN_NAME + " IN (" +
+								"SELECT tok." + STRING_ID_HASH_COLUMN_NAME + 
+								" FROM " + this.parsedStringTokenTableName + " tok" + 
+								" WHERE tok." + TOKEN_COLUMN_NAME + " LIKE '" + EasyIO.prepareForLIKE(token) + "%'" +
+								")");
+					}
+				where.append(")");
 			}
 		where.append(")");
 		if (disjunctive && (where.length() < 6))
@@ -2229,14 +5299,18 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		boolean indexPredicates = false;
 		boolean identifierPredicates = false;
 		String type = detailPredicates.getProperty(TYPE_PARAMETER);
-		if (type != null)
+		if (type != null) {
 			where.append(" AND (data." + STRING_TYPE_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(type) + "%')");
+			sqlFilters.add("type");
+		}
 		String user = detailPredicates.getProperty(USER_PARAMETER);
-		if (user != null)
+		if (user != null) {
 			where.append(" AND ((data." + CREATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%') OR (data." + UPDATE_USER_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(user) + "%'))");
+			sqlFilters.add("user");
+		}
 		for (Iterator dpit = detailPredicates.keySet().iterator(); dpit.hasNext();) {
 			String detailName = ((String) dpit.next());
-			if (STRING_TYPE_COLUMN_NAME.equals(detailName) || TYPE_PARAMETER.equals(detailName) || USER_PARAMETER.equals(detailName))
+			if (STRING_TYPE_COLUMN_NAME.equals(detailName) || TYPE_PARAMETER.equals(detailName) || USER_PARAMETER.equals(detailName) || lookedUpDetailNames.contains(detailName))
 				continue;
 			String detailValue = detailPredicates.getProperty(detailName);
 			if ((detailValue == null) || (detailValue.length() == 0) || detailValue.matches("[\\s\\%]++"))
@@ -2245,20 +5319,41 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 				where.append(" AND (ids." + ID_TYPE_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(this.indexCaseSensitive() ? detailName.substring("ID-".length()) : detailName.substring("ID-".length()).toLowerCase()) + "%')");
 				where.append(" AND (ids." + ID_VALUE_COLUMN_NAME + " LIKE '" + EasyIO.prepareForLIKE(this.indexCaseSensitive() ? detailValue : detailValue.toLowerCase()) + "')");
 				identifierPredicates = true;
+				sqlFilters.add("identifier:" + detailName.substring("ID-".length()));
+			}
+			else if (detailName.startsWith("F-")) {
+				if (!this.fieldIndexComplete)
+					throw new FindFailedException("Field search is not available at this time", true);
+				where.append(" AND (data." + STRING_ID_COLUMN_NAME + " IN (" + this.getFieldMatchQuery(detailName.substring("F-".length()), detailValue) + "))");
+				sqlFilters.add("field:" + detailName.substring("F-".length()));
 			}
 			else {
 				where.append(" AND (idx." + detailName + " LIKE '%" + EasyIO.prepareForLIKE(this.indexCaseSensitive() ? detailValue : detailValue.toLowerCase()) + "%')");
 				indexPredicates = true;
+				sqlFilters.add("index:" + detailName);
 			}
 		}
 		
 		//	catch empty predicates
-		if (where.length() < 6)
+		if ((where.length() < 6) && (indexMatchIds == null))
 			throw new IOException("Invalid query");
 		
-		//	filter out strings that are not self-canonical
-		if (selfCanonicalOnly)
+		//	filter out strings that are not self-canonical (the OR is harmless as a filter on rows selected by other predicates)
+		if (selfCanonicalOnly) {
 			where.append(" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = data." + CANONICAL_STRING_ID_HASH_COLUMN_NAME + " OR data." + CANONICAL_STRING_ID_COLUMN_NAME + " = '')");
+			sqlFilters.add("sco");
+		}
+		
+		//	describe how rows are fetched, and which predicates SQL evaluates on them
+		plan.append(((plan.length() == 0) ? "" : " -> ") + ((indexMatchIds == null) ? "sql" : ("fetch-by-id(" + indexMatchIds.length + ")")));
+		if (sqlFilters.size() != 0)
+			plan.append(" filter(" + sqlFilters.toString().substring(1, (sqlFilters.toString().length() - 1)) + ")");
+		if (rankByRelevance)
+			plan.append(" -> rank");
+		
+		//	skip over previous pages of unranked result
+		if ((cursor != null) && (cursor.lastId != null) && !rankByRelevance)
+			where.append(" AND (data." + STRING_ID_COLUMN_NAME + " > '" + EasyIO.sqlEscape(cursor.lastId) + "')");
 		
 		//	assemble query
 		String query;
@@ -2305,14 +5400,73 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 						" AND (data." + STRING_ID_HASH_COLUMN_NAME + " = ids." + STRING_ID_HASH_COLUMN_NAME + ")" +
 						" AND (data." + STRING_ID_COLUMN_NAME + " = ids." + STRING_ID_COLUMN_NAME + ")"
 					) : "") +
-				" AND " + where + 
-				((limit > 0) ? (" LIMIT " + limit) : "") + 
-				";";
+				" AND " + where;
+		
+		//	full text predicates only, no need for join
+		else query = "SELECT " + fields +
+				" FROM " + this.parsedStringTableName + " data" +
+				" WHERE " + where;
+		
+		//	load strings matched in trigram index or search engine
+		if (indexMatchIds != null) {
+			ArrayList strings;
+			double[] scores = null;
+			if (rankedIndexMatches != null) {
+				strings = this.loadIndexMatches(query, indexMatchIds, limit, budget);
+				
+				//	rank deeper if other predicates filtered out top ranked strings
+				String[] rankedIds = getIds(rankedIndexMatches);
+				for (int top = limit; (limit > 0) && (strings.size() < limit) && (rankedIds.length == top) && !budget.isExhausted();) {
+					top *= 4;
+					rankedIndexMatches = this.searchEngine.findTopRanked(searchEnginePredicates, disjunctive, top, cursor);
+					rankedIds = getIds(rankedIndexMatches);
+					indexMatchIds = ((identifierMatchIds == null) ? rankedIds : restrictIds(rankedIds, identifierMatchIds));
+					strings = this.loadIndexMatches(query, indexMatchIds, limit, budget);
+				}
+				scores = getScores(strings, rankedIds, rankedIndexMatches.getScores());
+			}
+			else if (rankByRelevance) {
+				ArrayList matches = this.loadIndexMatches(query, indexMatchIds, this.maxRankedStrings, budget);
+				Bm25Scorer.TopScores rankedStrings = this.rankStrings(matches, fullTextQueryPredicates, limit, cursor);
+				if ((this.maxRankedStrings > 0) && (matches.size() >= this.maxRankedStrings))
+					return this.getRankCappedStrings(rankedStrings, plan);
+				strings = rankedStrings.getObjects();
+				scores = rankedStrings.getScores();
+			}
+			else if (limit < 1)
+				return new CachingParsedStringIterator(new IndexMatchStringIterator(query, indexMatchIds), cacheKey, generation);
+			else strings = this.loadIndexMatches(query, indexMatchIds, limit, budget);
+			return this.getLoadedStrings(strings, cacheKey, cursor, generation, limit, scores, budget, plan);
+		}
 		
-		//	full text predicates only, no need for join
-		else query = "SELECT " + fields +
-				" FROM " + this.parsedStringTableName + " data" +
-				" WHERE " + where + 
+		//	rank strings matched in database (up to maximum) if requested
+		if (rankByRelevance) {
+			query = query + 
+					((this.maxRankedStrings > 0) ? (" LIMIT " + this.maxRankedStrings) : "") + 
+					";";
+			ArrayList matches = this.loadMatches(query, budget);
+			Bm25Scorer.TopScores rankedStrings = this.rankStrings(matches, fullTextQueryPredicates, limit, cursor);
+			if ((this.maxRankedStrings > 0) && (matches.size() >= this.maxRankedStrings))
+				return this.getRankCappedStrings(rankedStrings, plan);
+			return this.getLoadedStrings(rankedStrings.getObjects(), cacheKey, cursor, generation, limit, rankedStrings.getScores(), budget, plan);
+		}
+		
+		//	load page of unranked result in ID order
+		if (cursor != null) {
+			query = query + 
+					" ORDER BY data." + STRING_ID_COLUMN_NAME + 
+					((limit > 0) ? (" LIMIT " + limit) : "") + 
+					";";
+			return this.getLoadedStrings(this.loadMatches(query, budget), null, cursor, generation, limit, null, budget, plan);
+		}
+		
+		//	don't even start streaming if index lookups used up the time budget
+		if (budget.isExhausted()) {
+			this.apiCallCountAborted++;
+			plan.append(" -> truncated");
+			return new ListParsedStringIterator(new ArrayList(), null, true);
+		}
+		query = query + 
 				((limit > 0) ? (" LIMIT " + limit) : "") + 
 				";";
 		
@@ -2328,7 +5482,410 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 			System.out.println("  query was " + query);
 		}
 		System.out.println("StringPoolServlet: search result wrapped");
-		return new SqlParsedStringIterator(sqr, 'O');
+		if (sqr == null)
+			return new SqlParsedStringIterator(sqr, 'O');
+		return new CachingParsedStringIterator(new SqlParsedStringIterator(sqr, 'O'), cacheKey, generation);
+	}
+	
+	/*
+	 * Assemble the sub query selecting the IDs of the strings matching a field
+	 * predicate. Values of the form 'from..to' (either bound optional) match
+	 * the numbers of field values as a range, values ending with an asterisk
+	 * match field values as a prefix, and any other value matches exactly.
+	 */
+	private String getFieldMatchQuery(String fieldName, String value) throws IOException {
+		String valuePredicate;
+		int rangeSplit = value.indexOf("..");
+		if (rangeSplit != -1) try {
+			String from = value.substring(0, rangeSplit).trim();
+			String to = value.substring(rangeSplit + "..".length()).trim();
+			valuePredicate = (FIELD_NUMBER_COLUMN_NAME + " IS NOT NULL" +
+					((from.length() == 0) ? "" : (" AND " + FIELD_NUMBER_COLUMN_NAME + " >= " + Long.parseLong(from))) +
+					((to.length() == 0) ? "" : (" AND " + FIELD_NUMBER_COLUMN_NAME + " <= " + Long.parseLong(to))));
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid range for field " + fieldName + ": " + value);
+		}
+		else if (value.endsWith("*"))
+			valuePredicate = (FIELD_VALUE_COLUMN_NAME + " LIKE '" + EasyIO.prepareForLIKE(normalizeFieldValue(value.substring(0, (value.length() - 1)), this.indexCaseSensitive())) + "%'");
+		else valuePredicate = (FIELD_VALUE_COLUMN_NAME + " = '" + EasyIO.sqlEscape(normalizeFieldValue(value, this.indexCaseSensitive())) + "'");
+		return ("SELECT " + STRING_ID_COLUMN_NAME + 
+				" FROM " + this.parsedStringFieldTableName + 
+				" WHERE " + FIELD_NAME_COLUMN_NAME + " = '" + EasyIO.sqlEscape(fieldName) + "'" + 
+					" AND " + valuePredicate);
+	}
+	
+	/*
+	 * Match full text predicates against the trigram index. Substring
+	 * predicates are prepared for LIKE just as for the database, so spaces and
+	 * quotes match any sequence of characters either way. Verification of
+	 * candidates stops once the time budget is exhausted, leaving the result
+	 * to be flagged as truncated.
+	 */
+	private String[] findTrigramMatches(TrigramIndex trigramIndex, String[] fullTextQueryPredicates, boolean disjunctive, boolean regExMatch, FindBudget budget) throws IOException {
+		int[] docs = null;
+		for (int q = 0; (q < fullTextQueryPredicates.length) && !budget.isExhausted(); q++) {
+			if ((fullTextQueryPredicates[q].length() == 0) || (!regExMatch && fullTextQueryPredicates[q].matches("[\\s\\%]++")))
+				continue;
+			int[] predicateDocs;
+			try {
+				predicateDocs = (regExMatch ? trigramIndex.findRegEx(this.getFoldedText(fullTextQueryPredicates[q]), budget.deadline) : trigramIndex.findLike(EasyIO.prepareForLIKE(this.getFoldedText(fullTextQueryPredicates[q])), budget.deadline));
+			}
+			catch (PatternSyntaxException pse) {
+				throw new IOException("Invalid regular expression: " + fullTextQueryPredicates[q]);
+			}
+			catch (IllegalArgumentException iae) {
+				throw new IOException("Regular expression too complex: " + fullTextQueryPredicates[q]);
+			}
+			if (docs == null)
+				docs = predicateDocs;
+			else docs = (disjunctive ? TrigramIndex.union(docs, predicateDocs) : TrigramIndex.intersect(docs, predicateDocs));
+		}
+		return ((docs == null) ? null : trigramIndex.getIds(docs));
+	}
+	
+	private String[] getSearchEnginePredicates(String[] fullTextQueryPredicates) {
+		ArrayList predicates = new ArrayList();
+		for (int q = 0; q < fullTextQueryPredicates.length; q++) {
+			if ((fullTextQueryPredicates[q].length() != 0) && !fullTextQueryPredicates[q].matches("[\\s\\%]++"))
+				predicates.add(EasyIO.prepareForLIKE(this.getFoldedText(fullTextQueryPredicates[q])));
+		}
+		return (predicates.isEmpty() ? null : ((String[]) predicates.toArray(new String[predicates.size()])));
+	}
+	
+	/*
+	 * Reduce an array of string IDs to those contained in a set, preserving
+	 * their order.
+	 */
+	private static String[] restrictIds(String[] ids, HashSet allowedIds) {
+		ArrayList restrictedIds = new ArrayList();
+		for (int i = 0; i < ids.length; i++) {
+			if (allowedIds.contains(ids[i]))
+				restrictedIds.add(ids[i]);
+		}
+		return ((String[]) restrictedIds.toArray(new String[restrictedIds.size()]));
+	}
+	
+	/*
+	 * Plan lookups for identifier predicates, sorted by ascending estimated
+	 * number of matching strings. Values without wildcards result in exact
+	 * lookups, values with wildcards after a literal prefix in prefix lookups,
+	 * both of which can use the index on the value column. Values starting
+	 * with a wildcard are left to SQL. The estimates are based on the number
+	 * of identifiers and distinct values per type, and are exact for unique
+	 * identifiers.
+	 */
+	private IdentifierLookup[] getIdentifierLookups(Properties detailPredicates) {
+		ArrayList lookups = new ArrayList();
+		HashMap identifierTypeStatistics = this.identifierTypeStatistics;
+		for (Iterator dpit = detailPredicates.keySet().iterator(); dpit.hasNext();) {
+			String detailName = ((String) dpit.next());
+			if (!detailName.startsWith("ID-"))
+				continue;
+			String detailValue = detailPredicates.getProperty(detailName);
+			if ((detailValue == null) || (detailValue.length() == 0) || detailValue.matches("[\\s\\%]++"))
+				continue;
+			String type = (this.indexCaseSensitive() ? detailName.substring("ID-".length()) : detailName.substring("ID-".length()).toLowerCase());
+			String valuePattern = EasyIO.prepareForLIKE(this.indexCaseSensitive() ? detailValue : detailValue.toLowerCase());
+			String prefix = valuePattern.replaceAll("[\\%\\_].*", "");
+			boolean exact = (prefix.length() == valuePattern.length());
+			if (prefix.length() == 0)
+				continue; // leading wildcard, leave to SQL
+			
+			//	sum up statistics of matching types, assuming unique identifiers if statistics not loaded (yet)
+			int estimate = 1;
+			if (identifierTypeStatistics != null) {
+				int identifiers = 0;
+				int values = 0;
+				for (Iterator tit = identifierTypeStatistics.keySet().iterator(); tit.hasNext();) {
+					String statisticsType = ((String) tit.next());
+					if (statisticsType.toLowerCase().indexOf(type.toLowerCase()) == -1)
+						continue;
+					int[] statistics = ((int[]) identifierTypeStatistics.get(statisticsType));
+					identifiers += statistics[0];
+					values += statistics[1];
+				}
+				if (identifiers == 0)
+					estimate = 0;
+				else if (exact)
+					estimate = Math.max(1, ((identifiers + values - 1) / values));
+				else estimate = Math.max(1, (identifiers / Math.max(1, (values / Math.max(1, prefix.length())))));
+			}
+			else if (!exact)
+				estimate = Integer.MAX_VALUE; // no telling how many values share a prefix
+			lookups.add(new IdentifierLookup(detailName, type, valuePattern, exact, estimate));
+		}
+		IdentifierLookup[] identifierLookups = ((IdentifierLookup[]) lookups.toArray(new IdentifierLookup[lookups.size()]));
+		Arrays.sort(identifierLookups, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				return (((IdentifierLookup) obj1).estimate - ((IdentifierLookup) obj2).estimate);
+			}
+		});
+		return identifierLookups;
+	}
+	
+	private String[] findIdentifierMatches(IdentifierLookup lookup) throws IOException {
+		String query = "SELECT DISTINCT " + STRING_ID_COLUMN_NAME + 
+				" FROM " + this.parsedStringIdentifierTableName + 
+				" WHERE " + ID_VALUE_COLUMN_NAME + (lookup.exact ? (" = '" + lookup.valuePattern + "'") : (" LIKE '" + lookup.valuePattern + "'")) + 
+					" AND " + ID_TYPE_COLUMN_NAME + " LIKE '%" + EasyIO.prepareForLIKE(lookup.type) + "%'" + 
+				";";
+		ArrayList ids = new ArrayList();
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				ids.add(sqr.getString(0));
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while looking up identifiers.");
+			System.out.println("  query was " + query);
+			throw new FindFailedException("Error loading search result", false);
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		return ((String[]) ids.toArray(new String[ids.size()]));
+	}
+	
+	private void loadIdentifierStatistics() {
+		HashMap identifierTypeStatistics = new HashMap();
+		String query = "SELECT " + ID_TYPE_COLUMN_NAME + ", count(*), count(DISTINCT " + ID_VALUE_COLUMN_NAME + ")" + 
+				" FROM " + this.parsedStringIdentifierTableName + 
+				" GROUP BY " + ID_TYPE_COLUMN_NAME + 
+				";";
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			while (sqr.next())
+				identifierTypeStatistics.put(sqr.getString(0), new int[] {Integer.parseInt(sqr.getString(1)), Integer.parseInt(sqr.getString(2))});
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading identifier statistics.");
+			System.out.println("  query was " + query);
+			return;
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		this.identifierTypeStatistics = identifierTypeStatistics;
+	}
+	
+	private ArrayList loadMatches(String query, FindBudget budget) throws IOException {
+		ArrayList strings = new ArrayList();
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(query);
+			SqlParsedStringIterator matchStrings = new SqlParsedStringIterator(sqr, 'O');
+			while (!budget.isExhausted() && matchStrings.hasNextString())
+				strings.add(matchStrings.getNextString());
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while searching strings.");
+			System.out.println("  query was " + query);
+			throw new FindFailedException("Error loading search result", false);
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		return strings;
+	}
+	
+	private static String[] getIds(Bm25Scorer.TopScores rankedIds) {
+		ArrayList ids = rankedIds.getObjects();
+		return ((String[]) ids.toArray(new String[ids.size()]));
+	}
+	
+	private static double[] getScores(ArrayList strings, String[] rankedIds, double[] rankedScores) {
+		HashMap scoresById = new HashMap();
+		for (int i = 0; i < rankedIds.length; i++)
+			scoresById.put(rankedIds[i], new Double(rankedScores[i]));
+		double[] scores = new double[strings.size()];
+		for (int s = 0; s < strings.size(); s++)
+			scores[s] = ((Double) scoresById.get(((InternalPooledString) strings.get(s)).id)).doubleValue();
+		return scores;
+	}
+	
+	/*
+	 * Wrap strings loaded into memory, caching them and producing the cursor
+	 * for the next page if the result is complete, and flagging the result as
+	 * truncated otherwise.
+	 */
+	private InternalPooledStringIterator getLoadedStrings(ArrayList strings, String cacheKey, FindCursor cursor, long generation, int limit, double[] scores, FindBudget budget, StringBuffer plan) {
+		if (budget.exhausted) {
+			this.apiCallCountAborted++;
+			System.out.println("StringPoolServlet: search cut off after exceeding time budget while loading strings");
+			plan.append(" -> truncated");
+			return new ListParsedStringIterator(strings, null, true);
+		}
+		if (cacheKey != null)
+			this.findResultCache.put(cacheKey, generation, strings);
+		return new ListParsedStringIterator(strings, getNextCursor(cursor, generation, limit, strings, scores));
+	}
+	
+	/*
+	 * Wrap up a result ranked in memory from only the first maxRankedStrings
+	 * matches in database order. More relevant strings may be among the
+	 * matches left out, so the result is flagged as truncated, and not cached.
+	 */
+	private InternalPooledStringIterator getRankCappedStrings(Bm25Scorer.TopScores rankedStrings, StringBuffer plan) {
+		plan.append(" -> rank-capped(" + this.maxRankedStrings + ")");
+		return new ListParsedStringIterator(rankedStrings.getObjects(), null, true);
+	}
+	
+	/*
+	 * Produce the cursor for the page following the argument one, or null if
+	 * the argument page is the last one.
+	 */
+	private static String getNextCursor(FindCursor cursor, long generation, int limit, ArrayList strings, double[] scores) {
+		if ((cursor == null) || (limit < 1) || (strings.size() < limit))
+			return null;
+		InternalPooledString lastString = ((InternalPooledString) strings.get(strings.size() - 1));
+		return new FindCursor(generation, ((scores == null) ? Double.NaN : scores[scores.length - 1]), lastString.id).encode();
+	}
+	
+	/*
+	 * Load the strings with the argument IDs that also match the argument
+	 * query, in the order of the IDs.
+	 */
+	private ArrayList loadIndexMatches(String query, String[] ids, int limit, FindBudget budget) throws IOException {
+		ArrayList strings = new ArrayList();
+		for (int i = 0; (i < ids.length) && ((limit < 1) || (strings.size() < limit)) && !budget.isExhausted(); i += INDEX_MATCH_CHUNK_SIZE) {
+			ArrayList chunkStrings = this.loadIndexMatchChunk(query, ids, i);
+			for (int s = 0; (s < chunkStrings.size()) && ((limit < 1) || (strings.size() < limit)); s++)
+				strings.add(chunkStrings.get(s));
+		}
+		return strings;
+	}
+	
+	private static final int INDEX_MATCH_CHUNK_SIZE = 256;
+	
+	/*
+	 * Load the strings with the IDs in the chunk starting at the argument
+	 * index that also match the argument query, in the order of the IDs.
+	 */
+	private ArrayList loadIndexMatchChunk(String query, String[] ids, int start) throws IOException {
+		int end = Math.min(ids.length, (start + INDEX_MATCH_CHUNK_SIZE));
+		StringBuffer idList = new StringBuffer();
+		for (int d = start; d < end; d++) {
+			if (d != start)
+				idList.append(", ");
+			idList.append("'" + EasyIO.sqlEscape(ids[d]) + "'");
+		}
+		String idQuery = query + 
+				" AND data." + STRING_ID_COLUMN_NAME + " IN (" + idList.toString() + ")" + 
+				";";
+		HashMap idStringsById = new HashMap();
+		SqlQueryResult sqr = null;
+		try {
+			sqr = this.io.executeSelectQuery(idQuery);
+			SqlParsedStringIterator idStrings = new SqlParsedStringIterator(sqr, 'O');
+			while (idStrings.hasNextString()) {
+				InternalPooledString idString = idStrings.getNextString();
+				idStringsById.put(idString.id, idString);
+			}
+		}
+		catch (SQLException sqle) {
+			System.out.println("ParsedStringPool: " + sqle.getClass().getName() + " (" + sqle.getMessage() + ") while loading index matches.");
+			System.out.println("  query was " + idQuery);
+			throw new FindFailedException("Error loading search result", false);
+		}
+		finally {
+			if (sqr != null)
+				sqr.close();
+		}
+		ArrayList strings = new ArrayList();
+		for (int d = start; d < end; d++) {
+			Object idString = idStringsById.remove(ids[d]);
+			if (idString != null)
+				strings.add(idString);
+		}
+		return strings;
+	}
+	
+	/*
+	 * Iterator streaming the strings with the argument IDs that also match the
+	 * argument query, loading them one chunk of IDs at a time, in the order of
+	 * the IDs. The first chunk loads right away, so failures to load it show
+	 * as an exception; if loading a later chunk fails, the result ends there
+	 * and is flagged as truncated.
+	 */
+	private class IndexMatchStringIterator extends InternalPooledStringIterator {
+		private String query;
+		private String[] ids;
+		private int nextChunkStart = 0;
+		private LinkedList strings = new LinkedList();
+		private boolean failed = false;
+		IndexMatchStringIterator(String query, String[] ids) throws IOException {
+			this.query = query;
+			this.ids = ids;
+			while (this.strings.isEmpty() && (this.nextChunkStart < this.ids.length))
+				this.loadNextChunk();
+		}
+		private void loadNextChunk() throws IOException {
+			int start = this.nextChunkStart;
+			this.nextChunkStart += INDEX_MATCH_CHUNK_SIZE;
+			this.strings.addAll(loadIndexMatchChunk(this.query, this.ids, start));
+		}
+		boolean hasNextString() {
+			while (this.strings.isEmpty() && !this.failed && (this.nextChunkStart < this.ids.length)) try {
+				this.loadNextChunk();
+			}
+			catch (IOException ioe) {
+				this.failed = true;
+			}
+			return !this.strings.isEmpty();
+		}
+		InternalPooledString getNextString() {
+			return (this.hasNextString() ? ((InternalPooledString) this.strings.removeFirst()) : null);
+		}
+		void close() {
+			this.nextChunkStart = this.ids.length;
+			this.strings.clear();
+		}
+		boolean isTruncated() {
+			return this.failed;
+		}
+	}
+	
+	/*
+	 * Rank strings by their BM25 score for the tokens of the argument full
+	 * text predicates, using the strings themselves for collection statistics.
+	 * If a cursor is given, only strings sorting after it are retained.
+	 */
+	private Bm25Scorer.TopScores rankStrings(ArrayList strings, String[] fullTextQueryPredicates, int limit, FindCursor cursor) {
+		TreeSet queryTokenSet = new TreeSet();
+		for (int q = 0; (fullTextQueryPredicates != null) && (q < fullTextQueryPredicates.length); q++)
+			queryTokenSet.addAll(getIndexTokens(this.getFoldedText(fullTextQueryPredicates[q])));
+		String[] queryTokens = ((String[]) queryTokenSet.toArray(new String[queryTokenSet.size()]));
+		
+		//	compute term frequencies and statistics
+		Bm25Scorer counter = new Bm25Scorer(queryTokens, new int[queryTokens.length], 0, 1);
+		int[][] tfs = new int[strings.size()][];
+		int[] docFreqs = new int[queryTokens.length];
+		long totalLength = 0;
+		for (int s = 0; s < strings.size(); s++) {
+			tfs[s] = counter.getTermFrequencies(this.getFoldedText(((InternalPooledString) strings.get(s)).stringPlain));
+			for (int t = 0; t < queryTokens.length; t++) {
+				if (tfs[s][t] != 0)
+					docFreqs[t]++;
+			}
+			totalLength += tfs[s][queryTokens.length];
+		}
+		
+		//	score strings and collect top ones
+		Bm25Scorer scorer = new Bm25Scorer(queryTokens, docFreqs, strings.size(), (strings.isEmpty() ? 1 : (((double) totalLength) / strings.size())));
+		Bm25Scorer.TopScores topStrings = new Bm25Scorer.TopScores(limit);
+		for (int s = 0; s < strings.size(); s++) {
+			InternalPooledString string = ((InternalPooledString) strings.get(s));
+			double score = scorer.score(tfs[s]);
+			if ((cursor == null) || cursor.isBefore(score, string.id))
+				topStrings.offer(string, string.id, score);
+		}
+		return topStrings;
 	}
 	
 	/*
@@ -2359,6 +5916,13 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	private InternalPooledStringIterator getStringRssFeed(int top) throws IOException {
 		this.apiCallCountTotal++;
 		this.apiCallCountRss++;
+		
+		//	use in-memory ring once loaded
+		synchronized (this.recentStrings) {
+			if (this.recentStringsLoaded && (top <= this.recentStrings.getCapacity()))
+				return new ListParsedStringIterator(this.recentStrings.getLatest(top));
+		}
+		
 		String query = "SELECT " + STRING_ID_COLUMN_NAME + ", " + CREATE_TIME_COLUMN_NAME + ", " + UPDATE_TIME_COLUMN_NAME + ", " + STRING_TEXT_COLUMN_NAME +  
 				" FROM " + this.parsedStringTableName +
 				" ORDER BY " + CREATE_TIME_COLUMN_NAME + " DESC" +
@@ -2379,6 +5943,12 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	private int countInternal(long since) throws IOException {
 		this.apiCallCountTotal++;
 		this.apiCallCountCount++;
+		
+		//	use in-memory counter once loaded
+		CreateTimeCounter stringCounter = this.stringCounter;
+		if (stringCounter != null)
+			return stringCounter.count(since);
+		
 		String query = "SELECT count(*)" +   
 				" FROM " + this.parsedStringTableName +
 				((since < 1) ? "" : (" WHERE " + CREATE_TIME_COLUMN_NAME + " > " + since)) +
@@ -2405,6 +5975,12 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	private int clusterCountInternal(long since) throws IOException {
 		this.apiCallCountTotal++;
 		this.apiCallCountClusterCount++;
+		
+		//	use in-memory counter once loaded
+		CreateTimeCounter stringClusterCounter = this.stringClusterCounter;
+		if (stringClusterCounter != null)
+			return stringClusterCounter.count(since);
+		
 		String query = "SELECT count(*)" +   
 				" FROM " + this.parsedStringTableName +
 				" WHERE (" +
@@ -2839,6 +6415,12 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		abstract boolean hasNextString();
 		abstract InternalPooledString getNextString();
 		abstract void close();
+		String getNextCursor() {
+			return null;
+		}
+		boolean isTruncated() {
+			return false;
+		}
 		protected void finalize() throws Throwable {
 			this.close();
 		}
@@ -2910,14 +6492,90 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 		}
 	}
 	
-	private class PooledStringIteratorLC implements PooledStringIterator {
+	private static class ListParsedStringIterator extends InternalPooledStringIterator {
+		private ArrayList strings;
+		private int index = 0;
+		private String nextCursor;
+		private boolean truncated;
+		ListParsedStringIterator(ArrayList strings) {
+			this(strings, null);
+		}
+		ListParsedStringIterator(ArrayList strings, String nextCursor) {
+			this(strings, nextCursor, false);
+		}
+		ListParsedStringIterator(ArrayList strings, String nextCursor, boolean truncated) {
+			this.strings = strings;
+			this.nextCursor = nextCursor;
+			this.truncated = truncated;
+		}
+		ListParsedStringIterator copy() {
+			return new ListParsedStringIterator(this.strings, this.nextCursor, this.truncated);
+		}
+		String getNextCursor() {
+			return this.nextCursor;
+		}
+		boolean isTruncated() {
+			return this.truncated;
+		}
+		public boolean hasNextString() {
+			return (this.index < this.strings.size());
+		}
+		public InternalPooledString getNextString() {
+			return (this.hasNextString() ? ((InternalPooledString) this.strings.get(this.index++)) : null);
+		}
+		public void close() {}
+	}
+	
+	private class CachingParsedStringIterator extends InternalPooledStringIterator {
+		private InternalPooledStringIterator ipsi;
+		private String cacheKey;
+		private long generation;
+		private ArrayList strings = new ArrayList();
+		CachingParsedStringIterator(InternalPooledStringIterator ipsi, String cacheKey, long generation) {
+			this.ipsi = ipsi;
+			this.cacheKey = cacheKey;
+			this.generation = generation;
+		}
+		public boolean hasNextString() {
+			if (this.ipsi.hasNextString())
+				return true;
+			
+			//	we've seen the complete result, put it in cache unless loading it failed part way through
+			if ((this.strings != null) && (this.cacheKey != null) && !this.ipsi.isTruncated() && findResultCache.isCacheable(this.strings.size()))
+				findResultCache.put(this.cacheKey, this.generation, this.strings);
+			this.strings = null;
+			return false;
+		}
+		public InternalPooledString getNextString() {
+			InternalPooledString next = this.ipsi.getNextString();
+			if ((next != null) && (this.strings != null)) {
+				this.strings.add(next);
+				if (!findResultCache.isCacheable(this.strings.size()))
+					this.strings = null;
+			}
+			return next;
+		}
+		public void close() {
+			this.ipsi.close();
+		}
+		boolean isTruncated() {
+			return this.ipsi.isTruncated();
+		}
+	}
+	
+	private class PooledStringIteratorLC implements PagedPooledStringIterator {
 		private InternalPooledStringIterator ipsi;
 		private boolean isFeed;
 		private boolean isConcise;
+		private String nextCursor;
 		PooledStringIteratorLC(InternalPooledStringIterator ipsi, boolean isFeed, boolean isConcise) {
 			this.ipsi = ipsi;
 			this.isFeed = isFeed;
 			this.isConcise = isConcise;
+			this.nextCursor = ipsi.getNextCursor();
+		}
+		public String getNextCursor() {
+			return this.nextCursor;
 		}
 		public boolean hasNextString() {
 			if (this.ipsi == null)
@@ -3095,7 +6753,28 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, boolean)
 	 */
 	public PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly) {
-		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, null);
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, false);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, boolean, boolean)
+	 */
+	public PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, rankByRelevance, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStrings(java.lang.String[], boolean, java.lang.String, java.lang.String, boolean, int, java.lang.String, boolean, boolean)
+	 */
+	public PagedPooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, String cursor, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		FindCursor findCursor;
+		try {
+			findCursor = FindCursor.decode((cursor == null) ? FIRST_PAGE_CURSOR : cursor);
+		}
+		catch (IllegalArgumentException iae) {
+			return new ExceptionPSI(new IOException(iae.getMessage()));
+		}
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, rankByRelevance, null, findCursor);
 	}
 	
 	/**
@@ -3113,6 +6792,31 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 	 * @return an iterator over the strings matching the query
 	 */
 	protected PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, Properties detailPredicates) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, false, detailPredicates);
+	}
+	
+	/**
+	 * Find strings using full text search plus sub class specific detail
+	 * queries, optionally ranking the result by relevance. This method is
+	 * meant to be called by sub classes only.
+	 * @param textPredicates the full text predicates
+	 * @param disjunctive combine the predicates with 'or'?
+	 * @param type the type of strings to search
+	 * @param user the name of the user to contribute or last update the strings
+	 * @param concise obtain a concise result, i.e., without parses?
+	 * @param limit the maximum number of strings to include in the result (0 means no limit)
+	 * @param selfCanonicalOnly filter out strings linked to others?
+	 * @param rankByRelevance sort the result by relevance to the full text
+	 *            predicates, most relevant first?
+	 * @param detailPredicates the predicates to match against a sub class
+	 *            specific index, given in a properties object
+	 * @return an iterator over the strings matching the query
+	 */
+	protected PooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance, Properties detailPredicates) {
+		return this.findStrings(textPredicates, disjunctive, type, user, concise, limit, selfCanonicalOnly, rankByRelevance, detailPredicates, null);
+	}
+	
+	private PagedPooledStringIterator findStrings(String[] textPredicates, boolean disjunctive, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance, Properties detailPredicates, FindCursor cursor) {
 		if (((textPredicates == null) || (textPredicates.length == 0)) && (type == null) && (user == null) && ((detailPredicates == null) || detailPredicates.isEmpty()))
 			return new ExceptionPSI(new IOException("Empty query"));
 		try {
@@ -3126,15 +6830,95 @@ public class StringPoolServlet extends OnnServlet implements StringPoolClient, S
 					detailPredicates = new Properties();
 				detailPredicates.setProperty(USER_PARAMETER, user);
 			}
-			InternalPooledStringIterator ipsi = this.findInternalStrings(textPredicates, disjunctive, limit, selfCanonicalOnly, detailPredicates);
+			
+			//	the permit covers running the query, but not reading the result, as callers need not close the iterator
+			if (!this.acquireFindPermit())
+				return new ExceptionPSI(new IOException("Too many concurrent searches, please try again later."));
+			FindBudget budget = new FindBudget(this.findMaxTime);
+			InternalPooledStringIterator ipsi;
+			try {
+				ipsi = this.findInternalStrings(textPredicates, disjunctive, null, rankByRelevance, this.getFindLimit(limit), selfCanonicalOnly, detailPredicates, cursor, budget, null);
+			}
+			finally {
+				this.releaseFindPermit();
+			}
 			System.out.println("StringPoolServlet: direct search complete");
-			return new PooledStringIteratorLC(ipsi, false, concise);
+			return new PooledStringIteratorLC(new BudgetedStringIterator(ipsi, budget), false, concise);
+		}
+		catch (IOException ioe) {
+			return new ExceptionPSI(ioe);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findSimilarStrings(java.lang.String, double, int)
+	 */
+	public PooledStringIterator findSimilarStrings(String stringId, double minSimilarity, int limit) {
+		try {
+			return new PooledStringIteratorLC(this.findInternalSimilarStrings(stringId, null, minSimilarity, limit), false, false);
 		}
 		catch (IOException ioe) {
 			return new ExceptionPSI(ioe);
 		}
 	}
 	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#findStringsBatch(java.lang.String[], java.lang.String, java.lang.String, boolean, int, boolean, boolean)
+	 */
+	public PooledStringIterator[] findStringsBatch(String[] queries, String type, String user, boolean concise, int limit, boolean selfCanonicalOnly, boolean rankByRelevance) {
+		Properties detailPredicates = new Properties();
+		if (type != null)
+			detailPredicates.setProperty(TYPE_PARAMETER, type);
+		if (user != null)
+			detailPredicates.setProperty(USER_PARAMETER, user);
+		MultiFindQuery[] multiFindQueries = new MultiFindQuery[queries.length];
+		for (int q = 0; q < queries.length; q++)
+			multiFindQueries[q] = new MultiFindQuery(("" + q), new String[] {queries[q]}, false, null, rankByRelevance, limit, selfCanonicalOnly, detailPredicates);
+		
+		this.apiCallCountTotal++;
+		this.apiCallCountMultiFind++;
+		HashMap futureQueries = new HashMap();
+		CompletionService searches = this.findInternalStringsBatch(multiFindQueries, futureQueries);
+		PooledStringIterator[] results = new PooledStringIterator[queries.length];
+		for (int f = 0; f < futureQueries.size(); f++) {
+			Future search;
+			PooledStringIterator result;
+			try {
+				search = searches.take();
+			}
+			catch (InterruptedException ie) {
+				break;
+			}
+			ArrayList queryIndexes = ((ArrayList) futureQueries.get(search));
+			for (int q = 0; q < queryIndexes.size(); q++) {
+				try {
+					result = new PooledStringIteratorLC(((ListParsedStringIterator) search.get()).copy(), false, concise);
+				}
+				catch (InterruptedException ie) {
+					result = new ExceptionPSI(new IOException("Search interrupted"));
+				}
+				catch (ExecutionException ee) {
+					result = new ExceptionPSI((ee.getCause() instanceof IOException) ? ((IOException) ee.getCause()) : new IOException(ee.getCause().toString()));
+				}
+				results[((Integer) queryIndexes.get(q)).intValue()] = result;
+			}
+		}
+		for (int q = 0; q < results.length; q++) {
+			if (results[q] == null)
+				results[q] = new ExceptionPSI(new IOException("Search interrupted"));
+		}
+		return results;
+	}
+	
+	/* (non-Javadoc)
+	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#resolveIdentifiers(java.lang.String[], java.lang.String[])
+	 */
+	public String[][] resolveIdentifiers(String[] types, String[] values) throws IOException {
+		this.apiCallCountTotal++;
+		this.apiCallCountResolve++;
+		return this.resolveIdentifiersInternal(types, values);
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.uka.ipd.idaho.onn.stringPool.StringPoolClient#getStringsUpdatedSince(long)
 	 */
@@ -0,0 +1,271 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * In-memory typeahead index over the plain strings, for as-you-type
+ * suggestions. Each string is indexed under its normalized form (lower case,
+ * letters and digits only, single spaces) as well as under each of its words,
+ * in a compressed trie (radix tree) whose edges are labeled with character
+ * sequences rather than single characters.<br>
+ * Every trie node keeps the top ranked strings below it, so answering a
+ * prefix query only takes walking down the prefix, regardless of how many
+ * strings start with it. Strings whose normalized form starts with the prefix
+ * rank before strings with a word starting with it, and shorter strings rank
+ * before longer ones, as the prefix covers more of them.
+ * 
+ * @author sautter
+ */
+class SuggestIndex {
+	
+	private static final int WORD_MATCH_PENALTY = (1 << 20);
+	private static final int SNIPPET_LENGTH = 100;
+	
+	private final int topSize;
+	private final Node root = new Node(new char[0]);
+	
+	private String[] docIds = new String[1024];
+	private String[] docSnippets = new String[1024];
+	private int docCount = 0;
+	private HashMap docNumbers = new HashMap();
+	
+	private static class Node {
+		char[] label;
+		Node[] children = null;
+		int[] topDocs = null;
+		int[] topScores = null;
+		int topCount = 0;
+		Node(char[] label) {
+			this.label = label;
+		}
+	}
+	
+	/**
+	 * Constructor
+	 * @param topSize the maximum number of suggestions to keep per prefix
+	 */
+	SuggestIndex(int topSize) {
+		this.topSize = topSize;
+	}
+	
+	/**
+	 * @return the number of strings in the index
+	 */
+	synchronized int size() {
+		return this.docCount;
+	}
+	
+	/**
+	 * Add a string to the index. If a string with the argument ID is already
+	 * in the index, or the argument text does not contain any letters or
+	 * digits, this method does nothing.
+	 * @param id the ID of the string
+	 * @param text the plain string
+	 */
+	synchronized void add(String id, String text) {
+		if (this.docNumbers.containsKey(id))
+			return;
+		String normText = normalize(text).trim();
+		if (normText.length() == 0)
+			return;
+		if (this.docCount == this.docIds.length) {
+			String[] docIds = new String[this.docIds.length * 2];
+			System.arraycopy(this.docIds, 0, docIds, 0, this.docCount);
+			this.docIds = docIds;
+			String[] docSnippets = new String[this.docSnippets.length * 2];
+			System.arraycopy(this.docSnippets, 0, docSnippets, 0, this.docCount);
+			this.docSnippets = docSnippets;
+		}
+		int doc = this.docCount++;
+		this.docIds[doc] = id;
+		this.docSnippets[doc] = ((text.length() > SNIPPET_LENGTH) ? (text.substring(0, SNIPPET_LENGTH).trim() + " ...") : text);
+		this.docNumbers.put(id, new Integer(doc));
+		
+		//	index normalized string as a whole, and each distinct word
+		this.insert(normText, doc, normText.length());
+		TreeSet words = new TreeSet();
+		String[] tokens = normText.split(" ");
+		for (int t = 0; t < tokens.length; t++) {
+			if (words.add(tokens[t]) && !tokens[t].equals(normText))
+				this.insert(tokens[t], doc, (WORD_MATCH_PENALTY + normText.length()));
+		}
+	}
+	
+	private void insert(String key, int doc, int score) {
+		Node node = this.root;
+		int pos = 0;
+		while (pos < key.length()) {
+			int c = this.findChild(node, key.charAt(pos));
+			
+			//	no child starting with next character, add leaf
+			if (c < 0) {
+				Node leaf = new Node(key.substring(pos).toCharArray());
+				this.offer(leaf, doc, score);
+				this.insertChild(node, (-c - 1), leaf);
+				return;
+			}
+			
+			//	follow common part of edge label, splitting edge if key diverges or ends inside it
+			Node child = node.children[c];
+			int common = 0;
+			while ((common < child.label.length) && ((pos + common) < key.length()) && (child.label[common] == key.charAt(pos + common)))
+				common++;
+			if (common < child.label.length) {
+				char[] midLabel = new char[common];
+				System.arraycopy(child.label, 0, midLabel, 0, common);
+				char[] restLabel = new char[child.label.length - common];
+				System.arraycopy(child.label, common, restLabel, 0, restLabel.length);
+				Node mid = new Node(midLabel);
+				mid.children = new Node[] {child};
+				mid.topDocs = ((child.topDocs == null) ? null : ((int[]) child.topDocs.clone()));
+				mid.topScores = ((child.topScores == null) ? null : ((int[]) child.topScores.clone()));
+				mid.topCount = child.topCount;
+				child.label = restLabel;
+				node.children[c] = mid;
+				child = mid;
+			}
+			this.offer(child, doc, score);
+			node = child;
+			pos += common;
+		}
+	}
+	
+	private int findChild(Node node, char ch) {
+		if (node.children == null)
+			return -1;
+		int low = 0;
+		int high = (node.children.length - 1);
+		while (low <= high) {
+			int mid = ((low + high) >>> 1);
+			char midCh = node.children[mid].label[0];
+			if (midCh < ch)
+				low = mid + 1;
+			else if (midCh > ch)
+				high = mid - 1;
+			else return mid;
+		}
+		return (-low - 1);
+	}
+	
+	private void insertChild(Node node, int index, Node child) {
+		Node[] children = new Node[(node.children == null) ? 1 : (node.children.length + 1)];
+		if (node.children != null) {
+			System.arraycopy(node.children, 0, children, 0, index);
+			System.arraycopy(node.children, index, children, (index + 1), (node.children.length - index));
+		}
+		children[index] = child;
+		node.children = children;
+	}
+	
+	/*
+	 * Offer a string to the top list of a node, which is sorted by ascending
+	 * score, and by string number for equal scores.
+	 */
+	private void offer(Node node, int doc, int score) {
+		if (node.topDocs == null) {
+			node.topDocs = new int[Math.min(4, this.topSize)];
+			node.topScores = new int[node.topDocs.length];
+		}
+		
+		//	check if string already listed, and keep it if listed with same or better score
+		int pos = -1;
+		for (int t = 0; t < node.topCount; t++)
+			if (node.topDocs[t] == doc) {
+				if (node.topScores[t] <= score)
+					return;
+				pos = t;
+				break;
+			}
+		
+		//	remove string if listed with worse score, or make room for it
+		if (pos != -1) {
+			System.arraycopy(node.topDocs, (pos + 1), node.topDocs, pos, (node.topCount - pos - 1));
+			System.arraycopy(node.topScores, (pos + 1), node.topScores, pos, (node.topCount - pos - 1));
+			node.topCount--;
+		}
+		else if (node.topCount == this.topSize) {
+			if (score >= node.topScores[node.topCount - 1])
+				return;
+			node.topCount--;
+		}
+		else if (node.topCount == node.topDocs.length) {
+			int[] topDocs = new int[Math.min((node.topDocs.length * 2), this.topSize)];
+			System.arraycopy(node.topDocs, 0, topDocs, 0, node.topCount);
+			node.topDocs = topDocs;
+			int[] topScores = new int[topDocs.length];
+			System.arraycopy(node.topScores, 0, topScores, 0, node.topCount);
+			node.topScores = topScores;
+		}
+		
+		//	insert string at its rank (new strings have higher numbers, so they go behind strings with equal score)
+		int t = node.topCount;
+		while ((t > 0) && (node.topScores[t-1] > score)) {
+			node.topDocs[t] = node.topDocs[t-1];
+			node.topScores[t] = node.topScores[t-1];
+			t--;
+		}
+		node.topDocs[t] = doc;
+		node.topScores[t] = score;
+		node.topCount++;
+	}
+	
+	/**
+	 * Retrieve the top ranked strings for a prefix. The result array holds
+	 * the IDs of the strings and their snippets, i.e., the first characters
+	 * of the plain strings, in alternating order.
+	 * @param prefix the prefix to get suggestions for
+	 * @param limit the maximum number of suggestions to return
+	 * @return an array holding IDs and snippets of the suggested strings
+	 */
+	synchronized String[] suggest(String prefix, int limit) {
+		String normPrefix = normalize(prefix);
+		while (normPrefix.startsWith(" "))
+			normPrefix = normPrefix.substring(1);
+		if (normPrefix.length() == 0)
+			return new String[0];
+		
+		//	walk down prefix
+		Node node = this.root;
+		int pos = 0;
+		while (pos < normPrefix.length()) {
+			int c = this.findChild(node, normPrefix.charAt(pos));
+			if (c < 0)
+				return new String[0];
+			node = node.children[c];
+			for (int l = 0; (l < node.label.length) && (pos < normPrefix.length()); l++, pos++) {
+				if (node.label[l] != normPrefix.charAt(pos))
+					return new String[0];
+			}
+		}
+		
+		//	read top strings
+		String[] suggestions = new String[Math.min(limit, node.topCount) * 2];
+		for (int t = 0; t < (suggestions.length / 2); t++) {
+			suggestions[t * 2] = this.docIds[node.topDocs[t]];
+			suggestions[(t * 2) + 1] = this.docSnippets[node.topDocs[t]];
+		}
+		return suggestions;
+	}
+	
+	private static String normalize(String text) {
+		return text.toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ");
+	}
+}
@@ -0,0 +1,654 @@
+/* RefBank, the distributed platform for bibliographic references.
+ * Copyright (C) 2011-2013 ViBRANT (FP7/2007-2013, GA 261532), by D. King & G. Sautter
+ * 
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package de.uka.ipd.idaho.onn.stringPool;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index over the lower case plain strings, answering substring and
+ * regular expression queries by intersecting the posting lists of the
+ * trigrams a match has to contain, and then verifying the candidates against
+ * the indexed strings.<br>
+ * Strings are numbered in the order they are added, so posting lists are
+ * sorted by construction and stored as variable length encoded deltas. Both
+ * the posting lists and the strings themselves reside in direct byte buffers
+ * outside the Java heap, addressed by long offsets, so the arena can grow
+ * beyond 2GB. Posting lists are chains of blocks of increasing size, so adding
+ * a string only appends to the last block of each list. Strings too long for
+ * a single chunk span as many consecutive chunks as they need.<br>
+ * Queries only hold the index monitor while collecting candidates, and verify
+ * the candidates afterwards, so adding strings never waits for the
+ * verification of an expensive regular expression. The verification stops at
+ * a deadline, and regular expressions taking excessive matching steps on a
+ * single string are rejected altogether.
+ * 
+ * @author sautter
+ */
+class TrigramIndex {
+	
+	private static final int CHUNK_BITS = 20;
+	private static final int CHUNK_SIZE = (1 << CHUNK_BITS);
+	private static final int CHUNK_MASK = (CHUNK_SIZE - 1);
+	
+	private static final int BLOCK_HEADER_SIZE = 12; // next block address, block size
+	private static final int MIN_BLOCK_SIZE = 32;
+	private static final int MAX_BLOCK_SIZE = 4096;
+	private static final int MAX_VARINT_SIZE = 5;
+	
+	private static final int MIN_MATCH_STEPS = 1000000;
+	private static final int MATCH_STEPS_PER_CHAR = 100;
+	
+	private static class Posting {
+		long firstBlock = -1;
+		long lastBlock = -1;
+		long writeAddress;
+		long blockEnd;
+		int lastDoc = -1;
+		int count = 0;
+	}
+	
+	/* Candidates for a query, with a snapshot of the chunks and text
+	 * addresses taken under the index monitor. Texts of strings already in
+	 * the index never change, so the candidates can be verified against the
+	 * snapshot without holding the monitor. */
+	private static class Candidates {
+		final int[] docs;
+		final ByteBuffer[] chunks;
+		final long[] docTextAddresses;
+		final int[] docTextLengths;
+		Candidates(int[] docs, ByteBuffer[] chunks, long[] docTextAddresses, int[] docTextLengths) {
+			this.docs = docs;
+			this.chunks = chunks;
+			this.docTextAddresses = docTextAddresses;
+			this.docTextLengths = docTextLengths;
+		}
+		String getText(int c) {
+			byte[] textBytes = new byte[this.docTextLengths[this.docs[c]]];
+			get(this.chunks, this.docTextAddresses[this.docs[c]], textBytes);
+			try {
+				return new String(textBytes, "UTF-8");
+			}
+			catch (UnsupportedEncodingException uee) {
+				return ""; // never gonna happen with UTF-8, but Java don't know
+			}
+		}
+	}
+	
+	/* Text counting the characters a regular expression inspects, to stop
+	 * catastrophic backtracking. */
+	private static class BoundedText implements CharSequence {
+		private String text;
+		private int maxSteps;
+		private int steps = 0;
+		BoundedText(String text) {
+			this.text = text;
+			this.maxSteps = Math.max(MIN_MATCH_STEPS, (MATCH_STEPS_PER_CHAR * text.length()));
+		}
+		public char charAt(int index) {
+			if (++this.steps > this.maxSteps)
+				throw new IllegalArgumentException("Regular expression too complex");
+			return this.text.charAt(index);
+		}
+		public int length() {
+			return this.text.length();
+		}
+		public CharSequence subSequence(int start, int end) {
+			return this.text.subSequence(start, end);
+		}
+		public String toString() {
+			return this.text;
+		}
+	}
+	
+	private ArrayList chunks = new ArrayList();
+	private long arenaEnd = 0;
+	
+	private String[] docIds = new String[1024];
+	private long[] docTextAddresses = new long[1024];
+	private int[] docTextLengths = new int[1024];
+	private int docCount = 0;
+	private HashMap docNumbers = new HashMap();
+	
+	private HashMap postings = new HashMap();
+	
+	/**
+	 * @return the number of strings in the index
+	 */
+	synchronized int size() {
+		return this.docCount;
+	}
+	
+	/**
+	 * Add a string to the index. If a string with the argument ID is already
+	 * in the index, this method does nothing.
+	 * @param id the ID of the string
+	 * @param text the plain string
+	 */
+	synchronized void add(String id, String text) {
+		String normText = text.toLowerCase();
+		this.add(id, normText, getTrigrams(normText));
+	}
+	
+	/**
+	 * Add a batch of strings to the index, extracting trigrams in parallel.
+	 * Strings whose IDs are already in the index are ignored.
+	 * @param ids the IDs of the strings
+	 * @param texts the plain strings
+	 * @param threads the number of threads to use for trigram extraction
+	 */
+	void addAll(final String[] ids, final String[] texts, int threads) {
+		final String[] normTexts = new String[texts.length];
+		final long[][] docTrigrams = new long[texts.length][];
+		Thread[] extractors = new Thread[Math.max(1, threads)];
+		for (int t = 0; t < extractors.length; t++) {
+			final int start = t;
+			final int step = extractors.length;
+			extractors[t] = new Thread("TrigramExtractor" + t) {
+				public void run() {
+					for (int d = start; d < texts.length; d += step) {
+						normTexts[d] = texts[d].toLowerCase();
+						docTrigrams[d] = getTrigrams(normTexts[d]);
+					}
+				}
+			};
+			extractors[t].start();
+		}
+		for (int t = 0; t < extractors.length; t++) try {
+			extractors[t].join();
+		} catch (InterruptedException ie) {}
+		
+		//	posting lists have to be appended to in document number order
+		synchronized (this) {
+			for (int d = 0; d < ids.length; d++)
+				this.add(ids[d], normTexts[d], docTrigrams[d]);
+		}
+	}
+	
+	private void add(String id, String normText, long[] trigrams) {
+		if (this.docNumbers.containsKey(id))
+			return;
+		byte[] textBytes;
+		try {
+			textBytes = normText.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException uee) {
+			return; // never gonna happen with UTF-8, but Java don't know
+		}
+		long textAddress = this.allocate(textBytes.length);
+		this.put(textAddress, textBytes);
+		
+		int doc = this.docCount++;
+		if (doc == this.docIds.length) {
+			String[] docIds = new String[this.docIds.length * 2];
+			System.arraycopy(this.docIds, 0, docIds, 0, this.docIds.length);
+			this.docIds = docIds;
+			long[] docTextAddresses = new long[this.docTextAddresses.length * 2];
+			System.arraycopy(this.docTextAddresses, 0, docTextAddresses, 0, this.docTextAddresses.length);
+			this.docTextAddresses = docTextAddresses;
+			int[] docTextLengths = new int[this.docTextLengths.length * 2];
+			System.arraycopy(this.docTextLengths, 0, docTextLengths, 0, this.docTextLengths.length);
+			this.docTextLengths = docTextLengths;
+		}
+		this.docIds[doc] = id;
+		this.docTextAddresses[doc] = textAddress;
+		this.docTextLengths[doc] = textBytes.length;
+		this.docNumbers.put(id, new Integer(doc));
+		
+		for (int t = 0; t < trigrams.length; t++) {
+			Long trigram = new Long(trigrams[t]);
+			Posting posting = ((Posting) this.postings.get(trigram));
+			if (posting == null) {
+				posting = new Posting();
+				this.postings.put(trigram, posting);
+			}
+			this.append(posting, doc);
+		}
+	}
+	
+	/**
+	 * Find the strings containing a match of a given pattern in the syntax
+	 * of the SQL LIKE operator, ignoring case, exactly like the pattern
+	 * enclosed in '%' would match the whole string, i.e., '%' in the pattern
+	 * matches any sequence of characters, and '_' any single character. The
+	 * literal fragments between the wildcards have to occur in the string in
+	 * the order they appear in the pattern. If the deadline passes before all
+	 * candidates are verified, the result only contains the matches verified
+	 * up to that point.
+	 * @param likePattern the pattern to search for
+	 * @param deadline the time to stop verifying candidates at
+	 * @return the sorted numbers of the matching strings
+	 */
+	int[] findLike(String likePattern, long deadline) {
+		String[] fragments = likePattern.toLowerCase().split("\\%+");
+		Candidates candidates = this.getCandidates(likePattern.toLowerCase().split("[\\%\\_]+"));
+		int matchCount = 0;
+		for (int c = 0; c < candidates.docs.length; c++) {
+			if (((c & 0xFF) == 0) && (System.currentTimeMillis() > deadline))
+				break;
+			String text = candidates.getText(c);
+			int from = 0;
+			for (int f = 0; (f < fragments.length) && (from != -1); f++) {
+				from = indexOfLike(text, fragments[f], from);
+				if (from != -1)
+					from += fragments[f].length();
+			}
+			if (from != -1)
+				candidates.docs[matchCount++] = candidates.docs[c];
+		}
+		return trim(candidates.docs, matchCount);
+	}
+	
+	private static int indexOfLike(String text, String fragment, int from) {
+		if (fragment.indexOf('_') == -1)
+			return text.indexOf(fragment, from);
+		for (int s = from; s <= (text.length() - fragment.length()); s++) {
+			int c = 0;
+			while ((c < fragment.length()) && ((fragment.charAt(c) == '_') || (fragment.charAt(c) == text.charAt(s + c))))
+				c++;
+			if (c == fragment.length())
+				return s;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Find the strings containing a match of a given regular expression,
+	 * ignoring case. If the deadline passes before all candidates are
+	 * verified, the result only contains the matches verified up to that
+	 * point.
+	 * @param regEx the regular expression to search for
+	 * @param deadline the time to stop verifying candidates at
+	 * @return the sorted numbers of the matching strings
+	 * @throws IllegalArgumentException if matching the regular expression
+	 *            against a single string takes excessively many steps
+	 */
+	int[] findRegEx(String regEx, long deadline) {
+		Pattern pattern = Pattern.compile(regEx, (Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+		Candidates candidates = this.getCandidates(getRequiredLiterals(regEx));
+		int matchCount = 0;
+		for (int c = 0; c < candidates.docs.length; c++) {
+			if (((c & 0xFF) == 0) && (System.currentTimeMillis() > deadline))
+				break;
+			try {
+				if (pattern.matcher(new BoundedText(candidates.getText(c))).find())
+					candidates.docs[matchCount++] = candidates.docs[c];
+			}
+			catch (StackOverflowError soe) {
+				throw new IllegalArgumentException("Regular expression too complex");
+			}
+		}
+		return trim(candidates.docs, matchCount);
+	}
+	
+	/**
+	 * Retrieve the IDs of strings by their numbers.
+	 * @param docs the string numbers
+	 * @return the string IDs
+	 */
+	synchronized String[] getIds(int[] docs) {
+		String[] ids = new String[docs.length];
+		for (int d = 0; d < docs.length; d++)
+			ids[d] = this.docIds[docs[d]];
+		return ids;
+	}
+	
+	private synchronized Candidates getCandidates(String[] literals) {
+		int[] docs = this.getCandidateDocs(literals);
+		return new Candidates(docs, ((ByteBuffer[]) this.chunks.toArray(new ByteBuffer[this.chunks.size()])), this.docTextAddresses, this.docTextLengths);
+	}
+	
+	private int[] getCandidateDocs(String[] literals) {
+		
+		//	collect trigrams of all literals
+		long[] trigrams = new long[0];
+		for (int l = 0; l < literals.length; l++) {
+			long[] literalTrigrams = getTrigrams(literals[l]);
+			long[] allTrigrams = new long[trigrams.length + literalTrigrams.length];
+			System.arraycopy(trigrams, 0, allTrigrams, 0, trigrams.length);
+			System.arraycopy(literalTrigrams, 0, allTrigrams, trigrams.length, literalTrigrams.length);
+			trigrams = allTrigrams;
+		}
+		
+		//	no trigrams to go by, need to check all strings
+		if (trigrams.length == 0) {
+			int[] allDocs = new int[this.docCount];
+			for (int d = 0; d < allDocs.length; d++)
+				allDocs[d] = d;
+			return allDocs;
+		}
+		
+		//	intersect posting lists, shortest first
+		Posting[] trigramPostings = new Posting[trigrams.length];
+		for (int t = 0; t < trigrams.length; t++) {
+			trigramPostings[t] = ((Posting) this.postings.get(new Long(trigrams[t])));
+			if (trigramPostings[t] == null)
+				return new int[0];
+		}
+		Arrays.sort(trigramPostings, new Comparator() {
+			public int compare(Object obj1, Object obj2) {
+				return (((Posting) obj1).count - ((Posting) obj2).count);
+			}
+		});
+		int[] candidates = this.decode(trigramPostings[0]);
+		for (int t = 1; (t < trigramPostings.length) && (candidates.length != 0); t++)
+			candidates = intersect(candidates, this.decode(trigramPostings[t]));
+		return candidates;
+	}
+	
+	/**
+	 * Extract the literal substrings every match of a regular expression has
+	 * to contain, in lower case. The extraction is conservative: expressions
+	 * containing alternatives yield no literals at all, and group contents,
+	 * character classes, optional characters, and escape sequences other than
+	 * escaped punctuation (e.g. hex, unicode, and octal escapes, or quoted
+	 * sections) are skipped.
+	 * @param regEx the regular expression to analyze
+	 * @return the required literals
+	 */
+	static String[] getRequiredLiterals(String regEx) {
+		if (regEx.indexOf('|') != -1)
+			return new String[0];
+		ArrayList literals = new ArrayList();
+		StringBuffer literal = new StringBuffer();
+		int groupDepth = 0;
+		for (int c = 0; c < regEx.length(); c++) {
+			char ch = regEx.charAt(c);
+			if (ch == '\\') {
+				c++;
+				if (c == regEx.length())
+					break;
+				ch = regEx.charAt(c);
+				if (Character.isLetterOrDigit(ch)) {
+					c = skipEscape(regEx, c);
+					if (groupDepth == 0)
+						addLiteral(literals, literal);
+				}
+				else if (groupDepth == 0)
+					literal.append(ch);
+			}
+			else if (ch == '[') {
+				addLiteral(literals, literal);
+				for (c++; c < regEx.length(); c++) {
+					if (regEx.charAt(c) == '\\')
+						c++;
+					else if (regEx.charAt(c) == ']')
+						break;
+				}
+			}
+			else if (ch == '(') {
+				addLiteral(literals, literal);
+				groupDepth++;
+			}
+			else if (ch == ')') {
+				addLiteral(literals, literal);
+				groupDepth--;
+			}
+			else if (groupDepth > 0)
+				continue;
+			else if ((ch == '?') || (ch == '*') || (ch == '{')) {
+				if (literal.length() != 0)
+					literal.deleteCharAt(literal.length() - 1);
+				addLiteral(literals, literal);
+				if (ch == '{')
+					while ((c < regEx.length()) && (regEx.charAt(c) != '}'))
+						c++;
+			}
+			else if ((ch == '+') || (ch == '.') || (ch == '^') || (ch == '$'))
+				addLiteral(literals, literal);
+			else literal.append(ch);
+		}
+		addLiteral(literals, literal);
+		return ((String[]) literals.toArray(new String[literals.size()]));
+	}
+	
+	/*
+	 * Skip the arguments of an escape sequence starting with a letter or
+	 * digit, returning the position of the last character of the sequence.
+	 */
+	private static int skipEscape(String regEx, int c) {
+		char ch = regEx.charAt(c);
+		if (ch == 'Q') {
+			int end = regEx.indexOf("\\E", c);
+			return ((end == -1) ? regEx.length() : (end + 1));
+		}
+		else if ((ch == 'x') || (ch == 'p') || (ch == 'P') || (ch == 'N')) {
+			if (((c + 1) < regEx.length()) && (regEx.charAt(c + 1) == '{')) {
+				int end = regEx.indexOf('}', c);
+				return ((end == -1) ? regEx.length() : end);
+			}
+			return Math.min((c + ((ch == 'x') ? 2 : 1)), (regEx.length() - 1));
+		}
+		else if (ch == 'u')
+			return Math.min((c + 4), (regEx.length() - 1));
+		else if (ch == 'c')
+			return Math.min((c + 1), (regEx.length() - 1));
+		else if (ch == 'k') {
+			int end = regEx.indexOf('>', c);
+			return ((end == -1) ? regEx.length() : end);
+		}
+		else if (ch == '0') {
+			for (int o = 0; (o < 3) && ((c + 1) < regEx.length()) && ("01234567".indexOf(regEx.charAt(c + 1)) != -1); o++)
+				c++;
+			return c;
+		}
+		else if (Character.isDigit(ch)) {
+			while (((c + 1) < regEx.length()) && Character.isDigit(regEx.charAt(c + 1)))
+				c++;
+			return c;
+		}
+		else return c;
+	}
+	
+	private static void addLiteral(ArrayList literals, StringBuffer literal) {
+		if (literal.length() >= 3)
+			literals.add(literal.toString().toLowerCase());
+		literal.setLength(0);
+	}
+	
+	/**
+	 * Intersect two sorted arrays of string numbers.
+	 * @param docs1 the first array
+	 * @param docs2 the second array
+	 * @return the intersection
+	 */
+	static int[] intersect(int[] docs1, int[] docs2) {
+		int[] docs = new int[Math.min(docs1.length, docs2.length)];
+		int count = 0;
+		for (int i1 = 0, i2 = 0; (i1 < docs1.length) && (i2 < docs2.length);) {
+			if (docs1[i1] < docs2[i2])
+				i1++;
+			else if (docs2[i2] < docs1[i1])
+				i2++;
+			else {
+				docs[count++] = docs1[i1++];
+				i2++;
+			}
+		}
+		return trim(docs, count);
+	}
+	
+	/**
+	 * Unite two sorted arrays of string numbers.
+	 * @param docs1 the first array
+	 * @param docs2 the second array
+	 * @return the union
+	 */
+	static int[] union(int[] docs1, int[] docs2) {
+		int[] docs = new int[docs1.length + docs2.length];
+		int count = 0;
+		int i1 = 0;
+		int i2 = 0;
+		while ((i1 < docs1.length) || (i2 < docs2.length)) {
+			if (i2 == docs2.length)
+				docs[count++] = docs1[i1++];
+			else if (i1 == docs1.length)
+				docs[count++] = docs2[i2++];
+			else if (docs1[i1] < docs2[i2])
+				docs[count++] = docs1[i1++];
+			else if (docs2[i2] < docs1[i1])
+				docs[count++] = docs2[i2++];
+			else {
+				docs[count++] = docs1[i1++];
+				i2++;
+			}
+		}
+		return trim(docs, count);
+	}
+	
+	private static int[] trim(int[] docs, int count) {
+		if (count == docs.length)
+			return docs;
+		int[] trimmedDocs = new int[count];
+		System.arraycopy(docs, 0, trimmedDocs, 0, count);
+		return trimmedDocs;
+	}
+	
+	private static long[] getTrigrams(String normText) {
+		if (normText.length() < 3)
+			return new long[0];
+		long[] trigrams = new long[normText.length() - 2];
+		for (int c = 0; c < trigrams.length; c++)
+			trigrams[c] = ((((long) normText.charAt(c)) << 32) | (((long) normText.charAt(c+1)) << 16) | ((long) normText.charAt(c+2)));
+		Arrays.sort(trigrams);
+		int count = 0;
+		for (int t = 0; t < trigrams.length; t++) {
+			if ((count == 0) || (trigrams[count-1] != trigrams[t]))
+				trigrams[count++] = trigrams[t];
+		}
+		if (count == trigrams.length)
+			return trigrams;
+		long[] uniqueTrigrams = new long[count];
+		System.arraycopy(trigrams, 0, uniqueTrigrams, 0, count);
+		return uniqueTrigrams;
+	}
+	
+	private void append(Posting posting, int doc) {
+		
+		//	start new block if current one cannot hold another number
+		if ((posting.lastBlock == -1) || ((posting.blockEnd - posting.writeAddress) < MAX_VARINT_SIZE)) {
+			int blockSize = ((posting.lastBlock == -1) ? MIN_BLOCK_SIZE : Math.min(MAX_BLOCK_SIZE, (this.getInt(posting.lastBlock + 8) * 2)));
+			long block = this.allocate(blockSize);
+			this.putLong(block, -1);
+			this.putInt((block + 8), blockSize);
+			if (posting.lastBlock == -1)
+				posting.firstBlock = block;
+			else this.putLong(posting.lastBlock, block);
+			posting.lastBlock = block;
+			posting.writeAddress = (block + BLOCK_HEADER_SIZE);
+			posting.blockEnd = (block + blockSize);
+		}
+		
+		//	write delta as variable length integer, seven bits at a time
+		int delta = (doc - posting.lastDoc);
+		while ((delta & ~0x7F) != 0) {
+			this.putByte(posting.writeAddress++, ((byte) ((delta & 0x7F) | 0x80)));
+			delta >>>= 7;
+		}
+		this.putByte(posting.writeAddress++, ((byte) delta));
+		posting.lastDoc = doc;
+		posting.count++;
+	}
+	
+	private int[] decode(Posting posting) {
+		int[] docs = new int[posting.count];
+		long block = posting.firstBlock;
+		long readAddress = (block + BLOCK_HEADER_SIZE);
+		long blockEnd = (block + this.getInt(block + 8));
+		int doc = -1;
+		for (int d = 0; d < docs.length; d++) {
+			if ((blockEnd - readAddress) < MAX_VARINT_SIZE) {
+				block = this.getLong(block);
+				readAddress = (block + BLOCK_HEADER_SIZE);
+				blockEnd = (block + this.getInt(block + 8));
+			}
+			int delta = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = this.getByte(readAddress++);
+				delta |= ((b & 0x7F) << shift);
+				if ((b & 0x80) == 0)
+					break;
+			}
+			doc += delta;
+			docs[d] = doc;
+		}
+		return docs;
+	}
+	
+	private long allocate(int size) {
+		
+		//	small allocations never span chunks, larger ones start at a chunk boundary and span as many chunks as they need
+		long address = this.arenaEnd;
+		if ((size <= CHUNK_SIZE) ? (((address & CHUNK_MASK) + size) > CHUNK_SIZE) : ((address & CHUNK_MASK) != 0))
+			address = (((address >>> CHUNK_BITS) + 1) << CHUNK_BITS);
+		long lastChunk = (Math.max(address, (address + size - 1)) >>> CHUNK_BITS);
+		while (this.chunks.size() <= lastChunk)
+			this.chunks.add(ByteBuffer.allocateDirect(CHUNK_SIZE));
+		this.arenaEnd = (address + size);
+		return address;
+	}
+	
+	private ByteBuffer getChunk(long address) {
+		return ((ByteBuffer) this.chunks.get((int) (address >>> CHUNK_BITS)));
+	}
+	
+	private byte getByte(long address) {
+		return this.getChunk(address).get((int) (address & CHUNK_MASK));
+	}
+	
+	private void putByte(long address, byte b) {
+		this.getChunk(address).put(((int) (address & CHUNK_MASK)), b);
+	}
+	
+	private int getInt(long address) {
+		return this.getChunk(address).getInt((int) (address & CHUNK_MASK));
+	}
+	
+	private void putInt(long address, int i) {
+		this.getChunk(address).putInt(((int) (address & CHUNK_MASK)), i);
+	}
+	
+	private long getLong(long address) {
+		return this.getChunk(address).getLong((int) (address & CHUNK_MASK));
+	}
+	
+	private void putLong(long address, long l) {
+		this.getChunk(address).putLong(((int) (address & CHUNK_MASK)), l);
+	}
+	
+	private static void get(ByteBuffer[] chunks, long address, byte[] bytes) {
+		for (int b = 0; b < bytes.length;) {
+			ByteBuffer chunk = chunks[(int) ((address + b) >>> CHUNK_BITS)];
+			for (int offset = ((int) ((address + b) & CHUNK_MASK)); (b < bytes.length) && (offset < CHUNK_SIZE); b++)
+				bytes[b] = chunk.get(offset++);
+		}
+	}
+	
+	private void put(long address, byte[] bytes) {
+		for (int b = 0; b < bytes.length;) {
+			ByteBuffer chunk = this.getChunk(address + b);
+			for (int offset = ((int) ((address + b) & CHUNK_MASK)); (b < bytes.length) && (offset < CHUNK_SIZE); b++)
+				chunk.put(offset++, bytes[b]);
+		}
+	}
+}